@@ -0,0 +1,69 @@
+package app.simsmartgsm.config;
+
+import app.simsmartgsm.dto.request.RentSimRequest;
+import app.simsmartgsm.dto.response.OtpEvent;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Encode/decode payload trên broker link bằng ObjectWriter/ObjectReader dựng sẵn theo type
+ * (không tra serializer mỗi message). Frame batch = mảng JSON các OtpEvent.
+ */
+@Component
+public class BrokerCodec {
+
+    /** Header CONNECT/CONNECTED để 2 bên thoả thuận frame batch */
+    public static final String BATCH_HEADER = "otp-batch";
+    /** Header SEND đánh dấu body là mảng OtpEvent */
+    public static final String FORMAT_HEADER = "otp-format";
+    public static final String FORMAT_BATCH = "batch";
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final ObjectWriter otpWriter = mapper.writerFor(OtpEvent.class);
+    private final ObjectWriter otpBatchWriter = mapper.writerFor(new TypeReference<List<OtpEvent>>() {});
+    private final ObjectReader otpReader = mapper.readerFor(OtpEvent.class);
+    private final ObjectReader rentReader = mapper.readerFor(RentSimRequest.class);
+
+    public byte[] encodeOtp(OtpEvent event) {
+        try {
+            return otpWriter.writeValueAsBytes(event);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public byte[] encodeOtpBatch(List<OtpEvent> events) {
+        try {
+            return otpBatchWriter.writeValueAsBytes(events);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public OtpEvent decodeOtp(String json) throws IOException {
+        return otpReader.readValue(json);
+    }
+
+    public RentSimRequest decodeRent(byte[] body) throws IOException {
+        return rentReader.readValue(body);
+    }
+
+    /** Payload không có writer riêng (vd: register device) */
+    public byte[] encode(Object payload) {
+        try {
+            return mapper.writeValueAsBytes(payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
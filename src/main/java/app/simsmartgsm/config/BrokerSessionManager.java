@@ -0,0 +1,260 @@
+package app.simsmartgsm.config;
+
+import app.simsmartgsm.uitils.HostUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Một kết nối STOMP duy nhất tới remote broker cho toàn app (1 client, 1 scheduler).
+ * Mất kết nối thì reconnect với exponential backoff + jitter, sau khi nối lại
+ * tự subscribe lại mọi destination đã đăng ký.
+ */
+@Component
+@Slf4j
+public class BrokerSessionManager {
+
+    public enum State { DISCONNECTED, CONNECTING, CONNECTED }
+
+    /** Header CONNECT/SUBSCRIBE mang tên device để broker route theo node */
+    public static final String DEVICE_HEADER = "deviceName";
+    private static final String REGISTER_DESTINATION = "/app/device/register";
+
+    private final MeterRegistry registry;
+    private final BrokerCodec codec;
+
+    @Value("${gsm.broker.url:ws://72.60.41.168:9090/ws}")
+    private String url;
+    @Value("${gsm.broker.heartbeat-ms:10000}")
+    private long heartbeatMs;
+    @Value("${gsm.broker.backoff-base-ms:1000}")
+    private long backoffBaseMs;
+    @Value("${gsm.broker.backoff-max-ms:60000}")
+    private long backoffMaxMs;
+
+    private final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+    private WebSocketStompClient stompClient;
+
+    private final AtomicReference<StompSession> sessionRef = new AtomicReference<>();
+    private final AtomicReference<State> state = new AtomicReference<>(State.DISCONNECTED);
+    private final AtomicBoolean reconnectPending = new AtomicBoolean();
+    private final AtomicInteger attempts = new AtomicInteger();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final List<Consumer<StompSession>> connectListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean stopped;
+    /** Server trả header otp-batch trong CONNECTED = nhận được frame batch */
+    private volatile boolean otpBatchSupported;
+
+    private record Subscription(StompHeaders headers, StompFrameHandler handler) {}
+
+    public BrokerSessionManager(MeterRegistry registry, BrokerCodec codec) {
+        this.registry = registry;
+        this.codec = codec;
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler.setPoolSize(2);
+        scheduler.setThreadNamePrefix("broker-");
+        scheduler.setDaemon(true);
+        scheduler.afterPropertiesSet();
+
+        stompClient = new WebSocketStompClient(
+                new SockJsClient(List.of(new WebSocketTransport(new StandardWebSocketClient()))));
+        stompClient.setMessageConverter(new JsonBytesMessageConverter());
+        stompClient.setTaskScheduler(scheduler);
+        stompClient.setDefaultHeartbeat(new long[]{heartbeatMs, heartbeatMs});
+
+        registry.gauge("gsm.broker.state", state, s -> s.get().ordinal());
+        connect();
+    }
+
+    @PreDestroy
+    public void stop() {
+        stopped = true;
+        StompSession session = sessionRef.getAndSet(null);
+        if (session != null && session.isConnected()) {
+            try {
+                session.disconnect();
+            } catch (Exception ignored) {
+            }
+        }
+        scheduler.shutdown();
+    }
+
+    public boolean isConnected() {
+        StompSession session = sessionRef.get();
+        return session != null && session.isConnected();
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public StompSession getSession() {
+        return sessionRef.get();
+    }
+
+    public boolean isOtpBatchSupported() {
+        return otpBatchSupported && isConnected();
+    }
+
+    /** Gửi payload nếu đang kết nối, trả về false nếu chưa gửi được */
+    public boolean send(String destination, Object payload) {
+        StompHeaders headers = new StompHeaders();
+        headers.setDestination(destination);
+        return send(headers, payload);
+    }
+
+    /** Payload là byte[] JSON đã encode sẵn thì gửi thẳng, còn lại encode qua BrokerCodec */
+    public boolean send(StompHeaders headers, Object payload) {
+        StompSession session = sessionRef.get();
+        if (session == null || !session.isConnected()) return false;
+        try {
+            if (headers.getContentType() == null) headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+            byte[] body = payload instanceof byte[] bytes ? bytes : codec.encode(payload);
+            session.send(headers, body);
+            return true;
+        } catch (Exception e) {
+            log.warn("⚠️ Send {} lỗi: {}", headers.getDestination(), e.getMessage());
+            return false;
+        }
+    }
+
+    /** Đăng ký subscription, được subscribe lại sau mỗi lần reconnect */
+    public void subscribe(String destination, StompFrameHandler handler) {
+        StompHeaders headers = new StompHeaders();
+        headers.setDestination(destination);
+        subscribe(headers, handler);
+    }
+
+    /** Như trên nhưng kèm header SUBSCRIBE (vd: selector) */
+    public void subscribe(StompHeaders headers, StompFrameHandler handler) {
+        Subscription sub = new Subscription(headers, handler);
+        subscriptions.add(sub);
+        StompSession session = sessionRef.get();
+        if (session != null && session.isConnected()) doSubscribe(session, sub);
+    }
+
+    /** Listener chạy sau mỗi lần kết nối thành công (kể cả reconnect) */
+    public void onConnected(Consumer<StompSession> listener) {
+        connectListeners.add(listener);
+        StompSession session = sessionRef.get();
+        if (session != null && session.isConnected()) listener.accept(session);
+    }
+
+    private void connect() {
+        if (stopped || !state.compareAndSet(State.DISCONNECTED, State.CONNECTING)) return;
+        log.info("🌐 Connecting to remote broker {} (attempt {})", url, attempts.get() + 1);
+
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.set(DEVICE_HEADER, HostUtils.getDeviceName());
+        connectHeaders.set(BrokerCodec.BATCH_HEADER, "1");
+
+        stompClient.connectAsync(url, new WebSocketHttpHeaders(), connectHeaders, new StompSessionHandlerAdapter() {
+            @Override
+            public void afterConnected(StompSession session, StompHeaders connectedHeaders) {
+                String batch = connectedHeaders.getFirst(BrokerCodec.BATCH_HEADER);
+                otpBatchSupported = "1".equals(batch) || "true".equalsIgnoreCase(batch);
+                onSessionConnected(session);
+            }
+
+            @Override
+            public void handleTransportError(StompSession session, Throwable exception) {
+                log.error("❌ Broker transport error: {}", exception.getMessage());
+                onSessionLost(session);
+            }
+        }).exceptionally(ex -> {
+            log.error("❌ Failed to connect to {}: {}", url, ex.getMessage());
+            onSessionLost(null);
+            return null;
+        });
+    }
+
+    private void onSessionConnected(StompSession session) {
+        sessionRef.set(session);
+        state.set(State.CONNECTED);
+        attempts.set(0);
+        log.info("✅ Connected to {} session={} otpBatch={}", url, session.getSessionId(), otpBatchSupported);
+        registerDevice();
+        subscriptions.forEach(sub -> doSubscribe(session, sub));
+        for (Consumer<StompSession> listener : connectListeners) {
+            try {
+                listener.accept(session);
+            } catch (Exception e) {
+                log.warn("⚠️ Broker connect listener lỗi: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void onSessionLost(StompSession session) {
+        // transport error của session cũ đã được thay thế thì bỏ qua
+        StompSession current = sessionRef.get();
+        if (session != null && current != null && current != session) return;
+        sessionRef.set(null);
+        state.set(State.DISCONNECTED);
+        scheduleReconnect();
+    }
+
+    private void scheduleReconnect() {
+        if (stopped || !reconnectPending.compareAndSet(false, true)) return;
+        long delay = backoffDelay(attempts.getAndIncrement());
+        registry.counter("gsm.broker.reconnects").increment();
+        log.info("🔄 Reconnect to {} in {} ms", url, delay);
+        scheduler.schedule(() -> {
+            reconnectPending.set(false);
+            connect();
+        }, Instant.now().plusMillis(delay));
+    }
+
+    /** Exponential backoff với equal jitter: [d/2, d] */
+    private long backoffDelay(int attempt) {
+        long exp = backoffBaseMs << Math.min(attempt, 20);
+        long delay = Math.min(backoffMaxMs, exp);
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /** Báo cho server biết node này đang online để route request theo device */
+    private void registerDevice() {
+        send(REGISTER_DESTINATION, Map.of(
+                DEVICE_HEADER, HostUtils.getDeviceName(),
+                "connectedAt", Instant.now().toString()));
+    }
+
+    private void doSubscribe(StompSession session, Subscription sub) {
+        String destination = sub.headers().getDestination();
+        try {
+            // copy vì session gán subscription id vào headers
+            StompHeaders headers = new StompHeaders();
+            headers.putAll(sub.headers());
+            session.subscribe(headers, sub.handler());
+            log.info("👂 Subscribed to {}", destination);
+        } catch (Exception e) {
+            log.warn("⚠️ Subscribe {} lỗi: {}", destination, e.getMessage());
+        }
+    }
+}
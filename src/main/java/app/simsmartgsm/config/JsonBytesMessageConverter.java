@@ -0,0 +1,34 @@
+package app.simsmartgsm.config;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.AbstractMessageConverter;
+import org.springframework.util.MimeTypeUtils;
+
+/**
+ * Converter cho STOMP client: body đi/về luôn là byte[] JSON đã encode sẵn bởi BrokerCodec,
+ * không qua Jackson generic của MappingJackson2MessageConverter.
+ */
+public class JsonBytesMessageConverter extends AbstractMessageConverter {
+
+    public JsonBytesMessageConverter() {
+        super(MimeTypeUtils.APPLICATION_JSON);
+        // frame không có content-type vẫn nhận
+        setStrictContentTypeMatch(false);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return byte[].class == clazz;
+    }
+
+    @Override
+    protected Object convertFromInternal(Message<?> message, Class<?> targetClass, Object conversionHint) {
+        return message.getPayload();
+    }
+
+    @Override
+    protected Object convertToInternal(Object payload, MessageHeaders headers, Object conversionHint) {
+        return payload;
+    }
+}
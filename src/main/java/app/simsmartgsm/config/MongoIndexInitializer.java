@@ -0,0 +1,162 @@
+package app.simsmartgsm.config;
+
+import app.simsmartgsm.entity.*;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Tạo index khai báo trên entity khi khởi động (chạy nền, không chặn startup),
+ * sau đó explain các query repository hay dùng và cảnh báo nếu còn COLLSCAN.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class MongoIndexInitializer {
+
+    private static final List<Class<?>> INDEXED_ENTITIES = List.of(
+            Sim.class, SmsMessage.class, Country.class, Service.class,
+            RentalSession.class, OrderCallback.class, SmsMessageArchive.class,
+            OutboundSms.class
+    );
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${gsm.mongo.verify-indexes:true}")
+    private boolean verifyIndexes;
+    /** inbound_sms chỉ là bản thô replay từ journal, TTL theo receivedAt; 0 = giữ vĩnh viễn */
+    @Value("${gsm.journal.inbound-ttl-days:30}")
+    private long inboundTtlDays;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        Thread t = new Thread(() -> {
+            ensureIndexes();
+            if (verifyIndexes) verifyQueryPlans();
+        }, "mongo-index-init");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    void ensureIndexes() {
+        IndexResolver resolver = new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext());
+        for (Class<?> entity : INDEXED_ENTITIES) {
+            IndexOperations ops = mongoTemplate.indexOps(entity);
+            resolver.resolveIndexFor(entity).forEach(def -> {
+                try {
+                    String name = ops.createIndex(def);
+                    log.debug("🗂️ Index {} ok on {}", name, entity.getSimpleName());
+                } catch (Exception e) {
+                    // vd: dữ liệu cũ trùng ccid nên không tạo được unique index
+                    log.warn("⚠️ Không tạo được index {} cho {}: {}",
+                            def.getIndexKeys().toJson(), entity.getSimpleName(), e.getMessage());
+                }
+            });
+        }
+        ensureInboundTtl();
+        log.info("🗂️ Mongo indexes ensured for {} collections", INDEXED_ENTITIES.size());
+    }
+
+    void ensureInboundTtl() {
+        if (inboundTtlDays <= 0) return;
+        IndexOperations ops = mongoTemplate.indexOps(InboundSms.class);
+        Index ttl = new Index().on("receivedAt", Sort.Direction.ASC)
+                .named("inbound_received_ttl")
+                .expire(Duration.ofDays(inboundTtlDays));
+        try {
+            ops.createIndex(ttl);
+        } catch (Exception e) {
+            // đổi inbound-ttl-days: index cũ khác expireAfterSeconds, tạo lại
+            try {
+                ops.dropIndex("inbound_received_ttl");
+                ops.createIndex(ttl);
+                log.info("🗂️ Đổi TTL inbound_sms thành {} ngày", inboundTtlDays);
+            } catch (Exception retry) {
+                log.warn("⚠️ Không tạo được TTL index cho inbound_sms: {}", retry.getMessage());
+            }
+        }
+    }
+
+    void verifyQueryPlans() {
+        List<HotQuery> queries = List.of(
+                new HotQuery("SimRepository.findByPhoneNumber", Sim.class, new Document("phoneNumber", "")),
+                new HotQuery("SimRepository.findFirstByCcid", Sim.class, new Document("ccid", "")),
+                new HotQuery("SimRepository.findByDeviceName", Sim.class, new Document("deviceName", "")),
+                new HotQuery("SmsMessageRepository.existsByOrderId", SmsMessage.class, new Document("orderId", "")),
+                new HotQuery("SmsMessageRepository.existsByOrderIdAndType", SmsMessage.class,
+                        new Document("orderId", "").append("type", "INBOX")),
+                new HotQuery("SmsMessageRepository.findByTypeAndDeviceName", SmsMessage.class,
+                        new Document("type", "INBOX").append("deviceName", "")),
+                new HotQuery("CountryRepository.findByCountryCode", Country.class, new Document("countryCode", "")),
+                new HotQuery("ServiceRepository.findByCode", Service.class, new Document("code", "")),
+                history("", "device_ts_id"),
+                history("comPort", "device_com_ts_id"),
+                history("orderId", "device_order_ts_id"),
+                history("accountId", "device_account_ts_id"),
+                history("serviceCode", "device_service_ts_id"),
+                history("type", "device_type_ts_id")
+        );
+
+        for (HotQuery q : queries) {
+            try {
+                Document plan = mongoTemplate.getCollection(mongoTemplate.getCollectionName(q.entity()))
+                        .find(q.filter())
+                        .sort(q.sort())
+                        .explain();
+                Document planner = plan.get("queryPlanner", Document.class);
+                Object winning = planner == null ? null : planner.get("winningPlan");
+                if (containsStage(winning, "COLLSCAN")) {
+                    log.warn("🐢 {} đang chạy COLLSCAN, kiểm tra lại index", q.name());
+                } else if (q.expectedIndex() != null && !containsValue(winning, "indexName", q.expectedIndex())) {
+                    log.warn("🐢 {} không dùng index {}, kiểm tra lại index", q.name(), q.expectedIndex());
+                } else {
+                    log.debug("✅ {} dùng index", q.name());
+                }
+            } catch (Exception e) {
+                log.warn("⚠️ Không explain được {}: {}", q.name(), e.getMessage());
+            }
+        }
+    }
+
+    /** Query lịch sử SMS (SmsHistoryService) lọc theo field, sort keyset timestamp/_id */
+    private static HotQuery history(String field, String index) {
+        Document filter = new Document("deviceName", "");
+        if (!field.isEmpty()) filter.append(field, "");
+        return new HotQuery("SmsHistoryService.find" + (field.isEmpty() ? "" : "[" + field + "]"), SmsMessage.class,
+                filter, new Document("timestamp", -1).append("_id", -1), index);
+    }
+
+    private static boolean containsStage(Object node, String stage) {
+        return containsValue(node, "stage", stage);
+    }
+
+    private static boolean containsValue(Object node, String key, String value) {
+        if (node instanceof Document doc) {
+            if (value.equals(doc.get(key))) return true;
+            return doc.values().stream().anyMatch(v -> containsValue(v, key, value));
+        }
+        if (node instanceof List<?> list) {
+            return list.stream().anyMatch(v -> containsValue(v, key, value));
+        }
+        return false;
+    }
+
+    private record HotQuery(String name, Class<?> entity, Document filter, Document sort, String expectedIndex) {
+        HotQuery(String name, Class<?> entity, Document filter) {
+            this(name, entity, filter, new Document(), null);
+        }
+    }
+}
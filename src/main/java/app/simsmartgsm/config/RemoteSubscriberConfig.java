@@ -3,154 +3,131 @@ package app.simsmartgsm.config;
 import app.simsmartgsm.dto.request.RentSimRequest;
 import app.simsmartgsm.entity.Country;
 import app.simsmartgsm.entity.Sim;
-import app.simsmartgsm.repository.CountryRepository;
-import app.simsmartgsm.repository.SimRepository;
 import app.simsmartgsm.service.GsmListenerService;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import app.simsmartgsm.service.OrderCallbackDispatcher;
+import app.simsmartgsm.service.OrderDedupIndex;
+import app.simsmartgsm.service.RentRequestDispatcher;
+import app.simsmartgsm.service.SimInventorySnapshot;
+import app.simsmartgsm.uitils.HostUtils;
+import app.simsmartgsm.uitils.OrderCallbackAction;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.messaging.converter.MappingJackson2MessageConverter;
 import org.springframework.messaging.simp.stomp.StompFrameHandler;
 import org.springframework.messaging.simp.stomp.StompHeaders;
-import org.springframework.messaging.simp.stomp.StompSession;
-import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
-import org.springframework.web.socket.client.standard.StandardWebSocketClient;
-import org.springframework.web.socket.messaging.WebSocketStompClient;
-import org.springframework.web.socket.sockjs.client.SockJsClient;
-import org.springframework.web.socket.sockjs.client.Transport;
-import org.springframework.web.socket.sockjs.client.WebSocketTransport;
 
 import java.lang.reflect.Type;
 import java.nio.charset.StandardCharsets;
-import java.util.List;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicReference;
 
 @Configuration
 @Slf4j
 @RequiredArgsConstructor
 public class RemoteSubscriberConfig {
 
-    private static final String REMOTE_WS_URL = "ws://72.60.41.168:9090/ws";
     private static final String SUB_TOPIC = "/topic/send-otp";
-    private static final ObjectMapper mapper = new ObjectMapper();
 
-    private final AtomicReference<StompSession> stompSessionRef = new AtomicReference<>();
+    /** Vẫn nghe topic chung (kèm selector) trong lúc server chưa publish hết sang topic theo device */
+    @Value("${gsm.broker.legacy-topic-enabled:true}")
+    private boolean legacyTopicEnabled;
+    /** Chỉ bật khi server đã gắn header deviceName cho mọi message trên topic chung */
+    @Value("${gsm.broker.legacy-selector-enabled:false}")
+    private boolean legacySelectorEnabled;
 
+    private final BrokerSessionManager brokerSessionManager;
+    private final BrokerCodec brokerCodec;
     private final GsmListenerService gsmListenerService;
-    private final SimRepository simRepository;
-    private final CountryRepository countryRepository;
+    private final SimInventorySnapshot simInventorySnapshot;
+    private final RentRequestDispatcher rentRequestDispatcher;
+    private final OrderCallbackDispatcher orderCallbackDispatcher;
+    private final OrderDedupIndex orderDedupIndex;
 
     @PostConstruct
     public void subscribeToRemoteBroker() {
-        ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
-        taskScheduler.afterPropertiesSet();
-
-        List<Transport> transports = List.of(new WebSocketTransport(new StandardWebSocketClient()));
-        SockJsClient sockJsClient = new SockJsClient(transports);
-
-        WebSocketStompClient stompClient = new WebSocketStompClient(sockJsClient);
-        stompClient.setMessageConverter(new MappingJackson2MessageConverter());
-        stompClient.setTaskScheduler(taskScheduler);
-        stompClient.setDefaultHeartbeat(new long[]{10000, 10000});
-
-        log.info("🌐 Connecting to remote broker at {}", REMOTE_WS_URL);
-
-        CompletableFuture<StompSession> futureSession =
-                stompClient.connectAsync(REMOTE_WS_URL, new StompSessionHandlerAdapter() {
-                    @Override
-                    public void afterConnected(StompSession session, StompHeaders connectedHeaders) {
-                        log.info("✅ Connected to {}", REMOTE_WS_URL);
-                        stompSessionRef.set(session);
-                        subscribeToTopic(session);
-                    }
+        String deviceName = HostUtils.getDeviceName();
+        RentRequestHandler handler = new RentRequestHandler(deviceName);
 
-                    @Override
-                    public void handleTransportError(StompSession session, Throwable exception) {
-                        log.error("❌ Transport error: {}", exception.getMessage(), exception);
-                        stompSessionRef.set(null);
-                        retryConnect();
-                    }
-                });
+        // mỗi node chỉ nhận request của chính nó
+        brokerSessionManager.subscribe(SUB_TOPIC + "/" + deviceName, handler);
 
-        futureSession.exceptionally(ex -> {
-            log.error("❌ Failed to connect to {}: {}", REMOTE_WS_URL, ex.getMessage());
-            retryConnect();
-            return null;
-        });
+        if (legacyTopicEnabled) {
+            StompHeaders headers = new StompHeaders();
+            headers.setDestination(SUB_TOPIC);
+            if (legacySelectorEnabled) {
+                headers.set("selector", "headers['" + BrokerSessionManager.DEVICE_HEADER + "'] == '" + deviceName + "'");
+            }
+            brokerSessionManager.subscribe(headers, handler);
+        }
     }
 
-    private void subscribeToTopic(StompSession session) {
-        session.subscribe(SUB_TOPIC, new StompFrameHandler() {
-            @Override
-            public Type getPayloadType(StompHeaders headers) {
-                return Object.class; // nhận payload raw
-            }
+    private final class RentRequestHandler implements StompFrameHandler {
+        private final String deviceName;
 
-            @Override
-            public void handleFrame(StompHeaders headers, Object payload) {
-                try {
-                    String json;
-                    if (payload instanceof byte[]) {
-                        json = new String((byte[]) payload, StandardCharsets.UTF_8);
-                    } else {
-                        json = payload.toString();
-                    }
+        RentRequestHandler(String deviceName) {
+            this.deviceName = deviceName;
+        }
 
-                    log.info("📩 Raw JSON from broker: {}", json);
+        @Override
+        public Type getPayloadType(StompHeaders headers) {
+            return byte[].class; // JSON raw, decode bằng BrokerCodec
+        }
 
-                    RentSimRequest req = mapper.readValue(json, RentSimRequest.class);
-                    log.info("✅ Parsed RentSimRequest: {}", req);
+        @Override
+        public void handleFrame(StompHeaders headers, Object payload) {
+            // message trên topic chung: lọc theo header trước khi parse JSON
+            String target = headers.getFirst(BrokerSessionManager.DEVICE_HEADER);
+            if (target != null && !deviceName.equalsIgnoreCase(target)) return;
+            try {
+                byte[] body = (byte[]) payload;
+                if (log.isDebugEnabled()) {
+                    log.debug("📩 Raw JSON from broker: {}", new String(body, StandardCharsets.UTF_8));
+                }
 
-                    // 🔎 Lấy tên host hiện tại
-                    String localHostName = java.net.InetAddress.getLocalHost().getHostName();
+                RentSimRequest req = brokerCodec.decodeRent(body);
+                log.info("✅ Parsed RentSimRequest: {}", req);
+
+                // ✅ Chỉ xử lý nếu deviceName khớp với host
+                if (!deviceName.equalsIgnoreCase(req.getDeviceName())) {
+                    log.info("⏭️ Bỏ qua request vì deviceName={} không khớp với host={}",
+                            req.getDeviceName(), deviceName);
+                    return;
+                }
 
-                    // ✅ Chỉ xử lý nếu deviceName khớp với host
-                    if (!localHostName.equalsIgnoreCase(req.getDeviceName())) {
-                        log.info("⏭️ Bỏ qua request vì deviceName={} không khớp với host={}",
-                                req.getDeviceName(), localHostName);
+                // transport thread chỉ decode + enqueue, phần còn lại chạy trên stripe của SIM
+                if (!rentRequestDispatcher.submit(req.getPhoneNumber(), () -> handleRentRequest(req))) {
+                    // stripe đầy: không để order treo tới hết hạn, refund ngay cho server.
+                    // Chỉ refund order node này chưa nhận (broker redeliver order đang chạy thì bỏ qua);
+                    // giữ orderId trong dedup để bản còn nằm trong stripe không thuê nữa sau khi đã refund
+                    if (!orderDedupIndex.tryAcquire(req.getOrderId())) {
+                        log.info("⏭️ Dispatch queue đầy nhưng orderId={} đã nhận trước đó, không refund",
+                                req.getOrderId());
                         return;
                     }
-
-                    Sim sim = simRepository.findByPhoneNumber(req.getPhoneNumber())
-                            .orElseThrow(() -> new RuntimeException("SIM not found: " + req.getPhoneNumber()));
-
-                    Country country = countryRepository.findByCountryCode(req.getCountryCode())
-                            .orElseThrow(() -> new RuntimeException("Country not found: " + req.getCountryCode()));
-
-                    gsmListenerService.rentSim(
-                            sim,
-                            req.getAccountId(),
-                            req.getServiceCodeList(),
-                            req.getRentDuration(),
-                            country,req.getOrderId(),
-                            req.getType()
-                    );
-
-                } catch (Exception e) {
-                    log.error("❌ Error parsing payload: {}", e.getMessage(), e);
+                    log.warn("⛔ Từ chối rent orderId={} sim={} vì dispatch queue đầy, gửi REFUND",
+                            req.getOrderId(), req.getPhoneNumber());
+                    orderCallbackDispatcher.dispatch(req.getOrderId(), OrderCallbackAction.REFUND);
                 }
+            } catch (Exception e) {
+                log.error("❌ Error parsing payload: {}", e.getMessage(), e);
             }
-        });
-        log.info("👂 Subscribed to {}", SUB_TOPIC);
-    }
-
-    private void retryConnect() {
-        new Thread(() -> {
-            try {
-                Thread.sleep(5000);
-                log.info("🔄 Retrying connection to {}", REMOTE_WS_URL);
-                subscribeToRemoteBroker();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }).start();
+        }
     }
 
-    public StompSession getSession() {
-        return stompSessionRef.get();
+    private void handleRentRequest(RentSimRequest req) {
+        Sim sim = simInventorySnapshot.findSimByPhone(req.getPhoneNumber())
+                .orElseThrow(() -> new RuntimeException("SIM not found: " + req.getPhoneNumber()));
+
+        Country country = simInventorySnapshot.findCountry(req.getCountryCode())
+                .orElseThrow(() -> new RuntimeException("Country not found: " + req.getCountryCode()));
+
+        gsmListenerService.rentSim(
+                sim,
+                req.getAccountId(),
+                req.getServiceCodeList(),
+                req.getRentDuration(),
+                country, req.getOrderId(),
+                req.getType()
+        );
     }
 }
@@ -0,0 +1,82 @@
+package app.simsmartgsm.controller;
+
+import app.simsmartgsm.dto.request.BulkSmsRequest;
+import app.simsmartgsm.dto.response.CampaignProgress;
+import app.simsmartgsm.service.CampaignService;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+
+/**
+ * Campaign gửi SMS hàng loạt trên toàn bộ SIM ACTIVE của device.
+ * Tiến độ: GET /api/campaigns/{id} hoặc topic /topic/campaigns/{id}.
+ */
+@RestController
+@RequestMapping("/api/campaigns")
+@RequiredArgsConstructor
+@Slf4j
+public class CampaignController {
+
+    private final CampaignService campaignService;
+
+    /** JSON được Jackson đọc hết vào bộ nhớ, danh sách lớn hơn thì phải dùng /stream */
+    @Value("${gsm.campaign.json-max-recipients:10000}")
+    private int jsonMaxRecipients;
+
+    /** Danh sách nhỏ gửi kèm JSON (nằm trọn trong bộ nhớ, không stream), tối đa json-max-recipients số */
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<CampaignProgress> start(@RequestBody BulkSmsRequest request) {
+        if (request.getPhoneNumbers() == null || request.getMessage() == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (request.getPhoneNumbers().size() > jsonMaxRecipients) {
+            log.warn("⛔ Campaign JSON {} số vượt giới hạn {}, dùng /api/campaigns/stream",
+                    request.getPhoneNumbers().size(), jsonMaxRecipients);
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
+        log.info("📣 API start campaign: {} số", request.getPhoneNumbers().size());
+        return accepted(campaignService.start(request.getPhoneNumbers().iterator(), request.getMessage()));
+    }
+
+    /** Danh sách lớn: body text/plain, mỗi dòng 1 số, được đọc dạng stream */
+    @PostMapping(value = "/stream", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<CampaignProgress> startStream(@RequestParam String message,
+                                                        HttpServletRequest request) throws IOException {
+        log.info("📣 API start campaign (stream)");
+        return accepted(campaignService.start(request.getInputStream(), message));
+    }
+
+    @GetMapping
+    public List<CampaignProgress> list() {
+        return campaignService.list();
+    }
+
+    @GetMapping("/{campaignId}")
+    public ResponseEntity<CampaignProgress> get(@PathVariable String campaignId) {
+        return campaignService.find(campaignId)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @PostMapping("/{campaignId}/cancel")
+    public ResponseEntity<Void> cancel(@PathVariable String campaignId) {
+        return campaignService.cancel(campaignId)
+                ? ResponseEntity.accepted().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    private static ResponseEntity<CampaignProgress> accepted(CampaignProgress progress) {
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/campaigns/" + progress.getCampaignId()))
+                .body(progress);
+    }
+}
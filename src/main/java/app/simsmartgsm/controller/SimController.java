@@ -2,7 +2,11 @@ package app.simsmartgsm.controller;
 
 import app.simsmartgsm.dto.response.SimResponse;
 import app.simsmartgsm.service.SimScanService;
+import app.simsmartgsm.service.SimUpdatePublisher;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.simp.annotation.SubscribeMapping;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
@@ -13,14 +17,36 @@ import java.util.List;
 public class SimController {
 
     private final SimScanService simScanService;
+    private final SimUpdatePublisher simUpdatePublisher;
 
+    /** STOMP: client subscribe /app/sims nhận ngay full state, sau đó nghe /topic/sims/changes và /topic/sims/removed */
+    @SubscribeMapping("/sims")
+    public List<SimResponse> simsOnSubscribe() {
+        return simUpdatePublisher.currentSims();
+    }
+
+    /** Trả từ snapshot nền; ?refresh=true để quét lại ngay. Hỗ trợ If-None-Match (304) */
     @GetMapping
-    public List<SimResponse> getAllSims() {
-        return simScanService.scanAllSims();
+    public ResponseEntity<List<SimResponse>> getAllSims(
+            @RequestParam(defaultValue = "false") boolean refresh,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        SimScanService.Snapshot snapshot = simScanService.getSnapshot(refresh);
+        if (SimScanService.etagMatches(ifNoneMatch, snapshot.etag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(snapshot.etag()).build();
+        }
+        return ResponseEntity.ok().eTag(snapshot.etag()).body(snapshot.sims());
     }
 
     @GetMapping("/{comPort}")
-    public SimResponse getSimByCom(@PathVariable String comPort) {
-        return simScanService.scanSimByCom(comPort);
+    public ResponseEntity<SimResponse> getSimByCom(
+            @PathVariable String comPort,
+            @RequestParam(defaultValue = "false") boolean refresh,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        SimResponse sim = simScanService.getSim(comPort, refresh);
+        String etag = SimScanService.etagOf(sim);
+        if (SimScanService.etagMatches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        return ResponseEntity.ok().eTag(etag).body(sim);
     }
 }
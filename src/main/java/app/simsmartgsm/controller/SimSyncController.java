@@ -3,6 +3,7 @@ package app.simsmartgsm.controller;
 import app.simsmartgsm.dto.response.SimResponse;
 import app.simsmartgsm.entity.Sim;
 import app.simsmartgsm.repository.SimRepository;
+import app.simsmartgsm.service.SimInventorySnapshot;
 import app.simsmartgsm.service.SimSyncService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.*;
@@ -19,6 +20,7 @@ public class SimSyncController {
 
     private final SimSyncService simSyncService;
     private final SimRepository simRepository;
+    private final SimInventorySnapshot simInventorySnapshot;
 
     /** Gọi API này để scan toàn bộ COM và resolve số cho SIM chưa biết */
     @PostMapping("/scan")
@@ -27,8 +29,12 @@ public class SimSyncController {
         return "✅ Scan & resolve";
     }
 
+    /** Trả từ snapshot local nếu đã có, chưa có thì đọc Mongo */
     @GetMapping("/sims")
     public List<SimResponse> getSimsByDeviceName() throws UnknownHostException {
+        if (simInventorySnapshot.isLoaded()) {
+            return mapToResponse(simInventorySnapshot.getSims());
+        }
         String deviceName = InetAddress.getLocalHost().getHostName();
         return mapToResponse(simRepository.findByDeviceName(deviceName));
     }
@@ -2,12 +2,17 @@ package app.simsmartgsm.controller;
 import app.simsmartgsm.config.SmsParser;
 import app.simsmartgsm.dto.response.SmsMessageUser;
 import app.simsmartgsm.service.PortManager;
-import app.simsmartgsm.service.SmsSenderService;
+import app.simsmartgsm.dto.response.SmsSendJob;
+import app.simsmartgsm.entity.OutboundSms;
+import app.simsmartgsm.service.AdaptiveSendRateLimiter;
+import app.simsmartgsm.service.SmsOutboxService;
+import app.simsmartgsm.service.SmsSendJobService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -17,24 +22,53 @@ import java.util.List;
 @Slf4j
 public class SmsController {
 
-    private final SmsSenderService smsSenderService;
+    private final SmsSendJobService smsSendJobService;
+    private final SmsOutboxService smsOutboxService;
+    private final AdaptiveSendRateLimiter rateLimiter;
     private final PortManager portManager;
 
+    /** Nhận request và trả 202 + jobId ngay, kết quả xem qua /api/sms/jobs/{jobId} */
     @PostMapping("/send-one")
-    public ResponseEntity<String> sendOneSms(
+    public ResponseEntity<SmsSendJob> sendOneSms(
             @RequestParam String comPort,
             @RequestParam String toNumber,
             @RequestParam String message) {
 
         log.info("📤 API request sendOneSms: {} -> {}: {}", comPort, toNumber, message);
 
-        boolean ok = smsSenderService.sendSms(comPort, toNumber, message);
+        SmsSendJob job = smsSendJobService.submit(comPort, toNumber, message);
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/sms/jobs/" + job.getJobId()))
+                .body(job);
+    }
 
-        if (ok) {
-            return ResponseEntity.ok("✅ SMS sent successfully to " + toNumber);
-        } else {
-            return ResponseEntity.badRequest().body("❌ Failed to send SMS to " + toNumber);
-        }
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<SmsSendJob> getJob(@PathVariable String jobId) {
+        return smsSendJobService.find(jobId)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    /** Rate gửi hiện tại theo SIM và nhà mạng (tin/phút) */
+    @GetMapping("/rates")
+    public List<AdaptiveSendRateLimiter.RateView> getRates() {
+        return rateLimiter.rates();
+    }
+
+    /** Bản ghi sms_outbox (trạng thái delivery report) theo id */
+    @GetMapping("/outbox/{id}")
+    public ResponseEntity<OutboundSms> getOutbox(@PathVariable String id) {
+        return smsOutboxService.find(id)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    /** Tin gửi gần nhất theo message reference (lấy từ job) */
+    @GetMapping("/outbox")
+    public ResponseEntity<OutboundSms> getOutboxByRef(@RequestParam String comPort, @RequestParam int messageRef) {
+        return smsOutboxService.findByRef(comPort, messageRef)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
     }
 
     @GetMapping("/read-all")
@@ -1,12 +1,14 @@
 package app.simsmartgsm.controller;
 
+import app.simsmartgsm.dto.response.SmsSendJob;
 import app.simsmartgsm.service.PortManager;
+import app.simsmartgsm.service.SmsSendJobService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.time.Duration;
+import java.net.URI;
 
 @RestController
 @RequestMapping("/api/sms/test")
@@ -15,34 +17,20 @@ import java.time.Duration;
 public class SmsControllerSMS {
 
     private final PortManager portManager;
+    private final SmsSendJobService smsSendJobService;
 
     /**
-     * Gửi SMS text
+     * Gửi SMS text (bất đồng bộ, trả 202 + job)
      */
     @PostMapping("/send")
-    public ResponseEntity<String> sendSms(
+    public ResponseEntity<SmsSendJob> sendSms(
             @RequestParam String comPort,
             @RequestParam String toNumber,
             @RequestParam String message) {
-        try {
-            Boolean ok = portManager.withPort(comPort, helper -> {
-                try {
-                    return helper.sendTextSms(toNumber, message, Duration.ofSeconds(30));
-                } catch (Exception e) {
-                    log.error("❌ Error sending SMS via {}: {}", comPort, e.getMessage());
-                    return false;
-                }
-            }, 15000);
-
-            if (Boolean.TRUE.equals(ok)) {
-                return ResponseEntity.ok("✅ SMS sent successfully to " + toNumber);
-            } else {
-                return ResponseEntity.internalServerError().body("❌ Failed to send SMS");
-            }
-        } catch (Exception e) {
-            log.error("❌ Error sending SMS via {}: {}", comPort, e.getMessage(), e);
-            return ResponseEntity.internalServerError().body("❌ " + e.getMessage());
-        }
+        SmsSendJob job = smsSendJobService.submit(comPort, toNumber, message);
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/sms/jobs/" + job.getJobId()))
+                .body(job);
     }
 
     /**
@@ -0,0 +1,41 @@
+package app.simsmartgsm.controller;
+
+import app.simsmartgsm.dto.response.SmsHistoryPage;
+import app.simsmartgsm.service.SmsHistoryService;
+import app.simsmartgsm.uitils.HostUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/api/sms/history")
+@RequiredArgsConstructor
+@Slf4j
+public class SmsHistoryController {
+
+    private final SmsHistoryService smsHistoryService;
+
+    /**
+     * Lịch sử SMS mới nhất trước. Trang tiếp theo: truyền lại nextCursor của trang trước.
+     */
+    @GetMapping
+    public ResponseEntity<SmsHistoryPage> history(
+            @RequestParam(required = false) String deviceName,
+            @RequestParam(required = false) String comPort,
+            @RequestParam(required = false) String orderId,
+            @RequestParam(required = false) Long accountId,
+            @RequestParam(required = false) String serviceCode,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "50") int limit) {
+        try {
+            String device = deviceName != null ? deviceName : HostUtils.getDeviceName();
+            return ResponseEntity.ok(smsHistoryService.find(device, comPort, orderId, accountId,
+                    serviceCode, type, cursor, limit));
+        } catch (IllegalArgumentException e) {
+            log.warn("⚠️ SMS history bad request: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+    }
+}
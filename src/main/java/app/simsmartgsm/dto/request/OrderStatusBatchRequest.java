@@ -0,0 +1,24 @@
+package app.simsmartgsm.dto.request;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class OrderStatusBatchRequest {
+    private String deviceName;
+    private List<Item> items;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Item {
+        private String orderId;
+        private String action;          // success / refund
+        private String idempotencyKey;  // {orderId}:{ACTION}
+    }
+}
@@ -0,0 +1,43 @@
+package app.simsmartgsm.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Tiến độ 1 campaign gửi SMS hàng loạt, push qua /topic/campaigns/{campaignId}.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CampaignProgress {
+
+    public enum Status { RUNNING, COMPLETED, CANCELLED, FAILED }
+
+    private String campaignId;
+    private Status status;
+    /** Số người nhận đã đọc từ danh sách (danh sách stream nên không biết trước tổng) */
+    private long read;
+    private long sent;
+    private long failed;
+    private long retried;
+    private int inFlight;
+    /** Số tin gửi thành công / phút trong cửa sổ gần nhất */
+    private double recentPerMinute;
+    /** Trung bình từ lúc bắt đầu */
+    private double averagePerMinute;
+    private Instant startedAt;
+    private Instant finishedAt;
+    private String error;
+    private List<SimLane> sims;
+
+    @Data
+    public static class SimLane {
+        private String com;
+        private String phoneNumber;
+        private long sent;
+        private long failed;
+        private boolean disabled;
+    }
+}
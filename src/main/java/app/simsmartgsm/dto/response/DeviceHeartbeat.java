@@ -0,0 +1,26 @@
+package app.simsmartgsm.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * Heartbeat của node gửi lên broker. full=true: danh sách ports đầy đủ; full=false: chỉ các port
+ * thay đổi (removedPorts = port không còn), các field số chỉ có khi đổi giá trị.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record DeviceHeartbeat(
+        String deviceName,
+        long seq,
+        boolean full,
+        long sentAt,
+        Integer activeRentals,
+        Long otpLatencyMs,
+        List<PortStatus> ports,
+        List<String> removedPorts
+) {
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record PortStatus(String com, String phoneNumber, int queueDepth, String health) {
+    }
+}
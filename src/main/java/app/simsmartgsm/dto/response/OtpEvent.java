@@ -0,0 +1,24 @@
+package app.simsmartgsm.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Builder;
+
+/**
+ * OTP forward lên remote broker (/topic/receive-otp). Tên field giữ nguyên như map cũ.
+ * receivedAt = epoch millis lúc node nhận SMS, dùng đo độ trễ forward.
+ */
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record OtpEvent(
+        String deviceName,
+        String phoneNumber,
+        String comNumber,
+        Long customerId,
+        String serviceCode,
+        String countryName,
+        String smsContent,
+        String fromNumber,
+        String otp,
+        Long receivedAt
+) {
+}
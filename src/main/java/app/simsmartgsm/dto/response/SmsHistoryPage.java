@@ -0,0 +1,14 @@
+package app.simsmartgsm.dto.response;
+
+import app.simsmartgsm.entity.SmsMessage;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class SmsHistoryPage {
+    private List<SmsMessage> items;
+    private String nextCursor;   // null = hết dữ liệu
+}
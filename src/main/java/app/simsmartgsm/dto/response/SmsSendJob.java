@@ -0,0 +1,42 @@
+package app.simsmartgsm.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * Trạng thái 1 job gửi SMS bất đồng bộ (POST trả 202 + jobId, client poll hoặc nghe WS).
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SmsSendJob {
+
+    public enum Status { QUEUED, SENDING, SENT, FAILED }
+
+    private String jobId;
+    private String comPort;
+    private String toNumber;
+    private String content;
+    private Status status;
+    private int attempts;
+
+    /** Message reference modem trả về trong +CMGS */
+    private Integer messageRef;
+    /** Mã +CMS ERROR của lần thử cuối */
+    private Integer errorCode;
+    private String error;
+
+    private Instant createdAt;
+    private Instant startedAt;
+    private Instant completedAt;
+    /** Thời gian chờ trong queue của port (ms) */
+    private Long queueMs;
+    /** Thời gian modem xử lý lần gửi thành công/cuối (ms) */
+    private Long sendMs;
+
+    /** Hạn của lần thử hiện tại, chỉ dùng nội bộ cho timeout (không trả ra API) */
+    @JsonIgnore
+    private Instant deadline;
+}
@@ -3,6 +3,7 @@ package app.simsmartgsm.entity;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 /**
@@ -19,6 +20,7 @@ public class Country {
     private String id;              // Mongo ObjectId
 
     /** Mã quốc gia (ISO Alpha-3, ví dụ: VNM, JPN) */
+    @Indexed(unique = true)
     private String countryCode;
 
     /** Tên quốc gia (Vietnam, Japan, ...) */
@@ -0,0 +1,37 @@
+package app.simsmartgsm.entity;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Bản ghi thô của mọi SMS nhận từ modem, được replay từ journal local lên Mongo.
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "inbound_sms")
+public class InboundSms {
+
+    /** {deviceName}:{segment}:{offset} trong journal, replay lại không bị trùng */
+    @Id
+    private String id;
+
+    private String deviceName;
+    private String comPort;
+    private String simId;
+    private String simPhone;
+
+    private String fromNumber;
+    private String content;
+
+    /** Timestamp do modem trả về (yy/MM/dd,HH:mm:ss+zz) */
+    private String modemTimestamp;
+
+    /** Thời điểm node đọc được SMS từ modem */
+    private Instant receivedAt;
+}
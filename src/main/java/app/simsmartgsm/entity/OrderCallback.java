@@ -0,0 +1,42 @@
+package app.simsmartgsm.entity;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Callback success/refund gọi sang order API chưa thành công, chờ retry.
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "order_callbacks")
+@CompoundIndex(name = "device_status_next", def = "{'deviceName': 1, 'status': 1, 'nextAttemptAt': 1}")
+public class OrderCallback {
+
+    /** Idempotency key: {orderId}:{action} */
+    @Id
+    private String id;
+
+    private String orderId;
+
+    /** SUCCESS / REFUND */
+    private String action;
+
+    private String deviceName;
+
+    /** PENDING / FAILED */
+    private String status;
+
+    private int attempts;
+    private Instant nextAttemptAt;
+    private String lastError;
+
+    private Instant createdAt;
+    private Instant updatedAt;
+}
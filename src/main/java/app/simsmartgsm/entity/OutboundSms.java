@@ -0,0 +1,65 @@
+package app.simsmartgsm.entity;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * SMS đã gửi đi từ device này, kèm message reference của modem để khớp với status report (+CDS).
+ * Tin nhiều phần ghi mỗi phần 1 bản ghi (mỗi phần có ref và report riêng), chung groupId.
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "sms_outbox")
+@CompoundIndexes({
+        // khớp +CDS theo (device, COM, message ref), bản gửi mới nhất trước
+        @CompoundIndex(name = "device_com_ref", def = "{'deviceName': 1, 'comPort': 1, 'messageRef': 1, 'submittedAt': -1}"),
+        // load các tin đang chờ report lúc khởi động / đánh EXPIRED
+        @CompoundIndex(name = "device_status_ts", def = "{'deviceName': 1, 'status': 1, 'submittedAt': 1}")
+})
+public class OutboundSms {
+
+    public static final String STATUS_SENT = "SENT";
+    public static final String STATUS_FAILED = "FAILED";
+    public static final String STATUS_DELIVERED = "DELIVERED";
+    public static final String STATUS_UNDELIVERED = "UNDELIVERED";
+    public static final String STATUS_EXPIRED = "EXPIRED";
+
+    @Id
+    private String id;
+
+    private String deviceName;
+    private String comPort;
+    private String simPhone;
+    private String toNumber;
+    private String content;
+
+    /** Message reference trả về trong +CMGS (0-255) */
+    private Integer messageRef;
+
+    /** Tin nhiều phần: id bản ghi phần 1, số thứ tự phần (từ 1) và tổng số phần; tin 1 phần để null */
+    private String groupId;
+    private Integer partSeq;
+    private Integer partCount;
+
+    /** SENT (chờ report) / FAILED / DELIVERED / UNDELIVERED / EXPIRED */
+    private String status;
+
+    /** Mã +CMS ERROR khi gửi lỗi */
+    private Integer errorCode;
+
+    /** TP-Status của status report cuối cùng */
+    private Integer reportStatus;
+
+    private Instant submittedAt;
+    /** Discharge time trong report (thời điểm SMSC giao/huỷ tin) */
+    private String dischargeTime;
+    private Instant reportedAt;
+}
@@ -0,0 +1,50 @@
+package app.simsmartgsm.entity;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Phiên thuê SIM đang chạy trên node, lưu lại để khôi phục sau khi restart/crash.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Document(collection = "rent_sessions")
+@CompoundIndex(name = "device_status", def = "{'deviceName': 1, 'status': 1}")
+public class RentalSession {
+
+    /** Dùng orderId làm khoá, mỗi order chỉ có 1 session */
+    @Id
+    private String orderId;
+
+    private String simId;
+    private String deviceName;
+    private String comName;
+    private String phoneNumber;
+
+    private Long accountId;
+    private List<String> services;
+    private String countryCode;
+
+    /** Giá trị gốc của type (rent.otp.service, buy.otp.service, ...) */
+    private String serviceType;
+
+    private Instant startTime;
+    private int durationMinutes;
+    private boolean otpReceived;
+
+    /** ACTIVE / COMPLETED / REFUND_PENDING / REFUNDED */
+    private String status;
+
+    private Instant updatedAt;
+
+    public Instant expiresAt() {
+        return startTime.plusSeconds(durationMinutes * 60L);
+    }
+}
@@ -2,6 +2,7 @@ package app.simsmartgsm.entity;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.util.List;
@@ -15,6 +16,7 @@ import java.util.List;
 public class Service {
     @Id
     private String id;
+    @Indexed
     private String code;
     private String text;
     private List<String> matches;
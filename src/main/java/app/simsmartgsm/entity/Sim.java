@@ -2,6 +2,7 @@ package app.simsmartgsm.entity;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
@@ -22,6 +23,7 @@ public class Sim {
     private String id = UUID.randomUUID().toString();
 
     /** Số điện thoại SIM */
+    @Indexed
     private String phoneNumber;
 
     /** Tổng doanh thu từ SIM này */
@@ -35,6 +37,7 @@ public class Sim {
     private String countryCode = "JPN";
 
     /** Thiết bị đang chứa SIM (tên server/vps) */
+    @Indexed
     private String deviceName;
 
     /** Tên cổng COM mà SIM được kết nối */
@@ -44,6 +47,7 @@ public class Sim {
     private String simProvider;
 
     /** ICCID/CCID của SIM */
+    @Indexed(unique = true, sparse = true)
     private String ccid;
 
     private String imsi;
@@ -3,6 +3,8 @@ package app.simsmartgsm.entity;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
@@ -13,6 +15,20 @@ import java.time.Instant;
 @NoArgsConstructor
 @AllArgsConstructor
 @Document(collection = "sms_messages")
+@CompoundIndexes({
+        // findByTypeAndDeviceName (sort theo thời gian)
+        @CompoundIndex(name = "type_device_ts", def = "{'type': 1, 'deviceName': 1, 'timestamp': -1}"),
+        // existsByOrderId / existsByOrderIdAndType
+        @CompoundIndex(name = "order_type", def = "{'orderId': 1, 'type': 1}"),
+        // lịch sử SMS phân trang keyset (timestamp, _id)
+        @CompoundIndex(name = "device_ts_id", def = "{'deviceName': 1, 'timestamp': -1, '_id': -1}"),
+        // lịch sử SMS có lọc: mỗi filter 1 index cùng thứ tự sort để vẫn seek được
+        @CompoundIndex(name = "device_com_ts_id", def = "{'deviceName': 1, 'comPort': 1, 'timestamp': -1, '_id': -1}"),
+        @CompoundIndex(name = "device_order_ts_id", def = "{'deviceName': 1, 'orderId': 1, 'timestamp': -1, '_id': -1}"),
+        @CompoundIndex(name = "device_account_ts_id", def = "{'deviceName': 1, 'accountId': 1, 'timestamp': -1, '_id': -1}"),
+        @CompoundIndex(name = "device_service_ts_id", def = "{'deviceName': 1, 'serviceCode': 1, 'timestamp': -1, '_id': -1}"),
+        @CompoundIndex(name = "device_type_ts_id", def = "{'deviceName': 1, 'type': 1, 'timestamp': -1, '_id': -1}")
+})
 public class SmsMessage {
     @Id
     private String id;
@@ -47,7 +63,7 @@ public class SmsMessage {
     /** Trả về từ modem (OK/ERROR/...) */
     private String modemResponse;
 
-    /** Loại tin nhắn: INBOX / OUTBOX / OTP... */
+    /** Loại tin nhắn: INBOX / OUTBOX / OTP / INBOX_PARTIAL (tin nhiều phần thiếu phần, không gắn order)... */
     private String type;
     private String serviceType;
     
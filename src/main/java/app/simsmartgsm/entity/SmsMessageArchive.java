@@ -0,0 +1,60 @@
+package app.simsmartgsm.entity;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Bản lưu trữ gọn của SmsMessage đã quá hạn retention (không giữ modemResponse),
+ * để sms_messages chỉ còn dữ liệu nóng.
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "sms_messages_archive")
+@CompoundIndex(name = "device_ts", def = "{'deviceName': 1, 'timestamp': -1}")
+public class SmsMessageArchive {
+
+    /** Giữ nguyên id của sms_messages, archive lại nhiều lần không bị trùng */
+    @Id
+    private String id;
+
+    private String orderId;
+    private String deviceName;
+    private String comPort;
+    private String simPhone;
+    private String serviceCode;
+    private String fromNumber;
+    private String toNumber;
+    private String content;
+    private String type;
+    private Long accountId;
+
+    private Instant timestamp;
+
+    /** Thời điểm chuyển sang archive (dùng cho TTL index nếu bật) */
+    private Instant archivedAt;
+
+    public static SmsMessageArchive from(SmsMessage m, Instant archivedAt) {
+        return SmsMessageArchive.builder()
+                .id(m.getId())
+                .orderId(m.getOrderId())
+                .deviceName(m.getDeviceName())
+                .comPort(m.getComPort())
+                .simPhone(m.getSimPhone())
+                .serviceCode(m.getServiceCode())
+                .fromNumber(m.getFromNumber())
+                .toNumber(m.getToNumber())
+                .content(m.getContent())
+                .type(m.getType())
+                .accountId(m.getAccountId())
+                .timestamp(m.getTimestamp())
+                .archivedAt(archivedAt)
+                .build();
+    }
+}
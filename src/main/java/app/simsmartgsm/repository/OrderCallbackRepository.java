@@ -0,0 +1,14 @@
+package app.simsmartgsm.repository;
+
+import app.simsmartgsm.entity.OrderCallback;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface OrderCallbackRepository extends MongoRepository<OrderCallback, String> {
+    List<OrderCallback> findTop100ByDeviceNameAndStatusAndNextAttemptAtLessThanEqualOrderByNextAttemptAtAsc(
+            String deviceName, String status, Instant now);
+
+    long countByDeviceNameAndStatus(String deviceName, String status);
+}
@@ -0,0 +1,15 @@
+package app.simsmartgsm.repository;
+
+import app.simsmartgsm.entity.OutboundSms;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+public interface OutboundSmsRepository extends MongoRepository<OutboundSms, String> {
+    List<OutboundSms> findByDeviceNameAndStatusAndSubmittedAtAfter(String deviceName, String status, Instant after);
+
+    Optional<OutboundSms> findFirstByDeviceNameAndComPortAndMessageRefOrderBySubmittedAtDesc(
+            String deviceName, String comPort, Integer messageRef);
+}
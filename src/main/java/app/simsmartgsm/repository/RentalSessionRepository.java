@@ -0,0 +1,10 @@
+package app.simsmartgsm.repository;
+
+import app.simsmartgsm.entity.RentalSession;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+
+public interface RentalSessionRepository extends MongoRepository<RentalSession, String> {
+    List<RentalSession> findByDeviceNameAndStatus(String deviceName, String status);
+}
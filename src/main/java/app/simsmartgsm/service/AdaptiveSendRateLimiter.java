@@ -0,0 +1,242 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.entity.Sim;
+import app.simsmartgsm.uitils.AtCommandHelper;
+import app.simsmartgsm.uitils.CmsError;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Giới hạn tần suất gửi SMS theo SIM (COM) và theo nhà mạng, tự điều chỉnh kiểu AIMD:
+ * mỗi lần gửi thành công tăng dần rate, gặp mã +CMS ERROR báo nghẽn/chặn (hoặc latency vượt ngưỡng)
+ * thì nhân rate với hệ số giảm. Mỗi lần gửi phải lấy token ở cả 2 bucket, thiếu token thì
+ * reserve trước (nợ token) và trả về thời gian phải chờ. COM chưa biết nhà mạng (chưa có trong snapshot)
+ * chỉ dùng bucket SIM, không gom chung vào 1 bucket nhà mạng giả.
+ */
+@Service
+@Slf4j
+public class AdaptiveSendRateLimiter {
+
+    public enum Scope { SIM, PROVIDER }
+
+    private final SimInventorySnapshot simInventorySnapshot;
+    private final MeterRegistry registry;
+
+    @Value("${gsm.send-rate.sim.initial-per-minute:6}")
+    private double simInitial = 6;
+    @Value("${gsm.send-rate.sim.min-per-minute:1}")
+    private double simMin = 1;
+    @Value("${gsm.send-rate.sim.max-per-minute:30}")
+    private double simMax = 30;
+    @Value("${gsm.send-rate.provider.initial-per-minute:60}")
+    private double providerInitial = 60;
+    @Value("${gsm.send-rate.provider.min-per-minute:5}")
+    private double providerMin = 5;
+    @Value("${gsm.send-rate.provider.max-per-minute:300}")
+    private double providerMax = 300;
+    /** Số tin tối đa được gửi dồn khi bucket đầy */
+    @Value("${gsm.send-rate.burst:2}")
+    private double burst = 2;
+    /** Rate tăng thêm (tin/phút) sau mỗi lần gửi thành công */
+    @Value("${gsm.send-rate.additive-increase:0.5}")
+    private double additiveIncrease = 0.5;
+    @Value("${gsm.send-rate.decrease-factor:0.5}")
+    private double decreaseFactor = 0.5;
+    /** Sau 1 lần giảm: các lỗi trong khoảng này (tin đang bay) không giảm thêm, cũng chưa tăng lại */
+    @Value("${gsm.send-rate.cooldown-ms:30000}")
+    private long cooldownMs = 30000;
+    /** Gửi thành công nhưng chậm hơn ngưỡng này coi như nhà mạng bắt đầu nghẽn */
+    @Value("${gsm.send-rate.latency-threshold-ms:15000}")
+    private long latencyThresholdMs = 15000;
+
+    private final Map<String, Bucket> simBuckets = new ConcurrentHashMap<>();
+    private final Map<String, Bucket> providerBuckets = new ConcurrentHashMap<>();
+
+    public AdaptiveSendRateLimiter(SimInventorySnapshot simInventorySnapshot, MeterRegistry registry) {
+        this.simInventorySnapshot = simInventorySnapshot;
+        this.registry = registry;
+    }
+
+    /** Trạng thái 1 bucket cho API /api/sms/rates */
+    public record RateView(Scope scope, String key, double ratePerMinute, double tokens,
+                           long sent, long throttled, Integer lastErrorCode) {}
+
+    /**
+     * Giữ 1 token ở bucket SIM và bucket nhà mạng của COM.
+     * @return số nano phải chờ trước khi gửi (0 = gửi ngay)
+     */
+    public long reserve(String comPort) {
+        long now = System.nanoTime();
+        long simWait = simBucket(comPort).reserve(now);
+        Bucket provider = providerBucket(comPort);
+        return provider == null ? simWait : Math.max(simWait, provider.reserve(now));
+    }
+
+    /** Thời gian chờ nếu reserve ngay bây giờ, không lấy token (dùng để chọn SIM rảnh nhất) */
+    public long peekDelay(String comPort) {
+        long now = System.nanoTime();
+        Bucket provider = providerBucket(comPort);
+        long simWait = simBucket(comPort).peek(now);
+        return provider == null ? simWait : Math.max(simWait, provider.peek(now));
+    }
+
+    /** Phản hồi sau mỗi lần gửi để điều chỉnh rate; latencyMs tính từ lúc gửi AT+CMGS */
+    public CmsError onResult(String comPort, AtCommandHelper.SendResult result, long latencyMs) {
+        Bucket sim = simBucket(comPort);
+        Bucket provider = providerBucket(comPort);
+        if (result != null && result.ok()) {
+            boolean slow = latencyMs > latencyThresholdMs;
+            sim.onSuccess(slow);
+            if (provider != null) provider.onSuccess(slow);
+            return null;
+        }
+        Integer code = result == null ? null : result.errorCode();
+        CmsError kind = CmsError.classify(code);
+        registry.counter("gsm.send.errors", "class", kind.name()).increment();
+        if (kind == CmsError.THROTTLED) {
+            if (sim.onThrottled(code)) {
+                log.warn("🐢 {} bị nghẽn (+CMS ERROR {}), giảm còn {}/phút", comPort, code, fmt(sim.rate()));
+            }
+            if (provider != null) provider.onThrottled(code);
+        } else {
+            sim.lastErrorCode = code;
+        }
+        return kind;
+    }
+
+    public List<RateView> rates() {
+        List<RateView> views = new ArrayList<>();
+        new TreeMap<>(simBuckets).values().forEach(b -> views.add(b.view()));
+        new TreeMap<>(providerBuckets).values().forEach(b -> views.add(b.view()));
+        return views;
+    }
+
+    public double currentRate(Scope scope, String key) {
+        Bucket b = (scope == Scope.SIM ? simBuckets : providerBuckets).get(key);
+        return b == null ? 0 : b.rate();
+    }
+
+    /** Nhà mạng của COM theo snapshot, null nếu chưa biết */
+    String providerOf(String comPort) {
+        return simInventorySnapshot.findSimByCom(comPort)
+                .map(Sim::getSimProvider)
+                .filter(p -> !p.isBlank())
+                .map(p -> p.trim().toUpperCase(Locale.ROOT))
+                .orElse(null);
+    }
+
+    private Bucket simBucket(String comPort) {
+        return simBuckets.computeIfAbsent(comPort, k -> register(new Bucket(Scope.SIM, k, simInitial, simMin, simMax)));
+    }
+
+    private Bucket providerBucket(String comPort) {
+        String provider = providerOf(comPort);
+        if (provider == null) return null;
+        return providerBuckets.computeIfAbsent(provider,
+                k -> register(new Bucket(Scope.PROVIDER, k, providerInitial, providerMin, providerMax)));
+    }
+
+    private Bucket register(Bucket b) {
+        Gauge.builder("gsm.send.rate", b, Bucket::rate)
+                .description("Rate gửi SMS hiện tại (tin/phút)")
+                .tag("scope", b.scope.name())
+                .tag("key", b.key)
+                .register(registry);
+        return b;
+    }
+
+    private static String fmt(double rate) {
+        return String.format(Locale.ROOT, "%.1f", rate);
+    }
+
+    /** Token bucket có rate thay đổi được, token có thể âm khi đã reserve trước */
+    private final class Bucket {
+        final Scope scope;
+        final String key;
+        final double min;
+        final double max;
+        private double ratePerMinute;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+        private long lastDecrease = Long.MIN_VALUE / 2;
+        private long sent;
+        private long throttled;
+        volatile Integer lastErrorCode;
+
+        Bucket(Scope scope, String key, double initial, double min, double max) {
+            this.scope = scope;
+            this.key = key;
+            this.min = min;
+            this.max = max;
+            this.ratePerMinute = Math.max(min, Math.min(max, initial));
+            this.tokens = Math.min(burst, 1);
+        }
+
+        synchronized double rate() {
+            return ratePerMinute;
+        }
+
+        private double tokensPerNano() {
+            return ratePerMinute / TimeUnit.MINUTES.toNanos(1);
+        }
+
+        private void refill(long now) {
+            if (now <= lastRefill) return; // now lấy trước khi bucket được tạo
+            tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano());
+            lastRefill = now;
+        }
+
+        synchronized long reserve(long now) {
+            refill(now);
+            long wait = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano());
+            tokens -= 1;
+            return wait;
+        }
+
+        synchronized long peek(long now) {
+            double t = Math.min(burst, tokens + Math.max(0, now - lastRefill) * tokensPerNano());
+            return t >= 1 ? 0 : (long) Math.ceil((1 - t) / tokensPerNano());
+        }
+
+        synchronized void onSuccess(boolean slow) {
+            sent++;
+            long now = System.nanoTime();
+            if (slow) {
+                decrease(now);
+                return;
+            }
+            if (now - lastDecrease < TimeUnit.MILLISECONDS.toNanos(cooldownMs)) return;
+            refill(now);
+            ratePerMinute = Math.min(max, ratePerMinute + additiveIncrease);
+        }
+
+        /** @return true nếu rate thực sự bị giảm (ngoài cooldown) */
+        synchronized boolean onThrottled(Integer code) {
+            throttled++;
+            lastErrorCode = code;
+            return decrease(System.nanoTime());
+        }
+
+        private boolean decrease(long now) {
+            if (now - lastDecrease < TimeUnit.MILLISECONDS.toNanos(cooldownMs)) return false;
+            refill(now);
+            lastDecrease = now;
+            ratePerMinute = Math.max(min, ratePerMinute * decreaseFactor);
+            // bỏ token dự trữ để lần gửi kế tiếp chờ theo rate mới
+            tokens = Math.min(tokens, 0);
+            return true;
+        }
+
+        synchronized RateView view() {
+            refill(System.nanoTime());
+            return new RateView(scope, key, ratePerMinute, tokens, sent, throttled, lastErrorCode);
+        }
+    }
+}
@@ -0,0 +1,466 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.dto.response.CampaignProgress;
+import app.simsmartgsm.dto.response.CampaignProgress.Status;
+import app.simsmartgsm.entity.Sim;
+import app.simsmartgsm.repository.SimRepository;
+import app.simsmartgsm.uitils.AtCommandHelper;
+import app.simsmartgsm.uitils.CmsError;
+import app.simsmartgsm.uitils.HostUtils;
+import app.simsmartgsm.uitils.SimStatus;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gửi SMS hàng loạt trên toàn bộ SIM ACTIVE của device. Danh sách người nhận được đọc dần
+ * (file spool hoặc iterator), mỗi SIM là 1 lane gửi tuần tự, tần suất do AdaptiveSendRateLimiter quyết
+ * định (dùng chung với mọi đường gửi khác); người nhận được giao cho lane rảnh có token sớm nhất.
+ * Gửi lỗi thì thử lại trên SIM khác (trừ khi số nhận sai), SIM bị chặn hoặc lỗi liên tiếp quá ngưỡng
+ * thì bị loại khỏi campaign. Tiến độ push qua /topic/campaigns.
+ */
+@Service
+@Slf4j
+public class CampaignService {
+
+    public static final String CAMPAIGN_TOPIC = "/topic/campaigns";
+
+    private final SmsSendJobService smsSendJobService;
+    private final AdaptiveSendRateLimiter rateLimiter;
+    private final SimInventorySnapshot simInventorySnapshot;
+    private final SimRepository simRepository;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final MeterRegistry registry;
+
+    /** Số SIM khác nhau tối đa thử cho 1 người nhận */
+    @Value("${gsm.campaign.max-attempts:3}")
+    private int maxAttempts;
+    /** SIM lỗi liên tiếp từng này lần thì bỏ khỏi campaign */
+    @Value("${gsm.campaign.lane-max-failures:5}")
+    private int laneMaxFailures;
+    /**
+     * Tính từ lúc tin thực sự bắt đầu gửi (onStart), quá thời gian này mà chưa có kết quả (worker bị dừng...)
+     * thì coi như lỗi và thử SIM khác; trước khi bắt đầu thì cộng thêm thời gian chờ token của limiter
+     */
+    @Value("${gsm.campaign.send-timeout-ms:120000}")
+    private long sendTimeoutMs;
+    @Value("${gsm.campaign.spool-dir:./data/campaigns}")
+    private String spoolDir;
+    @Value("${gsm.campaign.retention-minutes:1440}")
+    private long retentionMinutes;
+
+    private final Map<String, Campaign> campaigns = new ConcurrentHashMap<>();
+
+    public CampaignService(SmsSendJobService smsSendJobService, AdaptiveSendRateLimiter rateLimiter,
+                           SimInventorySnapshot simInventorySnapshot,
+                           SimRepository simRepository, SimpMessagingTemplate messagingTemplate,
+                           MeterRegistry registry) {
+        this.smsSendJobService = smsSendJobService;
+        this.rateLimiter = rateLimiter;
+        this.simInventorySnapshot = simInventorySnapshot;
+        this.simRepository = simRepository;
+        this.messagingTemplate = messagingTemplate;
+        this.registry = registry;
+    }
+
+    /**
+     * Danh sách đã nằm sẵn trong bộ nhớ (BulkSmsRequest). Chỉ hợp cho danh sách nhỏ,
+     * danh sách lớn dùng bản InputStream (spool ra file, đọc dần).
+     */
+    public CampaignProgress start(Iterator<String> recipients, String message) {
+        return launch(UUID.randomUUID().toString(), recipients, message, null);
+    }
+
+    /**
+     * Danh sách lớn: mỗi dòng 1 số, ghi tạm ra file spool rồi campaign đọc dần từ file,
+     * không giữ toàn bộ danh sách trong bộ nhớ.
+     */
+    public CampaignProgress start(InputStream recipients, String message) throws IOException {
+        String id = UUID.randomUUID().toString();
+        Path dir = Paths.get(spoolDir);
+        Files.createDirectories(dir);
+        Path spool = dir.resolve(id + ".txt");
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(recipients, StandardCharsets.UTF_8));
+             BufferedWriter out = Files.newBufferedWriter(spool, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String number = line.trim();
+                if (number.isEmpty() || number.startsWith("#")) continue;
+                out.write(number);
+                out.newLine();
+            }
+        }
+        BufferedReader reader = Files.newBufferedReader(spool, StandardCharsets.UTF_8);
+        Iterator<String> it = reader.lines().iterator();
+        return launch(id, it, message, () -> {
+            try {
+                reader.close();
+                Files.deleteIfExists(spool);
+            } catch (IOException e) {
+                log.warn("⚠️ Không xoá được spool campaign {}: {}", spool, e.getMessage());
+            }
+        });
+    }
+
+    public Optional<CampaignProgress> find(String campaignId) {
+        Campaign c = campaigns.get(campaignId);
+        return c == null ? Optional.empty() : Optional.of(c.progress());
+    }
+
+    public List<CampaignProgress> list() {
+        return campaigns.values().stream()
+                .map(Campaign::progress)
+                .sorted(Comparator.comparing(CampaignProgress::getStartedAt).reversed())
+                .toList();
+    }
+
+    public boolean cancel(String campaignId) {
+        Campaign c = campaigns.get(campaignId);
+        if (c == null) return false;
+        synchronized (c) {
+            c.cancelled = true;
+            c.notifyAll();
+        }
+        return true;
+    }
+
+    private CampaignProgress launch(String id, Iterator<String> recipients, String message, Runnable onClose) {
+        List<Lane> lanes = activeLanes();
+        Campaign c = new Campaign(id, message, recipients, onClose, lanes);
+        campaigns.put(id, c);
+        registry.counter("gsm.campaign.started").increment();
+
+        if (lanes.isEmpty()) {
+            c.finish(Status.FAILED, "no ACTIVE SIM on " + HostUtils.getDeviceName());
+            if (onClose != null) onClose.run();
+            publish(c);
+            return c.progress();
+        }
+        log.info("📣 Campaign {} start trên {} SIM", id, lanes.size());
+        Thread t = new Thread(() -> run(c), "campaign-" + id.substring(0, 8));
+        t.setDaemon(true);
+        t.start();
+        return c.progress();
+    }
+
+    /** SIM ACTIVE của device này, snapshot trước rồi mới tới Mongo */
+    private List<Lane> activeLanes() {
+        List<Sim> sims = simInventorySnapshot.isLoaded()
+                ? simInventorySnapshot.getSims()
+                : simRepository.findByDeviceName(HostUtils.getDeviceName());
+        Map<String, Lane> byCom = new TreeMap<>();
+        for (Sim sim : sims) {
+            if (sim.getComName() == null || !SimStatus.ACTIVE.name().equalsIgnoreCase(sim.getStatus())) continue;
+            byCom.putIfAbsent(sim.getComName(), new Lane(sim.getComName(), sim.getPhoneNumber()));
+        }
+        return new ArrayList<>(byCom.values());
+    }
+
+    // ===== vòng dispatch của 1 campaign =====
+
+    private void run(Campaign c) {
+        try {
+            while (true) {
+                Item item;
+                Lane lane;
+                long seq;
+                synchronized (c) {
+                    if (c.cancelled) break;
+                    item = c.nextItem();
+                    if (item == null) {
+                        // hết danh sách: chờ các tin đang gửi, có thể sinh thêm retry
+                        if (c.inFlight == 0) break;
+                        expireStuckSends(c);
+                        c.wait(1000);
+                        continue;
+                    }
+                    lane = awaitLane(c, item);
+                    if (lane == null) {
+                        if (c.cancelled) break;
+                        c.failed++;
+                        registry.counter("gsm.campaign.messages", "result", "failed").increment();
+                        continue;
+                    }
+                    c.held = null;
+                    lane.busy = true;
+                    lane.item = item;
+                    // chưa bắt đầu gửi: chờ token của limiter không tính vào timeout
+                    lane.deadline = System.currentTimeMillis()
+                            + TimeUnit.NANOSECONDS.toMillis(rateLimiter.peekDelay(lane.com)) + sendTimeoutMs;
+                    seq = ++lane.dispatchSeq;
+                    item.tried.add(lane.com);
+                    c.inFlight++;
+                }
+
+                smsSendJobService.sendVia(lane.com, item.to, c.message, () -> onStart(c, lane, seq),
+                        result -> onResult(c, lane, seq, item, result));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("❌ Campaign {} lỗi: {}", c.id, e.getMessage(), e);
+            c.finish(Status.FAILED, e.getMessage());
+        } finally {
+            if (c.status == Status.RUNNING) c.finish(c.cancelled ? Status.CANCELLED : Status.COMPLETED, null);
+            if (c.onClose != null) c.onClose.run();
+            log.info("🏁 Campaign {} {}: sent={} failed={} retried={}", c.id, c.status, c.sent, c.failed, c.retried);
+            publish(c);
+        }
+    }
+
+    /**
+     * Chờ tới khi có lane rảnh chưa từng thử cho item này, chọn lane có token sớm nhất.
+     * Trả về null nếu không còn lane nào dùng được cho item (hoặc campaign bị huỷ).
+     */
+    private Lane awaitLane(Campaign c, Item item) throws InterruptedException {
+        c.held = item;
+        while (!c.cancelled) {
+            expireStuckSends(c);
+            Lane best = null;
+            boolean candidate = false;
+            for (Lane lane : c.lanes) {
+                if (lane.disabled || item.tried.contains(lane.com)) continue;
+                candidate = true;
+                if (lane.busy) continue;
+                if (best == null || rateLimiter.peekDelay(lane.com) < rateLimiter.peekDelay(best.com)) best = lane;
+            }
+            if (best != null) return best;
+            if (!candidate) {
+                c.held = null;
+                return null;
+            }
+            c.wait(1000);
+        }
+        return null;
+    }
+
+    /** @return false nếu lần gửi này đã bị tính timeout và người nhận đã chuyển sang SIM khác: không gửi nữa */
+    private boolean onStart(Campaign c, Lane lane, long seq) {
+        synchronized (c) {
+            if (!lane.busy || lane.dispatchSeq != seq) return false;
+            lane.deadline = System.currentTimeMillis() + sendTimeoutMs;
+            return true;
+        }
+    }
+
+    private void onResult(Campaign c, Lane lane, long seq, Item item, AtCommandHelper.SendResult result) {
+        synchronized (c) {
+            if (!lane.busy || lane.dispatchSeq != seq) return; // đã bị tính timeout
+            boolean ok = result != null && result.ok();
+            // tin nhiều phần đã gửi được vài phần: không gửi lại cả tin qua SIM khác (người nhận sẽ có phần trùng)
+            Item retryable = result != null && result.partiallySent() ? null : item;
+            complete(c, lane, retryable, ok, ok ? null : CmsError.classify(result == null ? null : result.errorCode()));
+        }
+    }
+
+    /** Lane quá hạn: giữ lại người nhận để thử SIM khác, kết quả về muộn của lần gửi cũ bị bỏ qua (theo seq) */
+    private void expireStuckSends(Campaign c) {
+        long now = System.currentTimeMillis();
+        for (Lane lane : c.lanes) {
+            if (lane.busy && now > lane.deadline) {
+                log.warn("⏱️ Campaign {} send tới {} qua {} quá {} ms, coi như lỗi", c.id, lane.item.to, lane.com,
+                        sendTimeoutMs);
+                lane.dispatchSeq++;
+                complete(c, lane, lane.item, false, CmsError.UNKNOWN);
+            }
+        }
+    }
+
+    /** Gọi trong lock của campaign; item null: lỗi không đưa người nhận vào hàng thử lại */
+    private void complete(Campaign c, Lane lane, Item item, boolean ok, CmsError error) {
+        lane.busy = false;
+        lane.item = null;
+        c.inFlight--;
+        if (ok) {
+            lane.sent++;
+            lane.consecutiveFailures = 0;
+            c.sent++;
+            registry.counter("gsm.campaign.messages", "result", "sent").increment();
+        } else {
+            lane.failed++;
+            // nghẽn do nhà mạng: limiter đã giảm tốc, không tính là SIM hỏng
+            if (error != CmsError.THROTTLED) lane.consecutiveFailures++;
+            if (!lane.disabled && (error == CmsError.SIM_BLOCKED || lane.consecutiveFailures >= laneMaxFailures)) {
+                lane.disabled = true;
+                log.warn("🚫 Campaign {} bỏ SIM {} ({}, {} lỗi liên tiếp)", c.id, lane.com, error, lane.consecutiveFailures);
+            }
+            if (item != null && error.retryable() && item.tried.size() < maxAttempts && c.hasUntriedLane(item)) {
+                c.retries.addLast(item);
+                c.retried++;
+                registry.counter("gsm.campaign.messages", "result", "retried").increment();
+            } else {
+                c.failed++;
+                registry.counter("gsm.campaign.messages", "result", "failed").increment();
+            }
+        }
+        c.notifyAll();
+    }
+
+    // ===== progress =====
+
+    @Scheduled(fixedDelayString = "${gsm.campaign.progress-interval-ms:2000}")
+    public void publishProgress() {
+        Instant expiry = Instant.now().minusSeconds(retentionMinutes * 60);
+        for (Campaign c : campaigns.values()) {
+            if (c.status == Status.RUNNING) {
+                publish(c);
+            } else if (c.finishedAt != null && c.finishedAt.isBefore(expiry)) {
+                campaigns.remove(c.id);
+            }
+        }
+    }
+
+    private void publish(Campaign c) {
+        try {
+            messagingTemplate.convertAndSend(CAMPAIGN_TOPIC + "/" + c.id, c.progress());
+        } catch (Exception e) {
+            log.warn("⚠️ WS push campaign lỗi: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        campaigns.keySet().forEach(this::cancel);
+    }
+
+    // ===== state =====
+
+    private static final class Item {
+        final String to;
+        final Set<String> tried = new HashSet<>(4);
+
+        Item(String to) {
+            this.to = to;
+        }
+    }
+
+    private static final class Lane {
+        final String com;
+        final String phoneNumber;
+        boolean busy;
+        boolean disabled;
+        int consecutiveFailures;
+        /** Người nhận đang gửi và hạn chót có kết quả (epoch ms) */
+        Item item;
+        long deadline;
+        long dispatchSeq;
+        long sent;
+        long failed;
+
+        Lane(String com, String phoneNumber) {
+            this.com = com;
+            this.phoneNumber = phoneNumber;
+        }
+    }
+
+    private static final class Campaign {
+        final String id;
+        final String message;
+        final Iterator<String> source;
+        final Runnable onClose;
+        final List<Lane> lanes;
+        final Deque<Item> retries = new ArrayDeque<>();
+        final Instant startedAt = Instant.now();
+
+        /** Item đang chờ lane, giữ lại để không mất khi vòng dispatch bị ngắt */
+        Item held;
+        volatile Status status = Status.RUNNING;
+        volatile boolean cancelled;
+        Instant finishedAt;
+        String error;
+        long read, sent, failed, retried;
+        int inFlight;
+
+        private long windowStartMs = System.currentTimeMillis();
+        private long windowSent;
+        private double recentPerMinute;
+
+        Campaign(String id, String message, Iterator<String> source, Runnable onClose, List<Lane> lanes) {
+            this.id = id;
+            this.message = message;
+            this.source = source;
+            this.onClose = onClose;
+            this.lanes = lanes;
+        }
+
+        /** Ưu tiên tin cần retry, sau đó mới đọc tiếp danh sách */
+        Item nextItem() {
+            if (held != null) return held;
+            if (!retries.isEmpty()) return retries.pollFirst();
+            if (cancelled) return null;
+            while (source.hasNext()) {
+                String to = source.next();
+                if (to == null || to.isBlank()) continue;
+                read++;
+                return new Item(to.trim());
+            }
+            return null;
+        }
+
+        boolean hasUntriedLane(Item item) {
+            for (Lane lane : lanes) {
+                if (!lane.disabled && !item.tried.contains(lane.com)) return true;
+            }
+            return false;
+        }
+
+        synchronized void finish(Status status, String error) {
+            this.status = status;
+            this.error = error;
+            this.finishedAt = Instant.now();
+            notifyAll();
+        }
+
+        synchronized CampaignProgress progress() {
+            long now = System.currentTimeMillis();
+            // throughput gần đây: cửa sổ trượt tối thiểu 10s
+            if (now - windowStartMs >= 10_000) {
+                recentPerMinute = (sent - windowSent) * 60_000.0 / (now - windowStartMs);
+                windowStartMs = now;
+                windowSent = sent;
+            }
+            Instant end = finishedAt != null ? finishedAt : Instant.now();
+            long elapsedMs = Math.max(1, end.toEpochMilli() - startedAt.toEpochMilli());
+
+            CampaignProgress p = new CampaignProgress();
+            p.setCampaignId(id);
+            p.setStatus(status);
+            p.setRead(read);
+            p.setSent(sent);
+            p.setFailed(failed);
+            p.setRetried(retried);
+            p.setInFlight(inFlight);
+            p.setRecentPerMinute(recentPerMinute);
+            p.setAveragePerMinute(sent * 60_000.0 / elapsedMs);
+            p.setStartedAt(startedAt);
+            p.setFinishedAt(finishedAt);
+            p.setError(error);
+            List<CampaignProgress.SimLane> sims = new ArrayList<>(lanes.size());
+            for (Lane lane : lanes) {
+                CampaignProgress.SimLane s = new CampaignProgress.SimLane();
+                s.setCom(lane.com);
+                s.setPhoneNumber(lane.phoneNumber);
+                s.setSent(lane.sent);
+                s.setFailed(lane.failed);
+                s.setDisabled(lane.disabled);
+                sims.add(s);
+            }
+            p.setSims(sims);
+            return p;
+        }
+    }
+}
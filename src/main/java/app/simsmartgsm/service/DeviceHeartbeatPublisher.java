@@ -0,0 +1,130 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.config.BrokerSessionManager;
+import app.simsmartgsm.dto.response.DeviceHeartbeat;
+import app.simsmartgsm.dto.response.DeviceHeartbeat.PortStatus;
+import app.simsmartgsm.entity.Sim;
+import app.simsmartgsm.uitils.HostUtils;
+import app.simsmartgsm.uitils.PortWorker;
+import app.simsmartgsm.uitils.SimStatus;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Gửi heartbeat tải/tình trạng port của node lên broker để backend route tránh modem chết/quá tải.
+ * Chỉ gửi phần thay đổi so với lần trước; gửi bản đầy đủ khi vừa (re)connect và mỗi full-every lần.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DeviceHeartbeatPublisher {
+
+    private final BrokerSessionManager broker;
+    private final GsmListenerService gsmListenerService;
+    private final SimInventorySnapshot simInventorySnapshot;
+    private final OtpForwardOutbox otpForwardOutbox;
+
+    @Value("${gsm.heartbeat.destination:/app/device/heartbeat}")
+    private String destination;
+    @Value("${gsm.heartbeat.full-every:20}")
+    private int fullEvery;
+    /** Làm tròn latency để dao động nhỏ không tạo delta */
+    @Value("${gsm.heartbeat.latency-bucket-ms:100}")
+    private long latencyBucketMs;
+
+    private Map<String, PortStatus> lastPorts = Map.of();
+    private Integer lastActiveRentals;
+    private Long lastLatency;
+    private long seq;
+    private int sinceFull;
+    private volatile boolean forceFull = true;
+
+    @PostConstruct
+    public void init() {
+        broker.onConnected(session -> forceFull = true);
+    }
+
+    @Scheduled(fixedDelayString = "${gsm.heartbeat.interval-ms:15000}",
+            initialDelayString = "${gsm.heartbeat.interval-ms:15000}")
+    public void publish() {
+        if (!broker.isConnected()) return;
+        try {
+            DeviceHeartbeat hb = next();
+            if (hb == null) return;
+            if (broker.send(destination, hb)) {
+                commit(hb);
+                log.debug("💓 Heartbeat seq={} full={} ports={}", hb.seq(), hb.full(),
+                        hb.ports() == null ? 0 : hb.ports().size());
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ Heartbeat lỗi: {}", e.getMessage());
+        }
+    }
+
+    /** Heartbeat tiếp theo, null nếu không có gì thay đổi */
+    synchronized DeviceHeartbeat next() {
+        Map<String, PortStatus> ports = currentPorts();
+        int activeRentals = gsmListenerService.getActiveRentalCount();
+        long latency = otpForwardOutbox.getRecentDelayMs();
+        Long latencyBucket = latency < 0 ? null : (latency / latencyBucketMs) * latencyBucketMs;
+        long now = System.currentTimeMillis();
+
+        boolean full = forceFull || sinceFull >= fullEvery;
+        if (full) {
+            return new DeviceHeartbeat(HostUtils.getDeviceName(), seq + 1, true, now, activeRentals,
+                    latencyBucket, new ArrayList<>(ports.values()), null);
+        }
+
+        List<PortStatus> changed = ports.values().stream()
+                .filter(p -> !p.equals(lastPorts.get(p.com())))
+                .toList();
+        List<String> removed = lastPorts.keySet().stream()
+                .filter(com -> !ports.containsKey(com))
+                .toList();
+        Integer rentalsDelta = Objects.equals(lastActiveRentals, activeRentals) ? null : activeRentals;
+        Long latencyDelta = Objects.equals(lastLatency, latencyBucket) ? null : latencyBucket;
+
+        if (changed.isEmpty() && removed.isEmpty() && rentalsDelta == null && latencyDelta == null) {
+            sinceFull++;
+            return null;
+        }
+        return new DeviceHeartbeat(HostUtils.getDeviceName(), seq + 1, false, now, rentalsDelta, latencyDelta,
+                changed.isEmpty() ? null : changed, removed.isEmpty() ? null : removed);
+    }
+
+    /** Chỉ ghi nhận trạng thái đã gửi khi send thành công, lỗi thì lần sau gửi lại delta */
+    private synchronized void commit(DeviceHeartbeat hb) {
+        seq = hb.seq();
+        Map<String, PortStatus> ports = hb.full() ? new HashMap<>() : new HashMap<>(lastPorts);
+        if (hb.ports() != null) hb.ports().forEach(p -> ports.put(p.com(), p));
+        if (hb.removedPorts() != null) hb.removedPorts().forEach(ports::remove);
+        lastPorts = ports;
+        if (hb.full() || hb.activeRentals() != null) lastActiveRentals = hb.activeRentals();
+        if (hb.full() || hb.otpLatencyMs() != null) lastLatency = hb.otpLatencyMs();
+        if (hb.full()) {
+            forceFull = false;
+            sinceFull = 0;
+        } else {
+            sinceFull++;
+        }
+    }
+
+    private Map<String, PortStatus> currentPorts() {
+        Map<String, PortWorker> workers = gsmListenerService.getWorkers();
+        Map<String, PortStatus> ports = new TreeMap<>();
+        for (Sim sim : simInventorySnapshot.getSims()) {
+            if (sim.getComName() == null || !String.valueOf(SimStatus.ACTIVE).equals(sim.getStatus())) continue;
+            PortWorker w = workers.get(sim.getComName());
+            ports.put(sim.getComName(), new PortStatus(sim.getComName(), sim.getPhoneNumber(),
+                    w == null ? 0 : w.getQueueDepth(),
+                    w == null ? "IDLE" : w.getHealth().name()));
+        }
+        return ports;
+    }
+}
@@ -1,23 +1,35 @@
 package app.simsmartgsm.service;
 
-import app.simsmartgsm.config.RemoteStompClientConfig;
+import app.simsmartgsm.dto.response.OtpEvent;
+import app.simsmartgsm.dto.response.SmsResponse;
 import app.simsmartgsm.entity.Country;
+import app.simsmartgsm.entity.RentalSession;
 import app.simsmartgsm.entity.Sim;
 import app.simsmartgsm.entity.SmsMessage;
+import app.simsmartgsm.repository.RentalSessionRepository;
 import app.simsmartgsm.repository.ServiceRepository;
 import app.simsmartgsm.repository.SmsMessageRepository;
 import app.simsmartgsm.uitils.AtCommandHelper;
+import app.simsmartgsm.uitils.ConcatReassembler;
+import app.simsmartgsm.uitils.HostUtils;
+import app.simsmartgsm.uitils.OrderCallbackAction;
 import app.simsmartgsm.uitils.OtpSessionType;
 import app.simsmartgsm.uitils.PortWorker;
+import app.simsmartgsm.uitils.RentalStatus;
+import jakarta.annotation.PostConstruct;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
@@ -30,9 +42,17 @@ import java.util.regex.Pattern;
 @Slf4j
 public class GsmListenerService {
 
-    private final RemoteStompClientConfig remoteStompClientConfig;
     private final SmsMessageRepository smsMessageRepository;
     private final ServiceRepository serviceRepository;
+    private final RentalSessionRepository rentalSessionRepository;
+    private final RentSessionStore rentSessionStore;
+    private final OrderDedupIndex orderDedupIndex;
+    private final OrderCallbackDispatcher orderCallbackDispatcher;
+    private final SmsMessageWriter smsMessageWriter;
+    private final SmsJournal smsJournal;
+    private final SmsOutboxService smsOutboxService;
+    private final OtpForwardOutbox otpForwardOutbox;
+    private final SimUpdatePublisher simUpdatePublisher;
     private final Map<String, PortWorker> workers = new ConcurrentHashMap<>();
     private final Map<String, List<RentSession>> activeSessions = new ConcurrentHashMap<>();
 
@@ -44,18 +64,38 @@ public class GsmListenerService {
     @Value("${gsm.loop-test-sms:false}")
     private boolean loopTestSms;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    /** PDU mode cho PortWorker: nhận/gửi UCS2 (tiếng Việt, tiếng Nhật) và SMS nhiều phần */
+    @Value("${gsm.pdu-mode.enabled:true}")
+    private boolean pduMode;
+    /** Thời gian chờ đủ các phần của 1 SMS nhiều phần trước khi xử lý phần đã có */
+    @Value("${gsm.pdu-mode.concat-timeout-ms:60000}")
+    private long concatTimeoutMs;
+    @Value("${gsm.pdu-mode.concat-max-pending:64}")
+    private int concatMaxPending;
+
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
 
-    @Value("${gsm.order-api.base-url}")
-    private String orderApiBaseUrl;
+    @PostConstruct
+    void registerCallbackAck() {
+        orderCallbackDispatcher.addAckListener((orderId, action) -> {
+            if (action == OrderCallbackAction.REFUND) {
+                rentSessionStore.markStatus(orderId, RentalStatus.REFUNDED.name());
+            }
+        });
+    }
 
     // === Thuê SIM ===
     public void rentSim(Sim sim, Long accountId, List<String> services,
                         int durationMinutes, Country country, String orderId, String type) {
+        if (!orderDedupIndex.tryAcquire(orderId)) {
+            log.info("⏭️ Bỏ qua rent request trùng orderId={} (SIM={})", orderId, sim.getPhoneNumber());
+            return;
+        }
+
         RentSession session = new RentSession(accountId, services, Instant.now(), durationMinutes,
                 country, orderId, OtpSessionType.fromString(type), false, type);
         activeSessions.computeIfAbsent(sim.getId(), k -> new CopyOnWriteArrayList<>()).add(session);
+        persistSession(sim, session, RentalStatus.ACTIVE);
 
         log.info("➕ Rent SIM {} by acc={} services={} duration={}m",
                 sim.getPhoneNumber(), accountId, services, durationMinutes);
@@ -107,16 +147,15 @@ public class GsmListenerService {
     private void checkAndRefund(Sim sim, RentSession session) {
         if (session.isActive()) return;
 
+        boolean refund = false;
         if (!testMode) {
-            boolean hasOtp = smsMessageRepository.existsByOrderId(session.getOrderId());
+            boolean hasOtp = session.isOtpReceived()
+                    || smsMessageWriter.hasPending(session.getOrderId())
+                    || smsMessageRepository.existsByOrderId(session.getOrderId());
             if (!hasOtp) {
-                try {
-                    callUpdateRefundApi(session.getOrderId());
-                    log.info("🔄 Auto refund orderId={} (SIM={}, acc={}) vì hết hạn không nhận được OTP",
-                            session.getOrderId(), sim.getPhoneNumber(), session.getAccountId());
-                } catch (Exception e) {
-                    log.error("❌ Error calling refund API for orderId={}", session.getOrderId(), e);
-                }
+                refund = true;
+                log.info("🔄 Auto refund orderId={} (SIM={}, acc={}) vì hết hạn không nhận được OTP",
+                        session.getOrderId(), sim.getPhoneNumber(), session.getAccountId());
             } else {
                 log.info("✅ Order {} đã có OTP, không cần refund", session.getOrderId());
             }
@@ -124,13 +163,158 @@ public class GsmListenerService {
             log.debug("🧪 [TEST MODE] Skip refund check cho orderId={}", session.getOrderId());
         }
 
+        // REFUND_PENDING phải vào store trước khi gửi callback: ack về nhanh thì markStatus(REFUNDED)
+        // sửa đúng bản này, không bị REFUND_PENDING ghi sau đè lại
+        persistSession(sim, session, refund ? RentalStatus.REFUND_PENDING : RentalStatus.COMPLETED);
+        if (refund) orderCallbackDispatcher.dispatch(session.getOrderId(), OrderCallbackAction.REFUND);
+        activeSessions.computeIfPresent(sim.getId(), (k, list) -> {
+            list.remove(session);
+            return list.isEmpty() ? null : list;
+        });
         stopWorkerIfNoActiveSession(sim);
     }
 
+    // === Khôi phục session sau khi restart ===
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverSessions() {
+        scheduler.execute(this::doRecoverSessions);
+    }
+
+    void doRecoverSessions() {
+        long start = System.nanoTime();
+        String deviceName = HostUtils.getDeviceName();
+        List<RentalSession> stored;
+        try {
+            stored = rentalSessionRepository.findByDeviceNameAndStatus(deviceName, RentalStatus.ACTIVE.name());
+        } catch (Exception e) {
+            log.error("❌ Không load được rent sessions để khôi phục: {}", e.getMessage());
+            return;
+        }
+
+        // 1. nạp mọi session (kể cả đã quá hạn) để SMS trong journal còn match được
+        Map<RentSession, Sim> recovered = new LinkedHashMap<>();
+        for (RentalSession r : stored) {
+            try {
+                Sim sim = Sim.builder()
+                        .id(r.getSimId())
+                        .comName(r.getComName())
+                        .phoneNumber(r.getPhoneNumber())
+                        .deviceName(r.getDeviceName())
+                        .build();
+                RentSession session = new RentSession(r.getAccountId(), r.getServices(), r.getStartTime(),
+                        r.getDurationMinutes(), Country.builder().countryCode(r.getCountryCode()).build(),
+                        r.getOrderId(), OtpSessionType.fromString(r.getServiceType()), r.isOtpReceived(),
+                        r.getServiceType());
+                orderDedupIndex.remember(r.getOrderId());
+                activeSessions.computeIfAbsent(sim.getId(), k -> new CopyOnWriteArrayList<>()).add(session);
+                recovered.put(session, sim);
+            } catch (Exception e) {
+                log.error("❌ Lỗi khôi phục session orderId={}: {}", r.getOrderId(), e.getMessage(), e);
+            }
+        }
+
+        // 2. SMS đã xoá khỏi SIM nhưng chưa xử lý xong trước khi crash
+        int replayed = reprocessJournal();
+
+        // 3. refund session quá hạn (sau khi journal có thể đã đánh dấu OTP), chạy lại worker cho session còn hạn
+        int resumed = 0, overdue = 0;
+        for (Map.Entry<RentSession, Sim> e : recovered.entrySet()) {
+            RentSession session = e.getKey();
+            Sim sim = e.getValue();
+            try {
+                if (!session.isActive()) {
+                    overdue++;
+                    checkAndRefund(sim, session);
+                    continue;
+                }
+                startWorkerForSim(sim);
+                long delayMs = Duration.between(Instant.now(), session.expiresAt()).toMillis();
+                scheduler.schedule(() -> checkAndRefund(sim, session), delayMs, TimeUnit.MILLISECONDS);
+                resumed++;
+            } catch (Exception ex) {
+                log.error("❌ Lỗi khôi phục session orderId={}: {}", session.getOrderId(), ex.getMessage(), ex);
+            }
+        }
+
+        log.info("♻️ Recovered rent sessions for {}: resumed={} overdue={} journalSms={} in {} ms",
+                deviceName, resumed, overdue, replayed, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /** Chạy lại processSms cho các entry journal chưa xử lý xong, theo thứ tự nhận */
+    private int reprocessJournal() {
+        List<SmsJournal.Pending> pending = smsJournal.unprocessed();
+        if (pending.isEmpty()) return 0;
+
+        Map<String, Sim> sims = new LinkedHashMap<>();
+        Map<String, ConcatReassembler> reassemblers = new HashMap<>();
+        int processed = 0;
+        for (SmsJournal.Pending p : pending) {
+            SmsJournal.Entry e = p.entry();
+            Sim sim = sims.computeIfAbsent(e.comPort(), com -> Sim.builder()
+                    .id(e.simId())
+                    .comName(com)
+                    .phoneNumber(e.simPhone())
+                    .deviceName(HostUtils.getDeviceName())
+                    .build());
+            AtCommandHelper.SmsRecord rec = new AtCommandHelper.SmsRecord();
+            rec.sender = e.sender();
+            rec.body = e.body();
+            rec.timestamp = e.modemTimestamp();
+            rec.concatRef = e.concatRef();
+            rec.concatTotal = e.concatTotal();
+            rec.concatSeq = e.concatSeq();
+            rec.journalPositions = List.of(p.position());
+            rec.receivedAt = e.receivedAt();
+            rec.replayed = true;
+
+            AtCommandHelper.SmsRecord complete = reassemblers
+                    .computeIfAbsent(e.comPort(), com -> new ConcatReassembler(concatTimeoutMs, Integer.MAX_VALUE))
+                    .offer(rec);
+            if (complete != null && reprocessSafely(sim, complete)) processed++;
+        }
+        // phần thiếu không còn về nữa (đã xoá khỏi SIM): lưu phần đã có, không match OTP
+        for (Map.Entry<String, ConcatReassembler> e : reassemblers.entrySet()) {
+            for (AtCommandHelper.SmsRecord partial : e.getValue().drainAll()) {
+                if (reprocessSafely(sims.get(e.getKey()), partial)) processed++;
+            }
+        }
+        return processed;
+    }
+
+    private boolean reprocessSafely(Sim sim, AtCommandHelper.SmsRecord rec) {
+        try {
+            processSms(sim, rec);
+            rec.journalPositions.forEach(smsJournal::markProcessed);
+            return true;
+        } catch (Exception e) {
+            log.error("❌ Xử lý lại SMS từ journal lỗi on {}: {}", sim.getComName(), e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private void persistSession(Sim sim, RentSession s, RentalStatus status) {
+        rentSessionStore.save(RentalSession.builder()
+                .orderId(s.getOrderId())
+                .simId(sim.getId())
+                .deviceName(sim.getDeviceName())
+                .comName(sim.getComName())
+                .phoneNumber(sim.getPhoneNumber())
+                .accountId(s.getAccountId())
+                .services(s.getServices())
+                .countryCode(s.getCountry() != null ? s.getCountry().getCountryCode() : null)
+                .serviceType(s.getServiceType())
+                .startTime(s.getStartTime())
+                .durationMinutes(s.getDurationMinutes())
+                .otpReceived(s.isOtpReceived())
+                .status(status.name())
+                .build());
+    }
+
     // === Worker cho SIM ===
     private void startWorkerForSim(Sim sim) {
         workers.computeIfAbsent(sim.getComName(), com -> {
-            PortWorker worker = new PortWorker(sim, 4000, this);
+            PortWorker worker = new PortWorker(sim, 4000, this, smsJournal, smsOutboxService, pduMode,
+                    new ConcatReassembler(concatTimeoutMs, concatMaxPending));
             new Thread(worker, "PortWorker-" + com).start();
             return worker;
         });
@@ -146,8 +330,28 @@ public class GsmListenerService {
         }
     }
 
+    /** Worker đang chạy theo COM, dùng cho heartbeat */
+    public Map<String, PortWorker> getWorkers() {
+        return Collections.unmodifiableMap(workers);
+    }
+
+    public int getActiveRentalCount() {
+        return activeSessions.values().stream()
+                .mapToInt(list -> (int) list.stream().filter(RentSession::isActive).count())
+                .sum();
+    }
+
     // === Xử lý SMS nhận về ===
     public void processSms(Sim sim, AtCommandHelper.SmsRecord rec) {
+        simUpdatePublisher.publishSms(new SmsResponse(sim.getComName(), sim.getPhoneNumber(),
+                rec.sender, rec.timestamp, rec.body));
+
+        if (rec.incomplete) {
+            // thiếu phần: OTP có thể bị cắt hoặc nằm ở phần chưa về, forward sẽ sai
+            storePartialSms(sim, rec);
+            return;
+        }
+
         List<RentSession> sessions = new ArrayList<>(activeSessions.getOrDefault(sim.getId(), List.of()));
         if (sessions.isEmpty()) return;
 
@@ -157,8 +361,10 @@ public class GsmListenerService {
 
         boolean matched = false;
 
+        // xử lý lại từ journal: session tính theo thời điểm SMS về, không phải lúc restart
+        Instant at = rec.receivedAt != null ? rec.receivedAt : Instant.now();
         for (RentSession s : sessions) {
-            if (!s.isActive()) continue;
+            if (!s.isActiveAt(at)) continue;
             for (String service : s.getServices()) {
                 String serviceNorm = normalize(service);
                 String servicePrefix = serviceNorm.substring(0, Math.min(4, serviceNorm.length()));
@@ -170,7 +376,7 @@ public class GsmListenerService {
         }
 
         if (!matched) {
-            RentSession first = sessions.stream().filter(RentSession::isActive).findFirst().orElse(null);
+            RentSession first = sessions.stream().filter(s -> s.isActiveAt(at)).findFirst().orElse(null);
             if (first != null) {
                 handleOtpReceived(sim, first, first.getServices().isEmpty() ? "UNKNOWN" : first.getServices().get(0), rec, otp);
             }
@@ -179,15 +385,22 @@ public class GsmListenerService {
 
     // === Xử lý khi nhận OTP ===
     private void handleOtpReceived(Sim sim, RentSession s, String service, AtCommandHelper.SmsRecord rec, String otp) {
+        long receivedAt = System.currentTimeMillis();
         // Chỉ check isOtpReceived khi không phải test mode
-        if (!testMode && s.isOtpReceived()) {
+        if (!testMode && s.isOtpReceived() && !rec.replayed) {
             log.info("⚠️ Order {} đã được cập nhật SUCCESS trước đó, bỏ qua OTP mới", s.getOrderId());
             return;
         }
 
-        String resolvedServiceCode = serviceRepository.findByCode(service)
-                .map(svc -> svc.getCode())
-                .orElse(service);
+        String resolvedServiceCode = service;
+        try {
+            resolvedServiceCode = serviceRepository.findByCode(service)
+                    .map(svc -> svc.getCode())
+                    .orElse(service);
+        } catch (Exception e) {
+            // Mongo lỗi không được chặn việc forward OTP
+            log.warn("⚠️ Không resolve được serviceCode {}: {}", service, e.getMessage());
+        }
 
         SmsMessage sms = SmsMessage.builder()
                 .orderId(s.getOrderId())
@@ -203,75 +416,85 @@ public class GsmListenerService {
                 .modemResponse("OK")
                 .type("INBOX")
                 .serviceType(s.getServiceType())
-                .timestamp(Instant.now())
+                .timestamp(rec.receivedAt != null ? rec.receivedAt : Instant.now())
                 .build();
+        // id theo vị trí journal: xử lý lại sau restart chỉ upsert đè, không tạo bản ghi trùng
+        if (rec.journalPositions != null && !rec.journalPositions.isEmpty()) {
+            sms.setId(journalSmsId(sim.getDeviceName(), rec.journalPositions.get(0), s.getOrderId()));
+        }
 
-        smsMessageRepository.save(sms);
+        // ghi DB bất đồng bộ, không để forward OTP phải chờ Atlas
+        smsMessageWriter.write(sms);
 
-        log.info("💾 Saved SMS to DB orderId={} simPhone={} otp={} duration={}m",
+        log.info("💾 Queued SMS for DB orderId={} simPhone={} otp={} duration={}m",
                 sms.getOrderId(), sms.getSimPhone(), otp, sms.getDurationMinutes());
 
+        if (!testMode && s.isOtpReceived()) {
+            // rec.replayed: xử lý lại từ journal: order đã SUCCESS trước crash, chỉ cần chắc SMS đã nằm trong DB
+            log.info("♻️ Order {} đã SUCCESS trước restart, chỉ ghi lại SMS từ journal", s.getOrderId());
+            return;
+        }
+
         if (!testMode) {
-            try {
-                callUpdateSuccessApi(s.getOrderId());
-                s.setOtpReceived(true);
-            } catch (Exception e) {
-                log.error("❌ Error calling update success API for orderId={}", s.getOrderId(), e);
-            }
+            orderCallbackDispatcher.dispatch(s.getOrderId(), OrderCallbackAction.SUCCESS);
+            s.setOtpReceived(true);
+            persistSession(sim, s, RentalStatus.ACTIVE);
         } else {
             log.debug("🧪 [TEST MODE] Skip callUpdateSuccessApi & otpReceived flag cho orderId={}", s.getOrderId());
         }
 
         // Forward OTP qua socket
-        Map<String, Object> wsMessage = new HashMap<>();
-        wsMessage.put("deviceName", sim.getDeviceName());
-        wsMessage.put("phoneNumber", sim.getPhoneNumber());
-        wsMessage.put("comNumber", sim.getComName());
-        wsMessage.put("customerId", s.getAccountId());
-        wsMessage.put("serviceCode", resolvedServiceCode);
-        wsMessage.put("countryName", s.getCountry().getCountryCode());
-        wsMessage.put("smsContent", rec.body);
-        wsMessage.put("fromNumber", rec.sender);
-        wsMessage.put("otp", otp);
-
-        StompSession stompSession = remoteStompClientConfig.getSession();
-        if (stompSession != null && stompSession.isConnected()) {
-            stompSession.send("/topic/receive-otp", wsMessage);
+        OtpEvent event = OtpEvent.builder()
+                .deviceName(sim.getDeviceName())
+                .phoneNumber(sim.getPhoneNumber())
+                .comNumber(sim.getComName())
+                .customerId(s.getAccountId())
+                .serviceCode(resolvedServiceCode)
+                .countryName(s.getCountry().getCountryCode())
+                .smsContent(rec.body)
+                .fromNumber(rec.sender)
+                .otp(otp)
+                .receivedAt(receivedAt)
+                .build();
+
+        if (otpForwardOutbox.forward(event)) {
             log.info("📤 Forward OTP [{}] for acc={} service={} -> remote", otp, s.getAccountId(), service);
-        } else {
-            log.warn("⚠️ Remote not connected, cannot forward OTP (service={}, otp={})", service, otp);
         }
     }
 
-    // === Schedule check để auto refund nếu hết hạn mà không có OTP ===
-    private void scheduleRefundCheck(RentSession session) {
-        scheduler.schedule(() -> {
-            if (session.isActive()) return;
-            if (!testMode) {
-                boolean hasOtp = smsMessageRepository.existsByOrderId(session.getOrderId());
-                if (!hasOtp) {
-                    try {
-                        callUpdateRefundApi(session.getOrderId());
-                        log.info("🔄 Auto refund orderId={} vì hết hạn không nhận được OTP", session.getOrderId());
-                    } catch (Exception e) {
-                        log.error("❌ Error calling refund API for orderId={}", session.getOrderId(), e);
-                    }
-                }
-            } else {
-                log.debug("🧪 [TEST MODE] Skip auto refund check cho orderId={}", session.getOrderId());
-            }
-        }, session.getDurationMinutes(), TimeUnit.MINUTES);
-    }
-
-    // === Call API update success/refund ===
-    private void callUpdateSuccessApi(String orderId) {
-        String url = orderApiBaseUrl + "api/otp/order/" + orderId + "/success";
-        restTemplate.postForEntity(url, null, Void.class);
+    /**
+     * Lưu tin nhiều phần ghép dở, không gắn order: existsByOrderId không coi là đã có OTP nên order
+     * vẫn được refund nếu tin đủ không về.
+     */
+    private void storePartialSms(Sim sim, AtCommandHelper.SmsRecord rec) {
+        SmsMessage sms = SmsMessage.builder()
+                .deviceName(sim.getDeviceName())
+                .comPort(sim.getComName())
+                .simPhone(sim.getPhoneNumber())
+                .fromNumber(rec.sender)
+                .toNumber(sim.getPhoneNumber())
+                .content(rec.body)
+                .modemResponse("OK")
+                .type("INBOX_PARTIAL")
+                .timestamp(rec.receivedAt != null ? rec.receivedAt : Instant.now())
+                .build();
+        if (rec.journalPositions != null && !rec.journalPositions.isEmpty()) {
+            sms.setId(journalSmsId(sim.getDeviceName(), rec.journalPositions.get(0), "INBOX_PARTIAL"));
+        }
+        smsMessageWriter.write(sms);
+        log.warn("🧩 Lưu SMS thiếu phần từ {} on {} (ref={}), bỏ qua match OTP",
+                rec.sender, sim.getComName(), rec.concatRef);
     }
 
-    private void callUpdateRefundApi(String orderId) {
-        String url = orderApiBaseUrl + "api/otp/order/" + orderId + "/refund";
-        restTemplate.postForEntity(url, null, Void.class);
+    /** ObjectId cố định cho SMS lấy từ journal: 12 byte đầu MD5(device:position:orderId) */
+    static String journalSmsId(String deviceName, long journalPosition, String orderId) {
+        try {
+            byte[] md5 = MessageDigest.getInstance("MD5")
+                    .digest((deviceName + ":" + journalPosition + ":" + orderId).getBytes(StandardCharsets.UTF_8));
+            return new ObjectId(Arrays.copyOf(md5, 12)).toHexString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     // === Utils ===
@@ -315,7 +538,15 @@ public class GsmListenerService {
         private String serviceType;
 
         boolean isActive() {
-            return Instant.now().isBefore(startTime.plus(Duration.ofMinutes(durationMinutes)));
+            return isActiveAt(Instant.now());
+        }
+
+        boolean isActiveAt(Instant at) {
+            return at.isBefore(expiresAt());
+        }
+
+        Instant expiresAt() {
+            return startTime.plus(Duration.ofMinutes(durationMinutes));
         }
     }
 }
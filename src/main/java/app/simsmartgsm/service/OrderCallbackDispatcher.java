@@ -0,0 +1,401 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.dto.request.OrderStatusBatchRequest;
+import app.simsmartgsm.dto.response.OrderStatusBatchResponse;
+import app.simsmartgsm.entity.OrderCallback;
+import app.simsmartgsm.repository.OrderCallbackRepository;
+import app.simsmartgsm.uitils.HostUtils;
+import app.simsmartgsm.uitils.OrderCallbackAction;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Gọi callback success/refund sang order API ngoài thread modem/scheduler.
+ * Mỗi callback được ghi vào order_callbacks trước khi vào hàng đợi và chỉ xoá khi order API
+ * xác nhận, nên crash giữa chừng thì poller retry gửi lại (cùng Idempotency-Key).
+ * Số request đồng thời bị giới hạn; lần gọi lỗi được retry với backoff.
+ * Khi bật gsm.order-api.batch.enabled, các callback trong cùng cửa sổ thời gian/kích thước
+ * được gom thành 1 request tới batch endpoint; lần retry vẫn đi từng order.
+ */
+@Service
+@Slf4j
+public class OrderCallbackDispatcher {
+
+    static final String STATUS_PENDING = "PENDING";
+    static final String STATUS_FAILED = "FAILED";
+
+    private final RestTemplate restTemplate;
+    private final OrderCallbackRepository callbackRepository;
+    private final MeterRegistry registry;
+    private final String orderApiBaseUrl;
+    private final int maxAttempts;
+    private final long backoffBaseMs;
+    private final long backoffMaxMs;
+    private final String deviceName = HostUtils.getDeviceName();
+
+    private final ThreadPoolExecutor executor;
+    /** Các callback đang nằm trong executor, tránh poller submit trùng */
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final AtomicLong pendingRetries = new AtomicLong();
+    /** Gọi khi order API đã xác nhận 1 callback */
+    private final List<BiConsumer<String, OrderCallbackAction>> ackListeners = new CopyOnWriteArrayList<>();
+
+    /** Ghi order_callbacks trước khi enqueue, chạy riêng để thread gọi không chờ Mongo */
+    private final ExecutorService store = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "order-callback-store");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @Value("${gsm.order-api.batch.enabled:false}")
+    private boolean batchEnabled;
+    @Value("${gsm.order-api.batch.path:api/otp/order/batch}")
+    private String batchPath;
+    @Value("${gsm.order-api.batch.max-size:50}")
+    private int batchMaxSize = 50;
+    @Value("${gsm.order-api.batch.window-ms:200}")
+    private long batchWindowMs = 200;
+
+    private final BlockingQueue<OrderCallback> batchBuffer = new LinkedBlockingQueue<>();
+    private final AtomicBoolean batchFlushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService batchTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "order-callback-batch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public OrderCallbackDispatcher(RestTemplate restTemplate,
+                                   OrderCallbackRepository callbackRepository,
+                                   MeterRegistry registry,
+                                   @Value("${gsm.order-api.base-url}") String orderApiBaseUrl,
+                                   @Value("${gsm.order-api.callback.concurrency:4}") int concurrency,
+                                   @Value("${gsm.order-api.callback.queue-capacity:1000}") int queueCapacity,
+                                   @Value("${gsm.order-api.callback.max-attempts:10}") int maxAttempts,
+                                   @Value("${gsm.order-api.callback.backoff-base-ms:2000}") long backoffBaseMs,
+                                   @Value("${gsm.order-api.callback.backoff-max-ms:300000}") long backoffMaxMs) {
+        this.restTemplate = restTemplate;
+        this.callbackRepository = callbackRepository;
+        this.registry = registry;
+        this.orderApiBaseUrl = orderApiBaseUrl;
+        this.maxAttempts = maxAttempts;
+        this.backoffBaseMs = backoffBaseMs;
+        this.backoffMaxMs = backoffMaxMs;
+
+        AtomicInteger seq = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "order-callback-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                // queue đầy: chưa gọi HTTP nên không tính là 1 lần thử, để poller gửi lại
+                (r, ex) -> pendingOf(r).forEach(c -> defer(c, "dispatch queue full")));
+
+        registry.gauge("gsm.order.callback.queue", executor, e -> e.getQueue().size());
+        registry.gauge("gsm.order.callback.retry.pending", pendingRetries);
+    }
+
+    /** Gửi callback bất đồng bộ, trả về ngay */
+    public void dispatch(String orderId, OrderCallbackAction action) {
+        Instant now = Instant.now();
+        OrderCallback callback = OrderCallback.builder()
+                .id(idempotencyKey(orderId, action))
+                .orderId(orderId)
+                .action(action.name())
+                .deviceName(deviceName)
+                .status(STATUS_PENDING)
+                .attempts(0)
+                .createdAt(now)
+                // lease: process chết trước khi gửi xong thì poller gửi lại sau khoảng này
+                .nextAttemptAt(now.plusMillis(backoffMaxMs))
+                .build();
+        if (!inFlight.add(callback.getId())) return;
+        store.execute(() -> {
+            try {
+                callbackRepository.save(callback);
+            } catch (Exception e) {
+                log.warn("⚠️ Không lưu được order callback {} trước khi gửi: {}", callback.getId(), e.getMessage());
+            }
+            if (batchEnabled) {
+                enqueueBatch(callback);
+            } else {
+                executor.execute(new CallbackTask(callback));
+            }
+        });
+    }
+
+    /** Đăng ký nhận thông báo khi order API đã xác nhận callback (orderId, action) */
+    public void addAckListener(BiConsumer<String, OrderCallbackAction> listener) {
+        ackListeners.add(listener);
+    }
+
+    /** Lấy các callback đến hạn retry trong store */
+    @Scheduled(fixedDelayString = "${gsm.order-api.callback.retry-poll-ms:5000}")
+    public void retryDue() {
+        try {
+            List<OrderCallback> due = callbackRepository
+                    .findTop100ByDeviceNameAndStatusAndNextAttemptAtLessThanEqualOrderByNextAttemptAtAsc(
+                            deviceName, STATUS_PENDING, Instant.now());
+            due.forEach(this::submit);
+            pendingRetries.set(callbackRepository.countByDeviceNameAndStatus(deviceName, STATUS_PENDING));
+        } catch (Exception e) {
+            log.warn("⚠️ Không load được order callbacks để retry: {}", e.getMessage());
+        }
+    }
+
+    private void submit(OrderCallback callback) {
+        if (!inFlight.add(callback.getId())) return;
+        executor.execute(new CallbackTask(callback));
+    }
+
+    // === Batch mode ===
+    private void enqueueBatch(OrderCallback callback) {
+        batchBuffer.add(callback);
+        if (batchBuffer.size() >= batchMaxSize) {
+            flushBatches();
+        } else if (batchFlushScheduled.compareAndSet(false, true)) {
+            batchTimer.schedule(() -> {
+                batchFlushScheduled.set(false);
+                flushBatches();
+            }, batchWindowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushBatches() {
+        while (!batchBuffer.isEmpty()) {
+            List<OrderCallback> batch = new ArrayList<>(batchMaxSize);
+            batchBuffer.drainTo(batch, batchMaxSize);
+            if (batch.isEmpty()) return;
+            executor.execute(new BatchTask(batch));
+        }
+    }
+
+    private void attemptBatch(List<OrderCallback> batch) {
+        List<OrderStatusBatchRequest.Item> items = batch.stream()
+                .map(c -> new OrderStatusBatchRequest.Item(c.getOrderId(),
+                        OrderCallbackAction.valueOf(c.getAction()).getPath(), c.getId()))
+                .toList();
+
+        long start = System.nanoTime();
+        String outcome = "success";
+        try {
+            OrderStatusBatchResponse resp = restTemplate.postForObject(orderApiBaseUrl + batchPath,
+                    new OrderStatusBatchRequest(deviceName, items), OrderStatusBatchResponse.class);
+
+            Map<String, OrderStatusBatchResponse.Result> results = new HashMap<>();
+            if (resp != null && resp.getResults() != null) {
+                resp.getResults().forEach(r -> results.put(r.getIdempotencyKey(), r));
+            }
+
+            int ok = 0;
+            for (OrderCallback c : batch) {
+                OrderStatusBatchResponse.Result r = results.get(c.getId());
+                if (r != null && r.isSuccess()) {
+                    ok++;
+                    acknowledged(c);
+                } else {
+                    outcome = "partial";
+                    persistForRetry(c, r != null ? r.getError() : "missing in batch response");
+                }
+            }
+            log.info("✅ Order callback batch {} items, {} ok", batch.size(), ok);
+        } catch (Exception e) {
+            outcome = "retry";
+            log.warn("⚠️ Order callback batch {} items lỗi: {}", batch.size(), e.getMessage());
+            batch.forEach(c -> persistForRetry(c, e.getMessage()));
+        } finally {
+            Timer.builder("gsm.order.callback.latency")
+                    .tag("action", "BATCH")
+                    .tag("outcome", outcome)
+                    .register(registry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            registry.summary("gsm.order.callback.batch.size").record(batch.size());
+        }
+    }
+
+    private static List<OrderCallback> pendingOf(Runnable r) {
+        if (r instanceof CallbackTask t) return List.of(t.callback);
+        if (r instanceof BatchTask t) return t.batch;
+        return List.of();
+    }
+
+    private void attempt(OrderCallback callback) {
+        OrderCallbackAction action = OrderCallbackAction.valueOf(callback.getAction());
+        String url = orderApiBaseUrl + "api/otp/order/" + callback.getOrderId() + "/" + action.getPath();
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Idempotency-Key", callback.getId());
+
+        long start = System.nanoTime();
+        String outcome = "success";
+        try {
+            restTemplate.postForEntity(url, new HttpEntity<>(null, headers), Void.class);
+            log.info("✅ Order callback {} orderId={} (attempt {})",
+                    action, callback.getOrderId(), callback.getAttempts() + 1);
+            acknowledged(callback);
+        } catch (HttpClientErrorException e) {
+            if (e.getStatusCode().value() == 408 || e.getStatusCode().value() == 429) {
+                outcome = "retry";
+                persistForRetry(callback, e.getMessage());
+            } else {
+                // 4xx khác: request sai, retry cũng không thay đổi kết quả
+                outcome = "rejected";
+                callback.setAttempts(callback.getAttempts() + 1);
+                markFailed(callback, e.getMessage());
+            }
+        } catch (Exception e) {
+            outcome = "retry";
+            persistForRetry(callback, e.getMessage());
+        } finally {
+            Timer.builder("gsm.order.callback.latency")
+                    .tag("action", action.name())
+                    .tag("outcome", outcome)
+                    .register(registry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void acknowledged(OrderCallback callback) {
+        try {
+            callbackRepository.deleteById(callback.getId());
+        } catch (Exception e) {
+            // bản ghi còn lại chỉ làm poller gửi lại 1 lần, order API bỏ qua nhờ Idempotency-Key
+            log.warn("⚠️ Không xoá được order callback {}: {}", callback.getId(), e.getMessage());
+        }
+        OrderCallbackAction action = OrderCallbackAction.valueOf(callback.getAction());
+        for (BiConsumer<String, OrderCallbackAction> listener : ackListeners) {
+            try {
+                listener.accept(callback.getOrderId(), action);
+            } catch (Exception e) {
+                log.warn("⚠️ Ack listener lỗi cho {}: {}", callback.getId(), e.getMessage());
+            }
+        }
+    }
+
+    /** Chưa gọi HTTP (queue đầy, shutdown): lưu lại cho poller, không tăng attempts */
+    private void defer(OrderCallback callback, String reason) {
+        inFlight.remove(callback.getId());
+        callback.setStatus(STATUS_PENDING);
+        callback.setLastError(reason);
+        callback.setNextAttemptAt(Instant.now().plusMillis(backoffBaseMs));
+        callback.setUpdatedAt(Instant.now());
+        registry.counter("gsm.order.callback.deferred").increment();
+        log.warn("⏸️ Order callback {} orderId={} chưa gửi được ({}), để poller gửi lại",
+                callback.getAction(), callback.getOrderId(), reason);
+        try {
+            callbackRepository.save(callback);
+        } catch (Exception e) {
+            log.error("❌ Không lưu được order callback {} để retry: {}", callback.getId(), e.getMessage());
+        }
+    }
+
+    private void persistForRetry(OrderCallback callback, String error) {
+        inFlight.remove(callback.getId());
+        int attempts = callback.getAttempts() + 1;
+        callback.setAttempts(attempts);
+        if (attempts >= maxAttempts) {
+            markFailed(callback, error);
+            return;
+        }
+
+        long delay = Math.min(backoffMaxMs, backoffBaseMs << Math.min(attempts - 1, 20));
+        delay += ThreadLocalRandom.current().nextLong(delay / 5 + 1); // jitter
+        callback.setStatus(STATUS_PENDING);
+        callback.setLastError(error);
+        callback.setNextAttemptAt(Instant.now().plusMillis(delay));
+        callback.setUpdatedAt(Instant.now());
+        log.warn("⚠️ Order callback {} orderId={} lỗi (lần {}), retry sau {} ms: {}",
+                callback.getAction(), callback.getOrderId(), attempts, delay, error);
+        try {
+            callbackRepository.save(callback);
+        } catch (Exception e) {
+            log.error("❌ Không lưu được order callback {} để retry: {}", callback.getId(), e.getMessage());
+        }
+    }
+
+    private void markFailed(OrderCallback callback, String error) {
+        inFlight.remove(callback.getId());
+        callback.setStatus(STATUS_FAILED);
+        callback.setLastError(error);
+        callback.setUpdatedAt(Instant.now());
+        registry.counter("gsm.order.callback.failed", "action", callback.getAction()).increment();
+        log.error("❌ Order callback {} orderId={} thất bại sau {} lần: {}",
+                callback.getAction(), callback.getOrderId(), callback.getAttempts(), error);
+        try {
+            callbackRepository.save(callback);
+        } catch (Exception e) {
+            log.error("❌ Không lưu được order callback {}: {}", callback.getId(), e.getMessage());
+        }
+    }
+
+    static String idempotencyKey(String orderId, OrderCallbackAction action) {
+        return orderId + ":" + action.name();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        store.shutdown();
+        store.awaitTermination(5, TimeUnit.SECONDS);
+        batchTimer.shutdownNow();
+        flushBatches();
+        executor.shutdown();
+        if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+            // callback chưa kịp gửi: lưu lại để lần chạy sau retry
+            for (Runnable r : executor.shutdownNow()) {
+                pendingOf(r).forEach(c -> defer(c, "shutdown"));
+            }
+        }
+    }
+
+    private class CallbackTask implements Runnable {
+        private final OrderCallback callback;
+
+        CallbackTask(OrderCallback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            try {
+                attempt(callback);
+            } finally {
+                inFlight.remove(callback.getId());
+            }
+        }
+    }
+
+    private class BatchTask implements Runnable {
+        private final List<OrderCallback> batch;
+
+        BatchTask(List<OrderCallback> batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void run() {
+            try {
+                attemptBatch(batch);
+            } finally {
+                batch.forEach(c -> inFlight.remove(c.getId()));
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package app.simsmartgsm.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Chặn rent request trùng orderId (broker redeliver / backend retry).
+ * LRU có giới hạn số phần tử, mỗi orderId chỉ được giữ trong cửa sổ TTL.
+ */
+@Component
+@Slf4j
+public class OrderDedupIndex {
+
+    private final int maxEntries;
+    private final long ttlMs;
+    private final Counter accepted;
+    private final Counter dropped;
+
+    /** orderId -> thời điểm nhận lần đầu (ms), thứ tự chèn = thứ tự thời gian */
+    private final LinkedHashMap<String, Long> seen = new LinkedHashMap<>();
+
+    public OrderDedupIndex(MeterRegistry registry,
+                           @Value("${gsm.rent-dedup.max-entries:10000}") int maxEntries,
+                           @Value("${gsm.rent-dedup.ttl-minutes:120}") long ttlMinutes) {
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMinutes * 60_000L;
+        this.accepted = registry.counter("gsm.rent.dedup", "result", "accepted");
+        this.dropped = registry.counter("gsm.rent.dedup", "result", "dropped");
+        registry.gauge("gsm.rent.dedup.size", this, OrderDedupIndex::size);
+    }
+
+    /**
+     * @return true nếu orderId chưa thấy trong cửa sổ TTL (và đánh dấu đã thấy), false nếu là bản trùng
+     */
+    public boolean tryAcquire(String orderId) {
+        if (orderId == null) return true;
+        long now = System.currentTimeMillis();
+        synchronized (seen) {
+            evictExpired(now);
+            if (seen.containsKey(orderId)) {
+                dropped.increment();
+                return false;
+            }
+            seen.put(orderId, now);
+            if (seen.size() > maxEntries) {
+                Iterator<String> it = seen.keySet().iterator();
+                it.next();
+                it.remove();
+            }
+        }
+        accepted.increment();
+        return true;
+    }
+
+    /** Dùng khi khôi phục session: đánh dấu orderId đã có mà không tính metric */
+    public void remember(String orderId) {
+        if (orderId == null) return;
+        synchronized (seen) {
+            seen.putIfAbsent(orderId, System.currentTimeMillis());
+        }
+    }
+
+    public int size() {
+        synchronized (seen) {
+            return seen.size();
+        }
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Map.Entry<String, Long>> it = seen.entrySet().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().getValue() < ttlMs) break;
+            it.remove();
+        }
+    }
+}
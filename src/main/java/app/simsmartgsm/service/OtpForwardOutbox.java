@@ -0,0 +1,313 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.config.BrokerCodec;
+import app.simsmartgsm.config.BrokerSessionManager;
+import app.simsmartgsm.dto.response.OtpEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Store-and-forward cho OTP gửi lên /topic/receive-otp: broker mất kết nối thì event được giữ
+ * trong outbox có giới hạn (đồng thời ghi nối ra file, compact định kỳ), khi nối lại thì replay đúng thứ tự
+ * theo từng chunk (1 frame batch/chunk nếu server đã thoả thuận otp-batch). Mỗi event mang
+ * receivedAt để đo độ trễ forward.
+ */
+@Service
+@Slf4j
+public class OtpForwardOutbox {
+
+    public static final String DESTINATION = "/topic/receive-otp";
+
+    private final BrokerSessionManager broker;
+    private final BrokerCodec codec;
+    private final MeterRegistry registry;
+    private final Timer forwardDelay;
+    private final ExecutorService drainer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "otp-outbox");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @Value("${gsm.otp-outbox.file:./data/otp-outbox.jsonl}")
+    private String outboxFile;
+    @Value("${gsm.otp-outbox.capacity:5000}")
+    private int capacity;
+    @Value("${gsm.otp-outbox.drain-batch-size:50}")
+    private int drainBatchSize;
+
+    @Value("${gsm.otp-outbox.compact-threshold:1000}")
+    private int compactThreshold;
+
+    /** Event chờ forward; seq tăng dần để drain và overflow chạy xen nhau vẫn xoá đúng event */
+    private record Item(long seq, OtpEvent event) {}
+
+    private final Deque<Item> pending = new ArrayDeque<>();
+    private long nextSeq = 1;
+    /** Độ trễ forward gần đây (EWMA, ms), -1 = chưa có */
+    private double recentDelayMs = -1;
+    private static final double EWMA_ALPHA = 0.2;
+
+    // --- file append-only (giữ fileLock, không giữ lock của outbox khi fsync) ---
+    private final Object fileLock = new Object();
+    private FileChannel channel;
+    private int fileLines;
+
+    public OtpForwardOutbox(BrokerSessionManager broker, BrokerCodec codec, MeterRegistry registry) {
+        this.broker = broker;
+        this.codec = codec;
+        this.registry = registry;
+        this.forwardDelay = Timer.builder("gsm.otp.forward.delay")
+                .description("Từ lúc nhận SMS tới lúc OTP được gửi lên broker")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        load();
+        compactIfNeeded();
+        registry.gauge("gsm.otp.outbox.size", pending, Deque::size);
+        broker.onConnected(session -> drainer.execute(this::drain));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        drainer.shutdownNow();
+        synchronized (fileLock) {
+            closeChannel();
+        }
+    }
+
+    /**
+     * Gửi OTP lên broker, không gửi được (hoặc còn backlog cũ) thì cất vào outbox để giữ thứ tự.
+     * Gửi nằm ngoài lock: broker chậm hay đứt không được chặn các PortWorker khác.
+     * @return true nếu đã gửi ngay
+     */
+    public boolean forward(OtpEvent event) {
+        boolean backlog;
+        synchronized (this) {
+            backlog = !pending.isEmpty();
+        }
+        if (!backlog && broker.send(DESTINATION, codec.encodeOtp(event))) {
+            recordDelay(event);
+            return true;
+        }
+        enqueue(event);
+        if (broker.isConnected()) drainer.execute(this::drain);
+        return false;
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /** Phòng trường hợp lỡ event connect: có kết nối mà outbox còn hàng thì drain */
+    @Scheduled(fixedDelayString = "${gsm.otp-outbox.drain-interval-ms:5000}")
+    public void drainIfConnected() {
+        if (broker.isConnected() && size() > 0) drainer.execute(this::drain);
+    }
+
+    /** Replay theo thứ tự, mỗi lần 1 chunk; lỗi giữa chừng thì giữ phần còn lại cho lần sau */
+    void drain() {
+        int sent = 0;
+        while (true) {
+            List<Item> chunk;
+            synchronized (this) {
+                if (pending.isEmpty()) break;
+                chunk = new ArrayList<>(Math.min(drainBatchSize, pending.size()));
+                Iterator<Item> it = pending.iterator();
+                while (it.hasNext() && chunk.size() < drainBatchSize) chunk.add(it.next());
+            }
+
+            List<OtpEvent> events = chunk.stream().map(Item::event).toList();
+            int delivered = sendChunk(events);
+            if (delivered > 0) {
+                long lastSeq = chunk.get(delivered - 1).seq();
+                synchronized (this) {
+                    // overflow có thể đã bỏ bớt đầu hàng trong lúc gửi: xoá theo seq, không theo số lượng
+                    while (!pending.isEmpty() && pending.peekFirst().seq() <= lastSeq) pending.pollFirst();
+                }
+                synchronized (fileLock) {
+                    appendLine(ACK_PREFIX + lastSeq, false);
+                }
+                events.subList(0, delivered).forEach(this::recordDelay);
+            }
+            sent += delivered;
+            if (delivered < chunk.size()) break;
+        }
+        compactIfNeeded();
+        if (sent > 0) log.info("📤 Replayed {} OTP từ outbox, còn {}", sent, size());
+    }
+
+    private int sendChunk(List<OtpEvent> chunk) {
+        if (chunk.size() > 1 && broker.isOtpBatchSupported()) {
+            StompHeaders headers = new StompHeaders();
+            headers.setDestination(DESTINATION);
+            headers.set(BrokerCodec.FORMAT_HEADER, BrokerCodec.FORMAT_BATCH);
+            return broker.send(headers, codec.encodeOtpBatch(chunk)) ? chunk.size() : 0;
+        }
+        int delivered = 0;
+        for (OtpEvent event : chunk) {
+            if (!broker.send(DESTINATION, codec.encodeOtp(event))) break;
+            delivered++;
+        }
+        return delivered;
+    }
+
+    private void enqueue(OtpEvent event) {
+        Item item;
+        Item dropped = null;
+        int size;
+        synchronized (this) {
+            if (pending.size() >= capacity) dropped = pending.pollFirst();
+            item = new Item(nextSeq++, event);
+            pending.addLast(item);
+            size = pending.size();
+        }
+        if (dropped != null) {
+            registry.counter("gsm.otp.outbox.dropped").increment();
+            log.warn("⚠️ OTP outbox đầy ({}), bỏ event cũ nhất otp={}", capacity, dropped.event().otp());
+        }
+        synchronized (fileLock) {
+            // event bị bỏ luôn là đầu hàng nên ack theo seq vẫn đúng
+            if (dropped != null) appendLine(ACK_PREFIX + dropped.seq(), false);
+            appendLine(item.seq() + "\t" + new String(codec.encodeOtp(event), StandardCharsets.UTF_8), true);
+        }
+        log.warn("📥 Broker chưa sẵn sàng, giữ OTP [{}] trong outbox ({} pending)", event.otp(), size);
+    }
+
+    private void recordDelay(OtpEvent event) {
+        if (event.receivedAt() != null) {
+            long delay = Math.max(0, System.currentTimeMillis() - event.receivedAt());
+            forwardDelay.record(Duration.ofMillis(delay));
+            synchronized (this) {
+                recentDelayMs = recentDelayMs < 0 ? delay : EWMA_ALPHA * delay + (1 - EWMA_ALPHA) * recentDelayMs;
+            }
+        }
+    }
+
+    public synchronized long getRecentDelayMs() {
+        return Math.round(recentDelayMs);
+    }
+
+    // ===== file append-only =====
+    // Mỗi dòng là "<seq>\t<json>" (event vào outbox) hoặc "ack\t<seq>" (mọi event seq <= đó đã xong);
+    // dòng JSON trơn là format cũ. File chỉ được ghi lại (compact) khi số dòng chết vượt ngưỡng.
+
+    private static final String ACK_PREFIX = "ack\t";
+
+    private void load() {
+        Path file = Paths.get(outboxFile);
+        if (!Files.exists(file)) return;
+        try {
+            TreeMap<Long, OtpEvent> events = new TreeMap<>();
+            long ack = 0, legacySeq = 0;
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                if (line.isBlank()) continue;
+                try {
+                    if (line.startsWith(ACK_PREFIX)) {
+                        ack = Math.max(ack, Long.parseLong(line.substring(ACK_PREFIX.length()).trim()));
+                    } else if (line.startsWith("{")) {
+                        events.put(++legacySeq, codec.decodeOtp(line));
+                    } else {
+                        int tab = line.indexOf('\t');
+                        events.put(Long.parseLong(line.substring(0, tab)), codec.decodeOtp(line.substring(tab + 1)));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    log.warn("⚠️ Bỏ dòng outbox hỏng: {}", e.getMessage());
+                }
+            }
+            if (!events.isEmpty()) nextSeq = events.lastKey() + 1;
+            nextSeq = Math.max(nextSeq, ack + 1);
+            events.tailMap(ack, false).forEach((seq, event) -> pending.addLast(new Item(seq, event)));
+            while (pending.size() > capacity) pending.pollFirst();
+            fileLines = lines.size();
+            if (!pending.isEmpty()) log.info("📦 Loaded {} OTP chưa forward từ {}", pending.size(), file);
+        } catch (IOException e) {
+            log.warn("⚠️ Không đọc được OTP outbox {}: {}", file, e.getMessage());
+        }
+    }
+
+    /** Ghi nối 1 dòng, gọi khi giữ fileLock; sync = fsync trước khi trả về */
+    private void appendLine(String line, boolean sync) {
+        try {
+            if (channel == null) {
+                Path file = Paths.get(outboxFile);
+                if (file.getParent() != null) Files.createDirectories(file.getParent());
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+            }
+            ByteBuffer buf = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) channel.write(buf);
+            if (sync) channel.force(false);
+            fileLines++;
+        } catch (IOException e) {
+            log.warn("⚠️ Không ghi được OTP outbox: {}", e.getMessage());
+            closeChannel();
+        }
+    }
+
+    /** Outbox rỗng thì xoá file, còn số dòng chết vượt ngưỡng thì ghi lại phần pending (tmp + atomic move) */
+    private void compactIfNeeded() {
+        synchronized (fileLock) {
+            List<Item> live;
+            synchronized (this) {
+                live = new ArrayList<>(pending);
+            }
+            if (!live.isEmpty() && fileLines - live.size() < compactThreshold) return;
+
+            closeChannel();
+            Path file = Paths.get(outboxFile);
+            try {
+                if (live.isEmpty()) {
+                    Files.deleteIfExists(file);
+                    fileLines = 0;
+                    return;
+                }
+                Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    for (Item item : live) {
+                        w.write(item.seq() + "\t" + new String(codec.encodeOtp(item.event()), StandardCharsets.UTF_8));
+                        w.newLine();
+                    }
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                fileLines = live.size();
+            } catch (IOException e) {
+                log.warn("⚠️ Không compact được OTP outbox: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void closeChannel() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        channel = null;
+    }
+}
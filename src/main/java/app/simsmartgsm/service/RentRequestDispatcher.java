@@ -0,0 +1,77 @@
+package app.simsmartgsm.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+/**
+ * Chuyển rent request ra khỏi thread inbound của STOMP client: mỗi stripe là 1 thread với
+ * queue có giới hạn, request cùng SIM luôn vào cùng stripe nên được xử lý đúng thứ tự.
+ * Queue đầy thì từ chối ngay (backpressure) thay vì chặn transport/heartbeat.
+ */
+@Service
+@Slf4j
+public class RentRequestDispatcher {
+
+    private final ThreadPoolExecutor[] stripes;
+    private final MeterRegistry registry;
+    private final Timer queueWait;
+    private final Timer processing;
+
+    public RentRequestDispatcher(MeterRegistry registry,
+                                 @Value("${gsm.rent-dispatch.stripes:8}") int stripeCount,
+                                 @Value("${gsm.rent-dispatch.queue-capacity:200}") int queueCapacity) {
+        this.registry = registry;
+        this.stripes = new ThreadPoolExecutor[Math.max(1, stripeCount)];
+        for (int i = 0; i < stripes.length; i++) {
+            String name = "rent-dispatch-" + i;
+            stripes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), r -> {
+                        Thread t = new Thread(r, name);
+                        t.setDaemon(true);
+                        return t;
+                    }, new ThreadPoolExecutor.AbortPolicy());
+        }
+        this.queueWait = Timer.builder("gsm.rent.dispatch.wait").register(registry);
+        this.processing = Timer.builder("gsm.rent.dispatch.process").register(registry);
+        registry.gauge("gsm.rent.dispatch.queue", stripes,
+                s -> Arrays.stream(s).mapToInt(e -> e.getQueue().size()).sum());
+    }
+
+    /**
+     * Đưa request vào stripe của SIM. Trả về false nếu stripe đang đầy (request bị từ chối).
+     */
+    public boolean submit(String simKey, Runnable task) {
+        long enqueuedAt = System.nanoTime();
+        ThreadPoolExecutor stripe = stripes[Math.floorMod(simKey == null ? 0 : simKey.hashCode(), stripes.length)];
+        try {
+            stripe.execute(() -> {
+                long start = System.nanoTime();
+                queueWait.record(start - enqueuedAt, TimeUnit.NANOSECONDS);
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("❌ Rent request {} lỗi: {}", simKey, e.getMessage(), e);
+                } finally {
+                    processing.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            registry.counter("gsm.rent.dispatch.rejected").increment();
+            log.warn("⛔ Rent dispatch queue đầy, từ chối request sim={}", simKey);
+            return false;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ThreadPoolExecutor stripe : stripes) stripe.shutdown();
+    }
+}
@@ -0,0 +1,134 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.entity.RentalSession;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ghi RentalSession xuống Mongo theo kiểu write-behind: gom các thay đổi theo orderId
+ * (lần ghi sau đè lần trước) rồi flush 1 bulk write định kỳ hoặc khi đủ batch.
+ * Thread gọi save() (PortWorker, STOMP) không bao giờ ghi Mongo: đủ batch thì chỉ báo cho flusher.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class RentSessionStore {
+
+    private final MongoTemplate mongoTemplate;
+
+    private final Map<String, RentalSession> dirty = new ConcurrentHashMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    /** Flush sớm khi đủ batch, chạy ngoài thread gọi save() */
+    private final ExecutorService flusher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "rent-session-flush");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    @Value("${gsm.rent-session.batch-size:100}")
+    private int batchSize;
+
+    /** Đánh dấu session cần ghi, không chặn thread gọi */
+    public void save(RentalSession session) {
+        session.setUpdatedAt(Instant.now());
+        dirty.put(session.getOrderId(), session);
+        if (dirty.size() >= batchSize && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                flushRequested.set(false);
+                flush();
+            });
+        }
+    }
+
+    /**
+     * Đổi status 1 session (vd: REFUND_PENDING -> REFUNDED khi order API xác nhận).
+     * Chạy dưới flushLock để bản đang chờ flush không ghi đè status mới.
+     */
+    public void markStatus(String orderId, String status) {
+        flushLock.lock();
+        try {
+            RentalSession pending = dirty.get(orderId);
+            if (pending != null) {
+                pending.setStatus(status);
+                pending.setUpdatedAt(Instant.now());
+                return;
+            }
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(orderId)),
+                    new Update().set("status", status).set("updatedAt", Instant.now()), RentalSession.class);
+        } catch (Exception e) {
+            log.warn("⚠️ Không cập nhật được status {} cho session {}: {}", status, orderId, e.getMessage());
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${gsm.rent-session.flush-interval-ms:1000}")
+    public void flush() {
+        if (dirty.isEmpty()) return;
+        flushLock.lock();
+        try {
+            doFlush();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void doFlush() {
+        List<RentalSession> batch = new ArrayList<>();
+        for (String orderId : new ArrayList<>(dirty.keySet())) {
+            RentalSession s = dirty.remove(orderId);
+            if (s != null) batch.add(s);
+        }
+        if (batch.isEmpty()) return;
+
+        try {
+            BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, RentalSession.class);
+            for (RentalSession s : batch) {
+                ops.replaceOne(Query.query(Criteria.where("_id").is(s.getOrderId())), s,
+                        FindAndReplaceOptions.options().upsert());
+            }
+            ops.execute();
+            log.debug("💾 Flushed {} rent sessions", batch.size());
+        } catch (Exception e) {
+            log.error("❌ Flush rent sessions failed ({} items), sẽ thử lại: {}", batch.size(), e.getMessage());
+            // trả lại những bản chưa bị bản mới hơn ghi đè
+            for (RentalSession s : batch) {
+                dirty.putIfAbsent(s.getOrderId(), s);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        log.info("⏹️ Flushing {} pending rent sessions before shutdown", dirty.size());
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}
@@ -0,0 +1,154 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.entity.Country;
+import app.simsmartgsm.entity.Sim;
+import app.simsmartgsm.repository.CountryRepository;
+import app.simsmartgsm.repository.SimRepository;
+import app.simsmartgsm.uitils.HostUtils;
+import app.simsmartgsm.uitils.SimStatus;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Bản chụp local Sim/Country của device này, lưu ra file sau mỗi lần SimSyncService chạy
+ * và load lại lúc khởi động. Rent request và API sims đọc từ đây trước, Mongo chỉ là fallback;
+ * dữ liệu được reconcile với Mongo định kỳ ở nền.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SimInventorySnapshot {
+
+    private final SimRepository simRepository;
+    private final CountryRepository countryRepository;
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Value("${gsm.snapshot.file:./data/inventory.json}")
+    private String snapshotFile;
+
+    private volatile Inventory inventory;
+    private volatile Map<String, Sim> simsByPhone = Map.of();
+    private volatile Map<String, Sim> simsByCom = Map.of();
+    private volatile Map<String, Country> countriesByCode = Map.of();
+
+    /** Nội dung file snapshot */
+    public record Inventory(String deviceName, Instant savedAt, List<Sim> sims, List<Country> countries) {}
+
+    @PostConstruct
+    public void load() {
+        Path file = Paths.get(snapshotFile);
+        if (!Files.exists(file)) return;
+        try {
+            Inventory loaded = mapper.readValue(file.toFile(), Inventory.class);
+            if (!HostUtils.getDeviceName().equals(loaded.deviceName())) {
+                log.warn("⚠️ Snapshot {} thuộc device {}, bỏ qua", file, loaded.deviceName());
+                return;
+            }
+            apply(loaded);
+            log.info("📦 Loaded inventory snapshot: {} sims, {} countries (saved {})",
+                    loaded.sims().size(), loaded.countries().size(), loaded.savedAt());
+        } catch (Exception e) {
+            log.warn("⚠️ Không đọc được inventory snapshot {}: {}", file, e.getMessage());
+        }
+    }
+
+    public boolean isLoaded() {
+        return inventory != null;
+    }
+
+    public List<Sim> getSims() {
+        Inventory inv = inventory;
+        return inv == null ? List.of() : inv.sims();
+    }
+
+    /** SIM của device này theo số, snapshot trước rồi mới tới Mongo */
+    public Optional<Sim> findSimByPhone(String phoneNumber) {
+        Sim sim = simsByPhone.get(phoneNumber);
+        return sim != null ? Optional.of(sim) : simRepository.findByPhoneNumber(phoneNumber);
+    }
+
+    /** SIM đang cắm ở COM theo snapshot (không fallback Mongo, dùng trên đường gửi) */
+    public Optional<Sim> findSimByCom(String comName) {
+        return Optional.ofNullable(simsByCom.get(comName));
+    }
+
+    public Optional<Country> findCountry(String countryCode) {
+        Country country = countriesByCode.get(countryCode);
+        return country != null ? Optional.of(country) : countryRepository.findByCountryCode(countryCode);
+    }
+
+    /** Boot xong phục vụ ngay từ file, còn Mongo reconcile ở nền */
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcileOnStartup() {
+        Thread t = new Thread(this::reconcile, "inventory-reconcile");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @Scheduled(initialDelayString = "${gsm.snapshot.reconcile-ms:300000}",
+            fixedDelayString = "${gsm.snapshot.reconcile-ms:300000}")
+    public void reconcile() {
+        try {
+            refreshFromDb(HostUtils.getDeviceName());
+        } catch (Exception e) {
+            log.warn("⚠️ Reconcile inventory snapshot lỗi, giữ bản cũ: {}", e.getMessage());
+        }
+    }
+
+    /** Đọc lại Sim/Country từ Mongo, thay snapshot trong bộ nhớ và ghi ra file */
+    public void refreshFromDb(String deviceName) {
+        Inventory fresh = new Inventory(deviceName, Instant.now(),
+                simRepository.findByDeviceName(deviceName), countryRepository.findAll());
+        apply(fresh);
+        persist(fresh);
+    }
+
+    private void apply(Inventory inv) {
+        simsByPhone = inv.sims().stream()
+                .filter(s -> s.getPhoneNumber() != null)
+                .collect(Collectors.toUnmodifiableMap(Sim::getPhoneNumber, Function.identity(), (a, b) -> a));
+        simsByCom = inv.sims().stream()
+                .filter(s -> s.getComName() != null)
+                // cùng COM có thể còn SIM cũ đã REPLACED/INACTIVE, ưu tiên SIM ACTIVE
+                .collect(Collectors.toUnmodifiableMap(Sim::getComName, Function.identity(),
+                        (a, b) -> SimStatus.ACTIVE.name().equalsIgnoreCase(b.getStatus()) ? b : a));
+        countriesByCode = inv.countries().stream()
+                .filter(c -> c.getCountryCode() != null)
+                .collect(Collectors.toUnmodifiableMap(Country::getCountryCode, Function.identity(), (a, b) -> a));
+        inventory = inv;
+    }
+
+    private void persist(Inventory inv) {
+        Path file = Paths.get(snapshotFile);
+        try {
+            if (file.getParent() != null) Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            mapper.writeValue(tmp.toFile(), inv);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("📦 Saved inventory snapshot: {} sims", inv.sims().size());
+        } catch (Exception e) {
+            log.warn("⚠️ Không ghi được inventory snapshot {}: {}", file, e.getMessage());
+        }
+    }
+}
@@ -1,35 +1,166 @@
 package app.simsmartgsm.service;
 
 import app.simsmartgsm.dto.response.SimResponse;
+import app.simsmartgsm.entity.Sim;
 import app.simsmartgsm.uitils.AtCommandHelper;
+import app.simsmartgsm.uitils.PortWorker;
 import com.fazecast.jSerialComm.SerialPort;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Trạng thái SIM theo COM cho /api/sim: đọc từ snapshot trong bộ nhớ, snapshot được quét lại ở nền.
+ * Nhiều request refresh cùng lúc chỉ chạy 1 lần quét (dùng chung future đang chạy).
+ * COM đang có PortWorker chạy thì không mở lại cổng, trạng thái lấy từ worker.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class SimScanService {
 
-    private final SimpMessagingTemplate messagingTemplate;
+    private final SimUpdatePublisher simUpdatePublisher;
+    private final GsmListenerService gsmListenerService;
 
     private final ExecutorService executor = Executors.newFixedThreadPool(
             Runtime.getRuntime().availableProcessors()
     );
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "sim-scan-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile Snapshot snapshot;
+    private final AtomicReference<CompletableFuture<Snapshot>> inFlight = new AtomicReference<>();
+    private final Map<String, CompletableFuture<SimResponse>> inFlightByCom = new ConcurrentHashMap<>();
+
+    /** Kết quả quét gần nhất; etag đổi khi nội dung đổi */
+    public record Snapshot(List<SimResponse> sims, Map<String, SimResponse> byCom, String etag, Instant scannedAt) {
+        static Snapshot of(List<SimResponse> sims) {
+            Map<String, SimResponse> byCom = new LinkedHashMap<>();
+            sims.forEach(s -> byCom.put(s.getCom(), s));
+            return new Snapshot(List.copyOf(sims), byCom, etagOf(List.copyOf(byCom.values())), Instant.now());
+        }
+
+        Snapshot with(SimResponse sim) {
+            Map<String, SimResponse> updated = new LinkedHashMap<>(byCom);
+            updated.put(sim.getCom(), sim);
+            List<SimResponse> sims = List.copyOf(updated.values());
+            return new Snapshot(sims, updated, etagOf(sims), scannedAt);
+        }
+    }
+
+    /** ETag theo nội dung (List/SimResponse có equals/hashCode theo giá trị) */
+    public static String etagOf(Object content) {
+        return "\"" + Integer.toHexString(content.hashCode()) + "\"";
+    }
+
+    /** So If-None-Match với etag: chấp nhận "*", danh sách cách nhau bởi dấu phẩy và weak tag W/"..." */
+    public static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) return true;
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals(etag)) return true;
+        }
+        return false;
+    }
+
+    @Scheduled(initialDelayString = "${gsm.sim-scan.initial-delay-ms:5000}",
+            fixedDelayString = "${gsm.sim-scan.refresh-ms:60000}")
+    public void scheduledRefresh() {
+        try {
+            refresh().join();
+        } catch (Exception e) {
+            log.warn("⚠️ Background SIM scan lỗi: {}", e.getMessage());
+        }
+    }
+
+    /** Snapshot hiện tại; chưa có (vừa khởi động) hoặc force thì chờ 1 lần quét */
+    public Snapshot getSnapshot(boolean forceRefresh) {
+        Snapshot current = snapshot;
+        if (current != null && !forceRefresh) return current;
+        return refresh().join();
+    }
+
+    /** Trạng thái 1 COM: lấy từ snapshot, force hoặc chưa có thì quét riêng COM đó */
+    public SimResponse getSim(String comPort, boolean forceRefresh) {
+        Snapshot current = snapshot;
+        if (!forceRefresh && current != null && current.byCom().containsKey(comPort)) {
+            return current.byCom().get(comPort);
+        }
+        PortWorker worker = gsmListenerService.getWorkers().get(comPort);
+        if (worker != null) return fromWorker(comPort, worker, current);
+
+        CompletableFuture<SimResponse> future = inFlightByCom.computeIfAbsent(comPort,
+                com -> CompletableFuture.supplyAsync(() -> scanSimByCom(com), executor));
+        try {
+            SimResponse sim = future.join();
+            synchronized (this) {
+                if (snapshot != null) snapshot = snapshot.with(sim);
+            }
+            return sim;
+        } finally {
+            inFlightByCom.remove(comPort, future);
+        }
+    }
+
+    /** Quét lại toàn bộ; nếu đang có lần quét chạy dở thì dùng chung kết quả của nó */
+    public CompletableFuture<Snapshot> refresh() {
+        while (true) {
+            CompletableFuture<Snapshot> running = inFlight.get();
+            if (running != null) return running;
+            CompletableFuture<Snapshot> mine = new CompletableFuture<>();
+            if (!inFlight.compareAndSet(null, mine)) continue;
+            refresher.execute(() -> {
+                try {
+                    Snapshot fresh = Snapshot.of(scanAllSims());
+                    synchronized (this) {
+                        snapshot = fresh;
+                    }
+                    mine.complete(fresh);
+                } catch (Throwable t) {
+                    mine.completeExceptionally(t);
+                } finally {
+                    inFlight.set(null);
+                }
+            });
+            return mine;
+        }
+    }
 
     /** Quét toàn bộ COM ports song song */
     public List<SimResponse> scanAllSims() {
-        SerialPort[] ports = SerialPort.getCommPorts();
+        List<String> comPorts = new ArrayList<>();
+        for (SerialPort port : SerialPort.getCommPorts()) comPorts.add(port.getSystemPortName());
+        List<SimResponse> results = scanPorts(comPorts);
+        // COM đã rút ra / đổi tên thì dashboard cũng bỏ đi
+        simUpdatePublisher.retainPorts(comPorts);
+        return results;
+    }
+
+    /** Quét các COM chỉ định; COM đang có worker giữ cổng thì lấy trạng thái từ worker */
+    List<SimResponse> scanPorts(List<String> comPorts) {
+        Map<String, PortWorker> workers = gsmListenerService.getWorkers();
+        Snapshot previous = snapshot;
 
         List<Callable<SimResponse>> tasks = new ArrayList<>();
-        for (SerialPort port : ports) {
-            String comPort = port.getSystemPortName();
-            tasks.add(() -> scanSimByCom(comPort));
+        for (String comPort : comPorts) {
+            PortWorker worker = workers.get(comPort);
+            if (worker != null) {
+                SimResponse fromWorker = fromWorker(comPort, worker, previous);
+                tasks.add(() -> fromWorker);
+            } else {
+                tasks.add(() -> scanSimByCom(comPort));
+            }
         }
 
         List<SimResponse> results = new ArrayList<>();
@@ -46,12 +177,20 @@ public class SimScanService {
             Thread.currentThread().interrupt();
         }
 
-        // Push lên WebSocket
-        messagingTemplate.convertAndSend("/topic/sims", results);
-
         return results;
     }
 
+    /** Trạng thái COM theo SIM của worker, thiếu nhà mạng/ccid thì lấy từ lần quét trước */
+    private static SimResponse fromWorker(String comPort, PortWorker worker, Snapshot previous) {
+        Sim sim = worker.getSim();
+        SimResponse last = previous != null ? previous.byCom().get(comPort) : null;
+        String provider = sim.getSimProvider() != null ? sim.getSimProvider() : last != null ? last.getSimProvider() : null;
+        String ccid = sim.getCcid() != null ? sim.getCcid() : last != null ? last.getCcid() : null;
+        boolean down = worker.getHealth() == PortWorker.Health.DOWN;
+        return new SimResponse(comPort, down ? "OFFLINE" : "ONLINE", provider, sim.getPhoneNumber(), ccid,
+                down ? "ERROR" : "OK");
+    }
+
     /** Quét 1 COM port cụ thể */
     public SimResponse scanSimByCom(String comPort) {
         SimResponse response;
@@ -82,7 +221,8 @@ public class SimScanService {
             );
         }
 
-        messagingTemplate.convertAndSend("/topic/sims/" + comPort, response);
+        // chỉ push nếu khác lần trước, gom theo cửa sổ
+        simUpdatePublisher.publishSim(response);
         return response;
     }
 }
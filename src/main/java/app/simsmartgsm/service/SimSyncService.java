@@ -7,10 +7,17 @@ import app.simsmartgsm.uitils.SimStatus;
 import com.fazecast.jSerialComm.SerialPort;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.net.InetAddress;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
@@ -23,6 +30,8 @@ public class SimSyncService {
 
     private final SimRepository simRepository;
     private final PortManager portManager;
+    private final MongoTemplate mongoTemplate;
+    private final SimInventorySnapshot simInventorySnapshot;
 
     // ==== CONFIG ====
     private static final int THREAD_POOL_SIZE = 8;
@@ -30,6 +39,10 @@ public class SimSyncService {
     private static final int MISS_THRESHOLD = 8;      // nhiều lần mới replace
     private static final int INACTIVE_THRESHOLD = 3;  // vài lần đầu inactive
 
+    /** SIM không đổi gì thì chỉ ghi lastUpdated sau khoảng này */
+    @Value("${gsm.sim-sync.heartbeat-interval-minutes:30}")
+    private long heartbeatIntervalMinutes;
+
     // chạy mỗi 60 giây
     @Scheduled(fixedRate = 600_000)
     public void scheduledFullScan() {
@@ -54,6 +67,9 @@ public class SimSyncService {
 
         // 3) Đồng bộ DB
         syncScannedToDb(deviceName, scanned);
+
+        // 4) Cập nhật snapshot local
+        simInventorySnapshot.refreshFromDb(deviceName);
     }
 
     // ================== SCAN ==================
@@ -106,66 +122,110 @@ public class SimSyncService {
 
     // ================== DB SYNC ==================
 
-    private void syncScannedToDb(String deviceName, List<ScannedSim> scanned) {
+    /**
+     * So sánh kết quả scan với dữ liệu đang có, chỉ gửi field thay đổi ($set) trong 1 bulk write unordered.
+     * SIM không đổi gì chỉ được cập nhật lastUpdated mỗi heartbeat-interval để giảm số lần ghi.
+     */
+    void syncScannedToDb(String deviceName, List<ScannedSim> scanned) {
+        long start = System.nanoTime();
+        Instant now = Instant.now();
         List<Sim> dbSims = simRepository.findByDeviceName(deviceName);
         Map<String, Sim> dbMap = dbSims.stream()
                 .filter(s -> s.getCcid() != null)
                 .collect(Collectors.toMap(Sim::getCcid, s -> s, (a, b) -> a));
 
         Set<String> scannedCcids = new HashSet<>();
-        List<Sim> toSave = new ArrayList<>();
+        BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Sim.class);
+        int upserts = 0, updates = 0, heartbeats = 0, skipped = 0;
+        String active = String.valueOf(SimStatus.ACTIVE);
 
         // ✅ 1. Các SIM đang thấy trong scan => ACTIVE
         for (ScannedSim ss : scanned) {
             if (ss.ccid == null) continue;
             scannedCcids.add(ss.ccid);
 
-            Sim sim = dbMap.getOrDefault(ss.ccid,
-                    Sim.builder()
-                            .ccid(ss.ccid)
-                            .deviceName(deviceName)
-                            .comName(ss.comName)
-                            .missCount(0)
-                            .status(String.valueOf(SimStatus.ACTIVE))
-                            .build()
-            );
-
-            sim.setMissCount(0);
-            sim.setStatus(String.valueOf(SimStatus.ACTIVE));
-            sim.setImsi(ss.imsi);
-            sim.setComName(ss.comName);
-            sim.setPhoneNumber(ss.phoneNumber);
-            sim.setSimProvider(ss.simProvider);
-            sim.setLastUpdated(Instant.now());
-
-            toSave.add(sim);
+            Sim db = dbMap.get(ss.ccid);
+            if (db == null) {
+                // SIM mới (hoặc vừa chuyển từ device khác sang): upsert theo ccid
+                ops.upsert(Query.query(Criteria.where("ccid").is(ss.ccid)), new Update()
+                        .setOnInsert("_id", UUID.randomUUID().toString())
+                        .setOnInsert("countryCode", "JPN")
+                        .set("deviceName", deviceName)
+                        .set("comName", ss.comName)
+                        .set("missCount", 0)
+                        .set("status", active)
+                        .set("imsi", ss.imsi)
+                        .set("phoneNumber", ss.phoneNumber)
+                        .set("simProvider", ss.simProvider)
+                        .set("lastUpdated", now));
+                upserts++;
+                continue;
+            }
+
+            Update update = new Update();
+            setIfChanged(update, "missCount", db.getMissCount(), 0);
+            setIfChanged(update, "status", db.getStatus(), active);
+            setIfChanged(update, "imsi", db.getImsi(), ss.imsi);
+            setIfChanged(update, "comName", db.getComName(), ss.comName);
+            setIfChanged(update, "phoneNumber", db.getPhoneNumber(), ss.phoneNumber);
+            setIfChanged(update, "simProvider", db.getSimProvider(), ss.simProvider);
+
+            if (update.getUpdateObject().isEmpty()) {
+                if (!heartbeatDue(db, now)) {
+                    skipped++;
+                    continue;
+                }
+                heartbeats++;
+            } else {
+                updates++;
+            }
+            update.set("lastUpdated", now);
+            ops.updateOne(Query.query(Criteria.where("_id").is(db.getId())), update);
         }
 
         // ❌ 2. Các SIM trong DB nhưng lần này không thấy
         for (Sim db : dbSims) {
             if (db.getCcid() != null && !scannedCcids.contains(db.getCcid())) {
-                db.setMissCount(db.getMissCount() + 1);
+                int missCount = db.getMissCount() + 1;
+                Update update = new Update().set("missCount", missCount).set("lastUpdated", now);
 
-                if (db.getMissCount() >= MISS_THRESHOLD) {
-                    db.setStatus(String.valueOf(SimStatus.REPLACED));
+                if (missCount >= MISS_THRESHOLD) {
+                    setIfChanged(update, "status", db.getStatus(), String.valueOf(SimStatus.REPLACED));
                     log.info("⚠️ SIM {} (com={}) chuyển sang REPLACED sau {} lần không thấy",
-                            db.getCcid(), db.getComName(), db.getMissCount());
-                } else if (db.getMissCount() >= INACTIVE_THRESHOLD) {
-                    db.setStatus(String.valueOf(SimStatus.INACTIVE));
+                            db.getCcid(), db.getComName(), missCount);
+                } else if (missCount >= INACTIVE_THRESHOLD) {
+                    setIfChanged(update, "status", db.getStatus(), String.valueOf(SimStatus.INACTIVE));
                     log.info("⏸️ SIM {} (com={}) chuyển sang INACTIVE (miss={})",
-                            db.getCcid(), db.getComName(), db.getMissCount());
+                            db.getCcid(), db.getComName(), missCount);
                 }
 
-                db.setLastUpdated(Instant.now());
-                toSave.add(db);
+                ops.updateOne(Query.query(Criteria.where("_id").is(db.getId())), update);
+                updates++;
             }
         }
 
-        if (!toSave.isEmpty()) {
-            simRepository.saveAll(toSave);
+        if (upserts + updates + heartbeats > 0) {
+            try {
+                ops.execute();
+            } catch (Exception e) {
+                log.error("❌ Bulk sync SIM lỗi cho {}: {}", deviceName, e.getMessage());
+            }
+        }
+        log.info("💾 Sync SIM {}: upsert={} update={} heartbeat={} skip={} in {} ms",
+                deviceName, upserts, updates, heartbeats, skipped, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static void setIfChanged(Update update, String field, Object current, Object scanned) {
+        if (!Objects.equals(current, scanned)) {
+            update.set(field, scanned);
         }
     }
 
+    private boolean heartbeatDue(Sim db, Instant now) {
+        return db.getLastUpdated() == null
+                || db.getLastUpdated().isBefore(now.minus(Duration.ofMinutes(heartbeatIntervalMinutes)));
+    }
+
     // ================== HELPERS ==================
 
     private void logScanResult(String deviceName, List<ScannedSim> scanned) {
@@ -194,5 +254,5 @@ public class SimSyncService {
     }
 
     // DTO tạm cho scan
-    private record ScannedSim(String comName, String ccid, String imsi, String phoneNumber, String simProvider) {}
+    record ScannedSim(String comName, String ccid, String imsi, String phoneNumber, String simProvider) {}
 }
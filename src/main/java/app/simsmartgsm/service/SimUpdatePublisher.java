@@ -0,0 +1,158 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.dto.response.SimResponse;
+import app.simsmartgsm.dto.response.SmsResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Push WebSocket cho dashboard: chỉ gửi SIM có thay đổi so với lần push trước, gom các update
+ * trong 1 cửa sổ ngắn và giới hạn tần suất theo topic. Client mới lấy full state qua
+ * @SubscribeMapping /app/sims thay vì chờ lần quét tiếp theo.
+ * COM không còn trong lần quét đầy đủ gần nhất (rút ra, đổi tên) bị xoá khỏi state và báo qua /topic/sims/removed.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SimUpdatePublisher {
+
+    public static final String SIMS_TOPIC = "/topic/sims";
+    public static final String SIM_CHANGES_TOPIC = "/topic/sims/changes";
+    public static final String SIM_REMOVED_TOPIC = "/topic/sims/removed";
+    public static final String SMS_TOPIC_PREFIX = "/topic/sms/";
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final MeterRegistry registry;
+
+    /** Khoảng tối thiểu giữa 2 message trên cùng 1 topic */
+    @Value("${gsm.ws.topic-min-interval-ms:1000}")
+    private long topicMinIntervalMs;
+    /** Full list /topic/sims (cho client cũ) gửi thưa hơn */
+    @Value("${gsm.ws.full-list-interval-ms:5000}")
+    private long fullListIntervalMs;
+
+    private final Map<String, SimResponse> lastPushed = new TreeMap<>();
+    private final Map<String, SimResponse> pendingSims = new LinkedHashMap<>();
+    private final Map<String, List<SmsResponse>> pendingSms = new LinkedHashMap<>();
+    private final Set<String> pendingRemovals = new TreeSet<>();
+    private final Map<String, Long> lastSentAt = new HashMap<>();
+    private boolean fullListDirty;
+
+    /** Ghi nhận trạng thái SIM mới; trùng với lần push trước thì bỏ qua */
+    public synchronized void publishSim(SimResponse sim) {
+        if (sim == null || sim.getCom() == null) return;
+        if (sim.equals(lastPushed.get(sim.getCom())) && !pendingSims.containsKey(sim.getCom())) {
+            registry.counter("gsm.ws.updates", "result", "unchanged").increment();
+            return;
+        }
+        pendingSims.put(sim.getCom(), sim);
+    }
+
+    /** Tập COM của lần quét đầy đủ gần nhất: COM không còn thì bỏ khỏi state và báo client xoá */
+    public synchronized void retainPorts(Collection<String> comPorts) {
+        Set<String> present = new HashSet<>(comPorts);
+        pendingSims.keySet().retainAll(present);
+        Iterator<String> it = lastPushed.keySet().iterator();
+        while (it.hasNext()) {
+            String com = it.next();
+            if (present.contains(com)) continue;
+            it.remove();
+            pendingRemovals.add(com);
+        }
+        // COM cắm lại trước khi kịp báo xoá: lần publishSim tới sẽ push lại như COM mới
+        pendingRemovals.removeAll(present);
+    }
+
+    public synchronized void publishSms(SmsResponse sms) {
+        if (sms == null || sms.getCom() == null) return;
+        pendingSms.computeIfAbsent(sms.getCom(), k -> new ArrayList<>()).add(sms);
+    }
+
+    /** Full state hiện tại (đã push + đang chờ) cho client vừa subscribe */
+    public synchronized List<SimResponse> currentSims() {
+        Map<String, SimResponse> merged = new TreeMap<>(lastPushed);
+        merged.putAll(pendingSims);
+        return new ArrayList<>(merged.values());
+    }
+
+    @Scheduled(fixedDelayString = "${gsm.ws.coalesce-window-ms:500}")
+    public void flush() {
+        List<Runnable> sends = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            collectSimSends(now, sends);
+            collectSmsSends(now, sends);
+        }
+        // gửi ngoài lock, messagingTemplate có thể chậm khi nhiều session
+        for (Runnable send : sends) {
+            try {
+                send.run();
+            } catch (Exception e) {
+                log.warn("⚠️ WS push lỗi: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void collectSimSends(long now, List<Runnable> sends) {
+        if (!pendingSims.isEmpty() && allowed(SIM_CHANGES_TOPIC, topicMinIntervalMs, now)) {
+            List<SimResponse> changed = new ArrayList<>();
+            Iterator<SimResponse> it = pendingSims.values().iterator();
+            while (it.hasNext()) {
+                SimResponse sim = it.next();
+                String topic = SIMS_TOPIC + "/" + sim.getCom();
+                if (!allowed(topic, topicMinIntervalMs, now)) continue; // giữ lại cho cửa sổ sau
+                it.remove();
+                if (sim.equals(lastPushed.get(sim.getCom()))) continue;
+                lastPushed.put(sim.getCom(), sim);
+                lastSentAt.put(topic, now);
+                changed.add(sim);
+                sends.add(() -> messagingTemplate.convertAndSend(topic, sim));
+            }
+            if (!changed.isEmpty()) {
+                lastSentAt.put(SIM_CHANGES_TOPIC, now);
+                fullListDirty = true;
+                registry.counter("gsm.ws.updates", "result", "pushed").increment(changed.size());
+                sends.add(() -> messagingTemplate.convertAndSend(SIM_CHANGES_TOPIC, changed));
+            }
+        }
+        if (!pendingRemovals.isEmpty() && allowed(SIM_REMOVED_TOPIC, topicMinIntervalMs, now)) {
+            List<String> removed = new ArrayList<>(pendingRemovals);
+            pendingRemovals.clear();
+            lastSentAt.put(SIM_REMOVED_TOPIC, now);
+            fullListDirty = true;
+            registry.counter("gsm.ws.updates", "result", "removed").increment(removed.size());
+            sends.add(() -> messagingTemplate.convertAndSend(SIM_REMOVED_TOPIC, removed));
+        }
+        if (fullListDirty && allowed(SIMS_TOPIC, fullListIntervalMs, now)) {
+            fullListDirty = false;
+            lastSentAt.put(SIMS_TOPIC, now);
+            List<SimResponse> all = new ArrayList<>(lastPushed.values());
+            sends.add(() -> messagingTemplate.convertAndSend(SIMS_TOPIC, all));
+        }
+    }
+
+    private void collectSmsSends(long now, List<Runnable> sends) {
+        Iterator<Map.Entry<String, List<SmsResponse>>> it = pendingSms.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, List<SmsResponse>> e = it.next();
+            String topic = SMS_TOPIC_PREFIX + e.getKey();
+            if (!allowed(topic, topicMinIntervalMs, now)) continue;
+            it.remove();
+            lastSentAt.put(topic, now);
+            List<SmsResponse> batch = e.getValue();
+            sends.add(() -> messagingTemplate.convertAndSend(topic, batch));
+        }
+    }
+
+    private boolean allowed(String topic, long minInterval, long now) {
+        Long last = lastSentAt.get(topic);
+        return last == null || now - last >= minInterval;
+    }
+}
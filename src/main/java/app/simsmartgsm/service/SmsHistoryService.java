@@ -0,0 +1,84 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.dto.response.SmsHistoryPage;
+import app.simsmartgsm.entity.SmsMessage;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Lịch sử SMS phân trang theo keyset (timestamp desc, _id desc): mỗi trang
+ * seek thẳng vào index device_ts_id (hoặc device_&lt;filter&gt;_ts_id khi có lọc), không skip
+ * nên trang sâu cũng rẻ như trang đầu.
+ */
+@Service
+@RequiredArgsConstructor
+public class SmsHistoryService {
+
+    public static final int MAX_LIMIT = 200;
+
+    private final MongoTemplate mongoTemplate;
+
+    public SmsHistoryPage find(String deviceName, String comPort, String orderId, Long accountId,
+                               String serviceCode, String type, String cursor, int limit) {
+        int size = Math.max(1, Math.min(limit, MAX_LIMIT));
+
+        List<Criteria> filters = new ArrayList<>();
+        filters.add(Criteria.where("deviceName").is(deviceName));
+        if (comPort != null) filters.add(Criteria.where("comPort").is(comPort));
+        if (orderId != null) filters.add(Criteria.where("orderId").is(orderId));
+        if (accountId != null) filters.add(Criteria.where("accountId").is(accountId));
+        if (serviceCode != null) filters.add(Criteria.where("serviceCode").is(serviceCode));
+        if (type != null) filters.add(Criteria.where("type").is(type));
+
+        if (cursor != null && !cursor.isBlank()) {
+            Cursor c = Cursor.decode(cursor);
+            filters.add(new Criteria().orOperator(
+                    Criteria.where("timestamp").lt(c.timestamp()),
+                    new Criteria().andOperator(
+                            Criteria.where("timestamp").is(c.timestamp()),
+                            Criteria.where("id").lt(c.id()))
+            ));
+        }
+
+        Query query = new Query(new Criteria().andOperator(filters))
+                .with(Sort.by(Sort.Order.desc("timestamp"), Sort.Order.desc("id")))
+                .limit(size + 1);
+
+        List<SmsMessage> items = mongoTemplate.find(query, SmsMessage.class);
+        String next = null;
+        if (items.size() > size) {
+            items = new ArrayList<>(items.subList(0, size));
+            SmsMessage last = items.get(size - 1);
+            next = new Cursor(last.getTimestamp(), last.getId()).encode();
+        }
+        return new SmsHistoryPage(items, next);
+    }
+
+    /** Cursor opaque cho client: base64url("epochMillis:id") */
+    record Cursor(Instant timestamp, String id) {
+        String encode() {
+            String raw = timestamp.toEpochMilli() + ":" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(String value) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+                int sep = raw.indexOf(':');
+                return new Cursor(Instant.ofEpochMilli(Long.parseLong(raw.substring(0, sep))), raw.substring(sep + 1));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid cursor: " + value);
+            }
+        }
+    }
+}
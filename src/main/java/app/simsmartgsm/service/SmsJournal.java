@@ -0,0 +1,428 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.entity.InboundSms;
+import app.simsmartgsm.entity.Sim;
+import app.simsmartgsm.uitils.AtCommandHelper;
+import app.simsmartgsm.uitils.HostUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Journal append-only trên file memory-mapped cho SMS nhận từ modem.
+ * PortWorker ghi vào đây trước khi xoá SMS khỏi SIM; thread nền replay các entry
+ * lên collection inbound_sms và lưu checkpoint khi Mongo đã xác nhận.
+ *
+ * Ngoài checkpoint replay còn có checkpoint "processed": entry chỉ được tính là xử lý xong khi
+ * PortWorker đã chạy processSms (markProcessed) và SmsMessageWriter đã ghi hết xuống Mongo.
+ * Sau crash, các entry sau checkpoint này được trả lại qua {@link #unprocessed()} để
+ * GsmListenerService chạy lại processSms (idempotent theo vị trí journal).
+ *
+ * Format mỗi segment: [int length][int crc32][payload JSON] ..., length = 0 là hết dữ liệu.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SmsJournal {
+
+    private static final int HEADER_BYTES = 8;
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry registry;
+    private final SmsMessageWriter smsMessageWriter;
+    private final ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    private final String deviceName = HostUtils.getDeviceName();
+
+    @Value("${gsm.journal.dir:./data/journal}")
+    private String journalDir;
+    @Value("${gsm.journal.segment-size-mb:16}")
+    private int segmentSizeMb;
+    @Value("${gsm.journal.replay-interval-ms:1000}")
+    private long replayIntervalMs;
+    @Value("${gsm.journal.replay-batch-size:500}")
+    private int replayBatchSize;
+
+    private Path dir;
+    private int segmentSize;
+    private Timer appendTimer;
+
+    // --- phía ghi (giữ writeLock) ---
+    private final Object writeLock = new Object();
+    private FileChannel writeChannel;
+    private MappedByteBuffer writeBuffer;
+    private volatile long writeSegment;
+    /** Vị trí đã ghi xong của segment hiện tại, publish cho thread replay */
+    private volatile int writePosition;
+
+    // --- phía replay (chỉ thread replay dùng) ---
+    private long checkpointSegment;
+    private int checkpointOffset;
+    /** Vị trí (position()) mà mọi entry trước đó đã được xử lý xong */
+    private long processedCheckpoint;
+    private ScheduledExecutorService replayer;
+
+    /** Entry đã append nhưng processSms chưa xong, thêm dưới writeLock */
+    private final ConcurrentSkipListSet<Long> unprocessed = new ConcurrentSkipListSet<>();
+    /** Entry còn dở lúc khởi động, chờ GsmListenerService xử lý lại */
+    private volatile List<Pending> recovered = List.of();
+
+    /** 1 SMS thô đọc từ modem, concat* chỉ có với phần của SMS nhiều phần */
+    public record Entry(String comPort, String simId, String simPhone, String sender, String body,
+                        String modemTimestamp, Instant receivedAt,
+                        Integer concatRef, Integer concatTotal, Integer concatSeq) {}
+
+    /** Entry chưa xử lý xong kèm vị trí trong journal */
+    public record Pending(long position, Entry entry) {}
+
+    /** Vị trí entry trong journal: segment ở 32 bit cao, offset ở 32 bit thấp, so sánh được */
+    static long position(long segment, int offset) {
+        return (segment << 32) | offset;
+    }
+
+    static long segmentOf(long position) {
+        return position >>> 32;
+    }
+
+    static int offsetOf(long position) {
+        return (int) position;
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        dir = Paths.get(journalDir);
+        Files.createDirectories(dir);
+        segmentSize = segmentSizeMb * 1024 * 1024;
+        appendTimer = registry.timer("gsm.journal.append");
+
+        loadCheckpoint();
+        List<Long> segments = listSegments();
+        long last = segments.isEmpty() ? Math.max(1, checkpointSegment) : segments.get(segments.size() - 1);
+        if (checkpointSegment == 0) checkpointSegment = segments.isEmpty() ? last : segments.get(0);
+        if (processedCheckpoint == 0) processedCheckpoint = position(checkpointSegment, checkpointOffset);
+
+        synchronized (writeLock) {
+            mapForWrite(last);
+            writeBuffer.position(findEnd(writeBuffer, last));
+            writePosition = writeBuffer.position();
+        }
+        recovered = loadUnprocessed();
+        recovered.forEach(p -> unprocessed.add(p.position()));
+        log.info("📒 SMS journal {} mở segment {} tại offset {}, checkpoint={}:{}, {} SMS chưa xử lý xong",
+                dir.toAbsolutePath(), last, writePosition, checkpointSegment, checkpointOffset, recovered.size());
+
+        replayer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sms-journal-replay");
+            t.setDaemon(true);
+            return t;
+        });
+        replayer.scheduleWithFixedDelay(this::replaySafely, replayIntervalMs, replayIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** @return vị trí entry, truyền lại cho {@link #markProcessed} khi processSms xong */
+    public long append(Sim sim, AtCommandHelper.SmsRecord rec) throws IOException {
+        return append(new Entry(sim.getComName(), sim.getId(), sim.getPhoneNumber(), rec.sender, rec.body,
+                rec.timestamp, Instant.now(), rec.concatRef, rec.concatTotal, rec.concatSeq));
+    }
+
+    /** Ghi 1 entry vào page cache qua mmap, không có round trip mạng/đĩa đồng bộ */
+    public long append(Entry entry) throws IOException {
+        long start = System.nanoTime();
+        byte[] payload = mapper.writeValueAsBytes(entry);
+        if (payload.length + HEADER_BYTES >= segmentSize) {
+            throw new IOException("Journal entry too large: " + payload.length);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        synchronized (writeLock) {
+            if (writeBuffer.position() + HEADER_BYTES + payload.length + 4 > segmentSize) {
+                roll();
+            }
+            long pos = position(writeSegment, writeBuffer.position());
+            writeBuffer.putInt(payload.length);
+            writeBuffer.putInt((int) crc.getValue());
+            writeBuffer.put(payload);
+            writePosition = writeBuffer.position();
+            unprocessed.add(pos);
+            appendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return pos;
+        }
+    }
+
+    /** processSms đã chạy xong cho entry (kể cả khi SMS không khớp session nào) */
+    public void markProcessed(long position) {
+        unprocessed.remove(position);
+    }
+
+    /** Entry còn dở từ lần chạy trước (crash sau khi đã xoá SMS khỏi SIM), theo thứ tự journal */
+    public List<Pending> unprocessed() {
+        return recovered;
+    }
+
+    /** Vị trí mà mọi entry trước đó đã markProcessed */
+    private long processedMark() {
+        synchronized (writeLock) {
+            Long first = unprocessed.isEmpty() ? null : unprocessed.first();
+            return first != null ? first : position(writeSegment, writePosition);
+        }
+    }
+
+    // ================== WRITE SIDE ==================
+
+    private void roll() throws IOException {
+        writeBuffer.putInt(0); // đánh dấu hết segment (append luôn chừa 4 byte)
+        writeBuffer.force();
+        writeChannel.close();
+        mapForWrite(writeSegment + 1);
+        writePosition = 0;
+    }
+
+    private void mapForWrite(long segment) throws IOException {
+        writeChannel = FileChannel.open(segmentPath(segment),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        writeBuffer = writeChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        writeSegment = segment;
+    }
+
+    /**
+     * Tìm vị trí kết thúc dữ liệu hợp lệ. Entry hỏng ở cuối (ghi dở khi crash) bị bỏ và ghi đè;
+     * entry hỏng mà phía sau vẫn còn entry hợp lệ thì bỏ qua entry đó, không cắt cụt segment.
+     */
+    private int findEnd(ByteBuffer buf, long segment) {
+        int pos = 0;
+        while (pos + HEADER_BYTES <= buf.limit()) {
+            int len = buf.getInt(pos);
+            if (len <= 0 || pos + HEADER_BYTES + len > buf.limit()) break;
+            if (!crcMatches(buf, pos, len)) {
+                int next = pos + HEADER_BYTES + len;
+                if (!validAt(buf, next)) {
+                    log.warn("⚠️ Journal segment {} có entry ghi dở tại offset {} ({} bytes), bỏ", segment, pos, len);
+                    break;
+                }
+                log.warn("⚠️ Journal segment {} hỏng entry tại offset {} ({} bytes), bỏ qua", segment, pos, len);
+            }
+            pos += HEADER_BYTES + len;
+        }
+        return pos;
+    }
+
+    private boolean validAt(ByteBuffer buf, int pos) {
+        if (pos + HEADER_BYTES > buf.limit()) return false;
+        int len = buf.getInt(pos);
+        return len > 0 && pos + HEADER_BYTES + len <= buf.limit() && crcMatches(buf, pos, len);
+    }
+
+    private boolean crcMatches(ByteBuffer buf, int pos, int len) {
+        byte[] payload = new byte[len];
+        buf.get(pos + HEADER_BYTES, payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == buf.getInt(pos + 4);
+    }
+
+    // ================== REPLAY SIDE ==================
+
+    private void replaySafely() {
+        try {
+            while (replayBatch() == replayBatchSize) {
+                // còn backlog: replay tiếp ngay
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ Replay SMS journal lỗi, thử lại sau: {}", e.getMessage());
+        }
+    }
+
+    /** Replay tối đa replayBatchSize entry kể từ checkpoint, trả về số entry đã replay */
+    int replayBatch() throws IOException {
+        long segment = checkpointSegment;
+        int offset = checkpointOffset;
+        List<InboundSms> batch = new ArrayList<>();
+
+        while (batch.size() < replayBatchSize) {
+            long currentWrite = writeSegment;
+            if (segment > currentWrite) break;
+            int limit = segment == currentWrite ? writePosition : segmentSize;
+
+            ByteBuffer buf = readView(segment);
+            boolean segmentDone = false;
+            while (batch.size() < replayBatchSize) {
+                if (offset + HEADER_BYTES > limit) {
+                    segmentDone = segment < currentWrite;
+                    break;
+                }
+                int len = buf.getInt(offset);
+                if (len <= 0 || offset + HEADER_BYTES + len > limit) {
+                    segmentDone = segment < currentWrite;
+                    break;
+                }
+                if (!crcMatches(buf, offset, len)) {
+                    // entry hỏng: bỏ qua entry này (đã log), các entry sau vẫn replay
+                    log.warn("⚠️ Journal segment {} bỏ entry hỏng tại offset {} ({} bytes)", segment, offset, len);
+                    registry.counter("gsm.journal.corrupt").increment();
+                    unprocessed.remove(position(segment, offset));
+                    offset += HEADER_BYTES + len;
+                    continue;
+                }
+                byte[] payload = new byte[len];
+                buf.get(offset + HEADER_BYTES, payload);
+                batch.add(toDocument(segment, offset, mapper.readValue(payload, Entry.class)));
+                offset += HEADER_BYTES + len;
+            }
+            if (!segmentDone) break;
+            segment++;
+            offset = 0;
+        }
+
+        if (!batch.isEmpty()) {
+            BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, InboundSms.class);
+            for (InboundSms doc : batch) {
+                ops.replaceOne(Query.query(Criteria.where("_id").is(doc.getId())), doc,
+                        FindAndReplaceOptions.options().upsert());
+            }
+            ops.execute();
+            registry.counter("gsm.journal.replayed").increment(batch.size());
+        }
+
+        // đọc mark trước rồi mới hỏi writer: SMS của entry đã markProcessed chắc chắn đã write()
+        long processed = processedMark();
+        boolean processedMoved = processed > processedCheckpoint && smsMessageWriter.isIdle();
+
+        if (segment != checkpointSegment || offset != checkpointOffset || processedMoved) {
+            long oldSegment = Math.min(checkpointSegment, segmentOf(processedCheckpoint));
+            checkpointSegment = segment;
+            checkpointOffset = offset;
+            if (processedMoved) processedCheckpoint = processed;
+            saveCheckpoint();
+            long keepFrom = Math.min(checkpointSegment, segmentOf(processedCheckpoint));
+            for (long s = oldSegment; s < keepFrom; s++) {
+                Files.deleteIfExists(segmentPath(s));
+            }
+        }
+        return batch.size();
+    }
+
+    /** Đọc các entry từ processedCheckpoint tới cuối journal (chạy lúc mở, trước khi có append mới) */
+    private List<Pending> loadUnprocessed() throws IOException {
+        List<Pending> out = new ArrayList<>();
+        long segment = segmentOf(processedCheckpoint);
+        int offset = offsetOf(processedCheckpoint);
+        for (; segment <= writeSegment; segment++, offset = 0) {
+            if (!Files.exists(segmentPath(segment))) continue;
+            ByteBuffer buf = readView(segment);
+            int limit = segment == writeSegment ? writePosition : buf.limit();
+            while (offset + HEADER_BYTES <= limit) {
+                int len = buf.getInt(offset);
+                if (len <= 0 || offset + HEADER_BYTES + len > limit) break;
+                if (crcMatches(buf, offset, len)) {
+                    byte[] payload = new byte[len];
+                    buf.get(offset + HEADER_BYTES, payload);
+                    try {
+                        out.add(new Pending(position(segment, offset), mapper.readValue(payload, Entry.class)));
+                    } catch (IOException e) {
+                        log.warn("⚠️ Journal entry {}:{} không đọc được, bỏ: {}", segment, offset, e.getMessage());
+                    }
+                }
+                offset += HEADER_BYTES + len;
+            }
+        }
+        return out;
+    }
+
+    private ByteBuffer readView(long segment) throws IOException {
+        if (segment == writeSegment) {
+            synchronized (writeLock) {
+                if (segment == writeSegment) return writeBuffer.duplicate();
+            }
+        }
+        try (FileChannel ch = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(ch.size(), segmentSize));
+        }
+    }
+
+    private InboundSms toDocument(long segment, int offset, Entry e) {
+        return InboundSms.builder()
+                .id(deviceName + ":" + segment + ":" + offset)
+                .deviceName(deviceName)
+                .comPort(e.comPort())
+                .simId(e.simId())
+                .simPhone(e.simPhone())
+                .fromNumber(e.sender())
+                .content(e.body())
+                .modemTimestamp(e.modemTimestamp())
+                .receivedAt(e.receivedAt())
+                .build();
+    }
+
+    // ================== FILES ==================
+
+    private Path segmentPath(long segment) {
+        return dir.resolve(String.format("%010d%s", segment, SEGMENT_SUFFIX));
+    }
+
+    private List<Long> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.endsWith(SEGMENT_SUFFIX))
+                    .map(n -> Long.parseLong(n.substring(0, n.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private void loadCheckpoint() throws IOException {
+        Path file = dir.resolve("checkpoint");
+        if (!Files.exists(file)) return;
+        String[] parts = Files.readString(file, StandardCharsets.US_ASCII).trim().split(":");
+        checkpointSegment = Long.parseLong(parts[0]);
+        checkpointOffset = Integer.parseInt(parts[1]);
+        // file cũ chỉ có checkpoint replay: coi như đã xử lý tới đó
+        processedCheckpoint = parts.length >= 4
+                ? position(Long.parseLong(parts[2]), Integer.parseInt(parts[3]))
+                : position(checkpointSegment, checkpointOffset);
+    }
+
+    private void saveCheckpoint() throws IOException {
+        Path tmp = dir.resolve("checkpoint.tmp");
+        Files.writeString(tmp, checkpointSegment + ":" + checkpointOffset + ":"
+                + segmentOf(processedCheckpoint) + ":" + offsetOf(processedCheckpoint), StandardCharsets.US_ASCII);
+        Files.move(tmp, dir.resolve("checkpoint"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (replayer != null) replayer.shutdownNow();
+        synchronized (writeLock) {
+            if (writeBuffer != null) writeBuffer.force();
+            if (writeChannel != null) writeChannel.close();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.entity.SmsMessage;
+import app.simsmartgsm.repository.SmsMessageRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ghi SmsMessage inbound theo kiểu write-behind: PortWorker chỉ đẩy vào queue có giới hạn,
+ * thread nền gom theo size/time rồi ghi bằng 1 bulk write.
+ * _id được gán trước lần ghi đầu và bulk dùng upsert theo _id, nên retry sau khi bulk
+ * đã ghi được 1 phần (timeout, lỗi mạng giữa chừng) không tạo bản trùng.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SmsMessageWriter {
+
+    private final MongoTemplate mongoTemplate;
+    private final SmsMessageRepository smsMessageRepository;
+    private final MeterRegistry registry;
+
+    @Value("${gsm.sms-writer.capacity:10000}")
+    private int capacity;
+    @Value("${gsm.sms-writer.batch-size:200}")
+    private int batchSize;
+    @Value("${gsm.sms-writer.flush-interval-ms:500}")
+    private long flushIntervalMs;
+    @Value("${gsm.sms-writer.offer-timeout-ms:200}")
+    private long offerTimeoutMs;
+
+    private BlockingQueue<SmsMessage> queue;
+    /** Batch đang ghi dở, dùng cho hasPending khi Mongo chậm */
+    private volatile List<SmsMessage> inFlight = List.of();
+    /** Số SMS đã nhận mà chưa ghi xong xuống Mongo (queue + batch đang gom + đang ghi) */
+    private final AtomicInteger unwritten = new AtomicInteger();
+    private volatile boolean running = true;
+    private Thread flusher;
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(capacity);
+        registry.gauge("gsm.sms.writer.queue", queue, BlockingQueue::size);
+        flusher = new Thread(this::runLoop, "sms-writer");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Đưa SMS vào hàng đợi ghi. Queue đầy thì chờ tối đa offer-timeout-ms (backpressure),
+     * quá thời gian thì ghi đồng bộ để không mất tin.
+     */
+    public void write(SmsMessage sms) {
+        unwritten.incrementAndGet();
+        try {
+            if (queue.offer(sms, offerTimeoutMs, TimeUnit.MILLISECONDS)) return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            registry.counter("gsm.sms.writer.overflow").increment();
+            log.warn("⚠️ SMS write queue đầy ({}), ghi đồng bộ orderId={}", capacity, sms.getOrderId());
+            smsMessageRepository.save(sms);
+        } finally {
+            unwritten.decrementAndGet();
+        }
+    }
+
+    /** Mọi SMS đã write() trước thời điểm gọi đều đã xuống Mongo (dùng cho checkpoint của SmsJournal) */
+    public boolean isIdle() {
+        return unwritten.get() == 0;
+    }
+
+    /** SMS của order đang chờ ghi (chưa xuống DB) */
+    public boolean hasPending(String orderId) {
+        return queue.stream().anyMatch(s -> Objects.equals(s.getOrderId(), orderId))
+                || inFlight.stream().anyMatch(s -> Objects.equals(s.getOrderId(), orderId));
+    }
+
+    private void runLoop() {
+        List<SmsMessage> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                SmsMessage first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+
+                // gom thêm trong cửa sổ flush, đủ batch thì ghi luôn
+                long deadline = System.currentTimeMillis() + flushIntervalMs;
+                while (batch.size() < batchSize && running) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) break;
+                    SmsMessage next = queue.poll(wait, TimeUnit.MILLISECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+                queue.drainTo(batch, batchSize - batch.size());
+
+                if (flushWithRetry(batch)) unwritten.addAndGet(-batch.size());
+                batch.clear();
+            } catch (InterruptedException e) {
+                // shutdown: vòng lặp tiếp tục cho tới khi queue rỗng
+                running = false;
+            }
+        }
+        if (!batch.isEmpty() && flushWithRetry(batch)) unwritten.addAndGet(-batch.size());
+    }
+
+    /** @return false nếu bỏ batch khi shutdown */
+    private boolean flushWithRetry(List<SmsMessage> batch) {
+        for (SmsMessage sms : batch) {
+            if (sms.getId() == null) sms.setId(new ObjectId().toHexString());
+        }
+        inFlight = List.copyOf(batch);
+        long backoff = 500;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                long start = System.nanoTime();
+                BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, SmsMessage.class);
+                for (SmsMessage sms : batch) {
+                    ops.replaceOne(Query.query(Criteria.where("_id").is(sms.getId())), sms,
+                            FindAndReplaceOptions.options().upsert());
+                }
+                ops.execute();
+                registry.timer("gsm.sms.writer.flush").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                log.debug("💾 Bulk wrote {} SMS", batch.size());
+                inFlight = List.of();
+                return true;
+            } catch (Exception e) {
+                log.error("❌ Bulk write {} SMS lỗi (lần {}): {}", batch.size(), attempt, e.getMessage());
+                // queue phía sau sẽ đầy dần và đẩy backpressure về PortWorker
+                if (!running && attempt >= 3) {
+                    log.error("❌ Bỏ {} SMS chưa ghi được khi shutdown", batch.size());
+                    inFlight = List.of();
+                    return false;
+                }
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    running = false;
+                }
+                backoff = Math.min(backoff * 2, 10_000);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        log.info("⏹️ Flushing {} pending SMS before shutdown", queue.size());
+        running = false;
+        flusher.interrupt();
+        flusher.join(15_000);
+    }
+}
@@ -0,0 +1,224 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.entity.OutboundSms;
+import app.simsmartgsm.repository.OutboundSmsRepository;
+import app.simsmartgsm.uitils.AtCommandHelper;
+import app.simsmartgsm.uitils.HostUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+/**
+ * Outbox cho SMS gửi đi: mỗi lần gửi được ghi vào sms_outbox kèm message reference (+CMGS),
+ * status report (+CDS) từ URC listener được khớp qua map trong bộ nhớ theo "com:ref" rồi cập nhật
+ * trạng thái cuối DELIVERED/UNDELIVERED (tin nhiều phần: từng phần theo ref riêng). Tin quá report-timeout không có report thì thành EXPIRED.
+ * Ghi Mongo chạy trên thread riêng để không chặn thread modem.
+ */
+@Service
+@Slf4j
+public class SmsOutboxService {
+
+    private final OutboundSmsRepository outboundSmsRepository;
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry registry;
+    private final String deviceName = HostUtils.getDeviceName();
+
+    /** Tin chờ report quá khoảng này thì bỏ khỏi map và đánh EXPIRED */
+    @Value("${gsm.outbox.report-timeout-hours:48}")
+    private long reportTimeoutHours;
+
+    /** "com:ref" -> tin đang chờ report */
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "sms-outbox");
+        t.setDaemon(true);
+        return t;
+    });
+
+    record Pending(String id, Instant submittedAt) {}
+
+    public SmsOutboxService(OutboundSmsRepository outboundSmsRepository, MongoTemplate mongoTemplate,
+                            MeterRegistry registry) {
+        this.outboundSmsRepository = outboundSmsRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.registry = registry;
+        registry.gauge("gsm.sms.outbox.pending", pending, Map::size);
+    }
+
+    static String key(String comPort, int messageRef) {
+        return comPort + ":" + messageRef;
+    }
+
+    /**
+     * Ghi nhận kết quả 1 lần gửi, trả về id bản ghi outbox (tin nhiều phần: id phần 1).
+     * Tin nhiều phần ghi từng phần đã gửi được (chờ report theo ref riêng) và phần bị lỗi nếu có;
+     * các phần sau phần lỗi chưa từng gửi nên không ghi.
+     */
+    public String recordSubmit(String comPort, String simPhone, String toNumber, String content,
+                               AtCommandHelper.SendResult result) {
+        boolean ok = result != null && result.ok();
+        Instant now = Instant.now();
+        List<OutboundSms> records = new ArrayList<>();
+        if (result == null || result.partCount() <= 1) {
+            records.add(record(comPort, simPhone, toNumber, content, now,
+                    result == null ? null : result.messageRef(), result == null ? null : result.errorCode(), ok));
+        } else {
+            List<Integer> refs = result.partRefs();
+            for (int i = 0; i < refs.size(); i++) {
+                records.add(record(comPort, simPhone, toNumber, content, now, refs.get(i), null, true));
+            }
+            if (!ok) records.add(record(comPort, simPhone, toNumber, content, now, null, result.errorCode(), false));
+            String groupId = records.get(0).getId();
+            for (int i = 0; i < records.size(); i++) {
+                records.get(i).setGroupId(groupId);
+                records.get(i).setPartSeq(i + 1);
+                records.get(i).setPartCount(result.partCount());
+            }
+        }
+
+        for (OutboundSms sms : records) {
+            if (OutboundSms.STATUS_SENT.equals(sms.getStatus()) && sms.getMessageRef() != null) {
+                // ref quay vòng 0-255: bản gửi mới thay bản cũ cùng key
+                Pending old = pending.put(key(comPort, sms.getMessageRef()), new Pending(sms.getId(), now));
+                if (old != null) log.debug("♻️ Ref {} trên {} bị dùng lại, bỏ khớp tin {}", sms.getMessageRef(), comPort, old.id());
+            }
+        }
+        registry.counter("gsm.sms.outbox.submitted", "result", ok ? "sent" : "failed").increment();
+        writer.execute(() -> {
+            try {
+                if (records.size() == 1) outboundSmsRepository.save(records.get(0));
+                else outboundSmsRepository.saveAll(records);
+            } catch (Exception e) {
+                log.warn("⚠️ Không ghi được sms_outbox {} -> {}: {}", comPort, toNumber, e.getMessage());
+            }
+        });
+        return records.get(0).getId();
+    }
+
+    private OutboundSms record(String comPort, String simPhone, String toNumber, String content, Instant now,
+                               Integer messageRef, Integer errorCode, boolean sent) {
+        return OutboundSms.builder()
+                .id(UUID.randomUUID().toString())
+                .deviceName(deviceName)
+                .comPort(comPort)
+                .simPhone(simPhone)
+                .toNumber(toNumber)
+                .content(content)
+                .messageRef(messageRef)
+                .errorCode(errorCode)
+                .status(sent ? OutboundSms.STATUS_SENT : OutboundSms.STATUS_FAILED)
+                .submittedAt(now)
+                .build();
+    }
+
+    /** Status report (+CDS) nhận trên COM, khớp với tin đã gửi qua "com:ref" */
+    public void onStatusReport(String comPort, AtCommandHelper.StatusReport report) {
+        String key = key(comPort, report.messageRef());
+        Pending p = report.pending() ? pending.get(key) : pending.remove(key);
+        if (p == null) {
+            registry.counter("gsm.sms.outbox.reports", "result", "unmatched").increment();
+            log.debug("📭 +CDS ref={} trên {} không khớp tin nào đang chờ", report.messageRef(), comPort);
+            return;
+        }
+
+        String status = report.pending() ? OutboundSms.STATUS_SENT
+                : report.delivered() ? OutboundSms.STATUS_DELIVERED : OutboundSms.STATUS_UNDELIVERED;
+        registry.counter("gsm.sms.outbox.reports", "result", status.toLowerCase()).increment();
+        log.info("📬 Report {} ref={} -> {} st={} ({})", comPort, report.messageRef(), report.recipient(),
+                report.status(), status);
+
+        Update update = new Update()
+                .set("status", status)
+                .set("reportStatus", report.status())
+                .set("dischargeTime", report.dischargeTime())
+                .set("reportedAt", Instant.now());
+        writer.execute(() -> {
+            try {
+                mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(p.id())), update, OutboundSms.class);
+            } catch (Exception e) {
+                log.warn("⚠️ Không cập nhật được report cho outbox {}: {}", p.id(), e.getMessage());
+            }
+        });
+    }
+
+    public Optional<OutboundSms> find(String id) {
+        return outboundSmsRepository.findById(id);
+    }
+
+    public Optional<OutboundSms> findByRef(String comPort, int messageRef) {
+        return outboundSmsRepository.findFirstByDeviceNameAndComPortAndMessageRefOrderBySubmittedAtDesc(
+                deviceName, comPort, messageRef);
+    }
+
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    /** Restart không mất khớp: nạp lại các tin còn chờ report từ Mongo */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadPendingOnStartup() {
+        Thread t = new Thread(() -> {
+            try {
+                Instant after = Instant.now().minus(Duration.ofHours(reportTimeoutHours));
+                int loaded = 0;
+                for (OutboundSms sms : outboundSmsRepository.findByDeviceNameAndStatusAndSubmittedAtAfter(
+                        deviceName, OutboundSms.STATUS_SENT, after)) {
+                    if (sms.getMessageRef() == null) continue;
+                    // chỉ giữ bản mới nhất cho mỗi key, không đè tin vừa gửi sau khi boot
+                    pending.merge(key(sms.getComPort(), sms.getMessageRef()),
+                            new Pending(sms.getId(), sms.getSubmittedAt()),
+                            (cur, loadedP) -> cur.submittedAt().isAfter(loadedP.submittedAt()) ? cur : loadedP);
+                    loaded++;
+                }
+                if (loaded > 0) log.info("📦 Loaded {} SMS đang chờ delivery report", loaded);
+            } catch (Exception e) {
+                log.warn("⚠️ Không load được sms_outbox pending: {}", e.getMessage());
+            }
+        }, "sms-outbox-load");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @Scheduled(fixedDelayString = "${gsm.outbox.expire-interval-ms:600000}")
+    public void expireStale() {
+        Instant cutoff = Instant.now().minus(Duration.ofHours(reportTimeoutHours));
+        pending.values().removeIf(p -> p.submittedAt().isBefore(cutoff));
+        try {
+            long n = mongoTemplate.updateMulti(Query.query(Criteria.where("deviceName").is(deviceName)
+                            .and("status").is(OutboundSms.STATUS_SENT)
+                            .and("submittedAt").lt(cutoff)),
+                    new Update().set("status", OutboundSms.STATUS_EXPIRED), OutboundSms.class).getModifiedCount();
+            if (n > 0) log.info("⌛ {} SMS không có delivery report sau {}h -> EXPIRED", n, reportTimeoutHours);
+        } catch (Exception e) {
+            log.warn("⚠️ Expire sms_outbox lỗi: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.entity.SmsMessage;
+import app.simsmartgsm.entity.SmsMessageArchive;
+import app.simsmartgsm.uitils.HostUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Retention cho sms_messages: SMS của device này cũ hơn retention-days được chuyển theo batch
+ * sang sms_messages_archive (bản gọn) rồi xoá khỏi collection nóng.
+ * Archive upsert theo id nên nếu job chết giữa chừng thì lần chạy sau vẫn an toàn.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SmsRetentionService {
+
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry registry;
+
+    @Value("${gsm.retention.enabled:true}")
+    private boolean enabled;
+    @Value("${gsm.retention.retention-days:30}")
+    private long retentionDays;
+    @Value("${gsm.retention.batch-size:500}")
+    private int batchSize;
+    @Value("${gsm.retention.max-batches-per-run:20}")
+    private int maxBatchesPerRun;
+    /** 0 = giữ archive vĩnh viễn */
+    @Value("${gsm.retention.archive-ttl-days:0}")
+    private long archiveTtlDays;
+
+    private volatile boolean ttlEnsured;
+
+    @Scheduled(initialDelayString = "${gsm.retention.interval-ms:3600000}",
+            fixedDelayString = "${gsm.retention.interval-ms:3600000}")
+    public void scheduledArchive() {
+        if (!enabled) return;
+        try {
+            ensureArchiveTtl();
+            archiveOlderThan(HostUtils.getDeviceName(), Instant.now().minus(Duration.ofDays(retentionDays)));
+        } catch (Exception e) {
+            log.warn("⚠️ SMS retention lỗi: {}", e.getMessage());
+        }
+    }
+
+    /** Chuyển SMS cũ hơn cutoff sang archive, trả về số bản ghi đã chuyển */
+    public int archiveOlderThan(String deviceName, Instant cutoff) {
+        long start = System.nanoTime();
+        int total = 0;
+        for (int i = 0; i < maxBatchesPerRun; i++) {
+            Query query = new Query(Criteria.where("deviceName").is(deviceName).and("timestamp").lt(cutoff))
+                    .with(Sort.by(Sort.Direction.ASC, "timestamp"))
+                    .limit(batchSize);
+            query.fields().exclude("modemResponse");
+            List<SmsMessage> batch = mongoTemplate.find(query, SmsMessage.class);
+            if (batch.isEmpty()) break;
+
+            Instant now = Instant.now();
+            BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, SmsMessageArchive.class);
+            for (SmsMessage m : batch) {
+                ops.replaceOne(Query.query(Criteria.where("_id").is(m.getId())),
+                        SmsMessageArchive.from(m, now),
+                        FindAndReplaceOptions.options().upsert());
+            }
+            ops.execute();
+
+            List<String> ids = batch.stream().map(SmsMessage::getId).toList();
+            mongoTemplate.remove(Query.query(Criteria.where("_id").in(ids)), SmsMessage.class);
+            total += batch.size();
+            if (batch.size() < batchSize) break;
+        }
+        if (total > 0) {
+            registry.counter("gsm.sms.archived").increment(total);
+            log.info("🗄️ Archived {} SMS cũ hơn {} ({} ms)", total, cutoff,
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+        return total;
+    }
+
+    private void ensureArchiveTtl() {
+        if (ttlEnsured || archiveTtlDays <= 0) return;
+        mongoTemplate.indexOps(SmsMessageArchive.class).createIndex(new Index()
+                .on("archivedAt", Sort.Direction.ASC)
+                .named("archived_ttl")
+                .expire(Duration.ofDays(archiveTtlDays)));
+        ttlEnsured = true;
+    }
+}
@@ -0,0 +1,321 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.dto.response.SmsSendJob;
+import app.simsmartgsm.dto.response.SmsSendJob.Status;
+import app.simsmartgsm.uitils.AtCommandHelper;
+import app.simsmartgsm.uitils.CmsError;
+import app.simsmartgsm.uitils.PortWorker;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Gửi SMS bất đồng bộ: API nhận request là trả jobId ngay, việc gửi đi qua PortWorker của COM
+ * (nếu đang có worker) hoặc PortManager trên thread riêng. Kết quả (message ref, mã lỗi, thời gian)
+ * xem qua GET /api/sms/jobs/{jobId} hoặc topic /topic/sms-jobs/{jobId}.
+ */
+@Service
+@Slf4j
+public class SmsSendJobService {
+
+    public static final String JOB_TOPIC = "/topic/sms-jobs";
+
+    private final GsmListenerService gsmListenerService;
+    private final PortManager portManager;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final MeterRegistry registry;
+    private final SmsOutboxService smsOutboxService;
+    private final AdaptiveSendRateLimiter rateLimiter;
+
+    @Value("${gsm.send-job.max-attempts:3}")
+    private int maxAttempts;
+    @Value("${gsm.send-job.backoff-ms:1000}")
+    private long backoffMs;
+    /**
+     * Lần thử chưa có kết quả sau khoảng này (vd: worker bị dừng) thì đánh FAILED. Tính từ lúc bắt đầu
+     * gửi, thời gian chờ token của limiter và backoff giữa các lần thử không tính vào (như lane của campaign).
+     */
+    @Value("${gsm.send-job.timeout-ms:180000}")
+    private long timeoutMs;
+    @Value("${gsm.send-job.retention-minutes:60}")
+    private long retentionMinutes;
+
+    private final Map<String, SmsSendJob> jobs = new ConcurrentHashMap<>();
+    private final ExecutorService directSender;
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "send-job-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public SmsSendJobService(GsmListenerService gsmListenerService, PortManager portManager,
+                             SimpMessagingTemplate messagingTemplate, MeterRegistry registry,
+                             SmsOutboxService smsOutboxService, AdaptiveSendRateLimiter rateLimiter,
+                             @Value("${gsm.send-job.direct-threads:4}") int directThreads) {
+        this.gsmListenerService = gsmListenerService;
+        this.portManager = portManager;
+        this.messagingTemplate = messagingTemplate;
+        this.registry = registry;
+        this.smsOutboxService = smsOutboxService;
+        this.rateLimiter = rateLimiter;
+        this.directSender = Executors.newFixedThreadPool(Math.max(1, directThreads), r -> {
+            Thread t = new Thread(r, "send-job");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Tạo job và đưa vào hàng đợi của port, trả về ngay */
+    public SmsSendJob submit(String comPort, String toNumber, String content) {
+        SmsSendJob job = new SmsSendJob();
+        job.setJobId(UUID.randomUUID().toString());
+        job.setComPort(comPort);
+        job.setToNumber(toNumber);
+        job.setContent(content);
+        job.setStatus(Status.QUEUED);
+        job.setCreatedAt(Instant.now());
+        jobs.put(job.getJobId(), job);
+        registry.counter("gsm.send.job", "result", "submitted").increment();
+        // chụp trước khi dispatch: worker có thể đã đổi status ngay sau attempt()
+        SmsSendJob queued = copy(job);
+        attempt(job);
+        return queued;
+    }
+
+    public Optional<SmsSendJob> find(String jobId) {
+        SmsSendJob job = jobs.get(jobId);
+        if (job == null) return Optional.empty();
+        synchronized (job) {
+            return Optional.of(copy(job));
+        }
+    }
+
+    private void attempt(SmsSendJob job) {
+        if (isDone(job)) return; // đã bị sweep tính timeout trong lúc chờ backoff
+        synchronized (job) {
+            // chưa bắt đầu gửi: chờ token của limiter không tính vào timeout
+            job.setDeadline(Instant.now()
+                    .plusNanos(rateLimiter.peekDelay(job.getComPort()))
+                    .plusMillis(timeoutMs));
+        }
+        long enqueuedAt = System.nanoTime();
+        sendVia(job.getComPort(), job.getToNumber(), job.getContent(),
+                () -> markSending(job, enqueuedAt),
+                result -> complete(job, result, enqueuedAt));
+    }
+
+    /**
+     * Gửi 1 SMS qua COM, đi qua AdaptiveSendRateLimiter: chưa tới lượt thì hẹn giờ dispatch thay vì
+     * chặn thread. Port đang có worker giữ thì đi chung queue của worker để không tranh port,
+     * không thì mở port qua PortManager trên pool riêng. onStart chạy ngay trước khi gửi, trả false
+     * (caller đã huỷ, vd: job đã timeout) thì bỏ tin. Còn lại onDone luôn được gọi đúng 1 lần
+     * (trừ khi worker bị dừng giữa chừng - caller tự có timeout).
+     */
+    public void sendVia(String comPort, String toNumber, String content,
+                        BooleanSupplier onStart, Consumer<AtCommandHelper.SendResult> onDone) {
+        long[] startedAt = new long[1];
+        BooleanSupplier start = () -> {
+            startedAt[0] = System.nanoTime();
+            return onStart.getAsBoolean();
+        };
+        Consumer<AtCommandHelper.SendResult> done = result -> {
+            long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt[0]);
+            try {
+                rateLimiter.onResult(comPort, result, latencyMs);
+            } catch (Exception e) {
+                log.warn("⚠️ Rate limiter feedback lỗi on {}: {}", comPort, e.getMessage());
+            }
+            onDone.accept(result);
+        };
+
+        long waitNanos = rateLimiter.reserve(comPort);
+        Runnable dispatch = () -> dispatch(comPort, toNumber, content, start, done);
+        if (waitNanos > 0) {
+            retryScheduler.schedule(dispatch, waitNanos, TimeUnit.NANOSECONDS);
+        } else {
+            dispatch.run();
+        }
+    }
+
+    private void dispatch(String comPort, String toNumber, String content,
+                          BooleanSupplier onStart, Consumer<AtCommandHelper.SendResult> onDone) {
+        PortWorker worker = gsmListenerService.getWorkers().get(comPort);
+        if (worker != null) {
+            worker.sendSms(toNumber, content, onStart, onDone);
+            return;
+        }
+        directSender.execute(() -> {
+            // onStart ngay trước AT+CMGS: latency cho limiter không gồm chờ lock/mở lại port
+            boolean[] started = new boolean[1];
+            boolean[] proceed = new boolean[1];
+            BooleanSupplier startOnce = () -> {
+                if (!started[0]) {
+                    started[0] = true;
+                    proceed[0] = onStart.getAsBoolean();
+                }
+                return proceed[0];
+            };
+            AtCommandHelper.SendResult result;
+            try {
+                result = portManager.withPort(comPort, helper -> {
+                    try {
+                        helper.enableStatusReports();
+                        if (!startOnce.getAsBoolean()) return null;
+                        return helper.sendTextSmsDetailed(toNumber, content, Duration.ofSeconds(30));
+                    } catch (Exception e) {
+                        return new AtCommandHelper.SendResult(false, null, null, String.valueOf(e.getMessage()));
+                    }
+                }, 15000);
+            } catch (Exception e) {
+                result = new AtCommandHelper.SendResult(false, null, null, String.valueOf(e.getMessage()));
+            }
+            // không mở được port: vẫn tính là 1 lần thử; caller đã huỷ thì bỏ, không báo kết quả
+            if (!startOnce.getAsBoolean()) return;
+            // port không có worker giữ: +CDS chỉ khớp được nếu sau đó worker mở lại port
+            smsOutboxService.recordSubmit(comPort, null, toNumber, content, result);
+            onDone.accept(result);
+        });
+    }
+
+    /** @return false nếu job đã xong (vd: đã timeout) - không gửi nữa và giữ nguyên status */
+    private boolean markSending(SmsSendJob job, long enqueuedAt) {
+        synchronized (job) {
+            if (isDone(job)) return false;
+            if (job.getQueueMs() == null) {
+                job.setQueueMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - enqueuedAt));
+            }
+            if (job.getStartedAt() == null) job.setStartedAt(Instant.now());
+            job.setDeadline(Instant.now().plusMillis(timeoutMs));
+            job.setStatus(Status.SENDING);
+            job.setAttempts(job.getAttempts() + 1);
+            return true;
+        }
+    }
+
+    private static boolean isDone(SmsSendJob job) {
+        synchronized (job) {
+            return job.getStatus() == Status.SENT || job.getStatus() == Status.FAILED;
+        }
+    }
+
+    private void complete(SmsSendJob job, AtCommandHelper.SendResult result, long enqueuedAt) {
+        boolean retry;
+        CmsError kind = null;
+        synchronized (job) {
+            if (isDone(job)) return; // đã timeout
+            // callback của worker chạy sau khi gửi: sendMs = tổng - queueMs
+            long total = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - enqueuedAt);
+            job.setSendMs(Math.max(0, total - (job.getQueueMs() == null ? 0 : job.getQueueMs())));
+
+            if (result != null && result.ok()) {
+                job.setStatus(Status.SENT);
+                job.setMessageRef(result.messageRef());
+                job.setErrorCode(null);
+                job.setError(null);
+                job.setCompletedAt(Instant.now());
+                retry = false;
+            } else {
+                job.setErrorCode(result == null ? null : result.errorCode());
+                job.setError(result == null ? "port unavailable" : result.raw());
+                kind = CmsError.classify(job.getErrorCode());
+                // job gắn với 1 COM: SIM bị chặn hay số sai thì thử lại cũng vô ích;
+                // tin nhiều phần đã gửi được vài phần thì gửi lại cả tin sẽ làm người nhận có phần trùng
+                boolean partial = result != null && result.partiallySent();
+                if (partial) job.setError("multipart partially sent " + result.partRefs().size() + "/"
+                        + result.partCount() + ": " + result.raw());
+                retry = !partial && job.getAttempts() < maxAttempts && kind.retryable() && kind != CmsError.SIM_BLOCKED;
+                if (retry) {
+                    job.setStatus(Status.QUEUED);
+                    job.setDeadline(null); // attempt() đặt lại hạn khi dispatch
+                } else {
+                    job.setStatus(Status.FAILED);
+                    job.setCompletedAt(Instant.now());
+                }
+            }
+        }
+
+        if (retry) {
+            long delay = backoffMs << Math.min(job.getAttempts() - 1, 10);
+            if (kind == CmsError.THROTTLED) delay *= 4; // nhà mạng đang chặn tần suất, lùi xa hơn
+            retryScheduler.schedule(() -> attempt(job), delay, TimeUnit.MILLISECONDS);
+            return;
+        }
+        registry.counter("gsm.send.job", "result", job.getStatus() == Status.SENT ? "sent" : "failed").increment();
+        log.info("📤 Send job {} {} -> {} : {} ref={} err={} attempts={}", job.getJobId(), job.getComPort(),
+                job.getToNumber(), job.getStatus(), job.getMessageRef(), job.getErrorCode(), job.getAttempts());
+        publish(job);
+    }
+
+    private void publish(SmsSendJob job) {
+        SmsSendJob snapshot;
+        synchronized (job) {
+            snapshot = copy(job);
+        }
+        try {
+            messagingTemplate.convertAndSend(JOB_TOPIC + "/" + job.getJobId(), snapshot);
+            messagingTemplate.convertAndSend(JOB_TOPIC, snapshot);
+        } catch (Exception e) {
+            log.warn("⚠️ WS push send job lỗi: {}", e.getMessage());
+        }
+    }
+
+    /** Đánh FAILED job có lần thử treo quá hạn, dọn job đã xong quá retention */
+    @Scheduled(fixedDelayString = "${gsm.send-job.sweep-interval-ms:30000}")
+    public void sweep() {
+        Instant now = Instant.now();
+        for (SmsSendJob job : jobs.values()) {
+            boolean timedOut = false;
+            synchronized (job) {
+                boolean done = isDone(job);
+                if (done && job.getCompletedAt().plus(Duration.ofMinutes(retentionMinutes)).isBefore(now)) {
+                    jobs.remove(job.getJobId());
+                } else if (!done && job.getDeadline() != null && job.getDeadline().isBefore(now)) {
+                    job.setStatus(Status.FAILED);
+                    job.setError("timeout");
+                    job.setCompletedAt(now);
+                    timedOut = true;
+                }
+            }
+            if (timedOut) {
+                registry.counter("gsm.send.job", "result", "timeout").increment();
+                publish(job);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        directSender.shutdown();
+        retryScheduler.shutdownNow();
+    }
+
+    private static SmsSendJob copy(SmsSendJob src) {
+        SmsSendJob c = new SmsSendJob();
+        c.setJobId(src.getJobId());
+        c.setComPort(src.getComPort());
+        c.setToNumber(src.getToNumber());
+        c.setContent(src.getContent());
+        c.setStatus(src.getStatus());
+        c.setAttempts(src.getAttempts());
+        c.setMessageRef(src.getMessageRef());
+        c.setErrorCode(src.getErrorCode());
+        c.setError(src.getError());
+        c.setCreatedAt(src.getCreatedAt());
+        c.setStartedAt(src.getStartedAt());
+        c.setCompletedAt(src.getCompletedAt());
+        c.setQueueMs(src.getQueueMs());
+        c.setSendMs(src.getSendMs());
+        return c;
+    }
+}
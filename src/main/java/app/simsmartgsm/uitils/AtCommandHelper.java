@@ -9,8 +9,12 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -21,6 +25,9 @@ public class AtCommandHelper implements Closeable {
     private final boolean ownsPort;
     private final InputStream in;
     private final OutputStream out;
+    /** CMGF hiện tại theo lần set gần nhất, null = chưa set */
+    private Boolean textMode;
+    private static final AtomicInteger CONCAT_REF = new AtomicInteger(new Random().nextInt(256));
 
     // ---------- Factory ----------
     public static AtCommandHelper open(String portName,
@@ -151,20 +158,36 @@ public class AtCommandHelper implements Closeable {
     }
 
     public boolean setTextMode(boolean textMode) throws IOException, InterruptedException {
-        return sendAtOk("AT+CMGF=" + (textMode ? "1" : "0"), 1200);
+        boolean ok = sendAtOk("AT+CMGF=" + (textMode ? "1" : "0"), 1200);
+        if (ok) this.textMode = textMode;
+        return ok;
     }
 
     public boolean setCharset(String cs) throws IOException, InterruptedException {
         return sendAtOk("AT+CSCS=\"" + cs + "\"", 1200);
     }
 
+    /** +CMTI cho SMS mới, ds=1: status report đẩy thẳng ra dạng +CDS */
     public boolean setNewMessageIndicationDefault() throws IOException, InterruptedException {
-        return sendAtOk("AT+CNMI=2,1,0,0,0", 1500);
+        return sendAtOk("AT+CNMI=2,1,0,1,0", 1500);
+    }
+
+    /** Bật TP-SRR (fo=49) cho tin gửi ở text mode để SMSC trả status report */
+    public boolean enableStatusReports() throws IOException, InterruptedException {
+        return sendAtOk("AT+CSMP=49,167,0,0", 1500);
     }
 
     // ---------- SMS ----------
     public boolean sendTextSms(String toNumber, String content, Duration totalTimeout)
             throws IOException, InterruptedException {
+        return sendTextSmsDetailed(toNumber, content, totalTimeout).ok();
+    }
+
+    /** Gửi SMS text, trả về cả message reference (+CMGS) hoặc mã lỗi (+CMS ERROR) */
+    public SendResult sendTextSmsDetailed(String toNumber, String content, Duration totalTimeout)
+            throws IOException, InterruptedException {
+        // ký tự ngoài ASCII/GSM trùng mã hoặc tin dài: text mode sẽ làm hỏng, gửi PDU
+        if (!PduCodec.isTextModeSafe(content)) return sendPduSmsDetailed(toNumber, content, totalTimeout);
         ensureOpen();
         setTextMode(true);
         setCharset("GSM");
@@ -176,7 +199,7 @@ public class AtCommandHelper implements Closeable {
         if (!cmgsResp.contains(">")) {
             String extra = readUntilMarkers(1200, ">");
             if (extra == null || !extra.contains(">")) {
-                return false;
+                return SendResult.parse(cmgsResp + (extra == null ? "" : extra), false);
             }
         }
 
@@ -184,19 +207,72 @@ public class AtCommandHelper implements Closeable {
         writeRaw(content.getBytes(StandardCharsets.ISO_8859_1));
         writeCtrlZ();
 
-        // Step 3: final response
+        // Step 3: final response (+CMGS: <mr> rồi OK, hoặc +CMS ERROR: <code>)
         String finalResp = readUntilMarkers((int) Math.max(4000, totalTimeout.toMillis()),
-                "OK", "ERROR", "+CMGS");
+                "OK", "ERROR");
 
-        boolean ok = finalResp.contains("OK") || finalResp.contains("+CMGS");
-        log.warn("⚠Send success message : {}");
+        SendResult result = SendResult.parse(finalResp, true);
+        log.debug("📤 CMGS -> {} ref={} err={}", toNumber, result.messageRef(), result.errorCode());
         try {
             setNewMessageIndicationDefault();
         } catch (Exception e) {
             log.warn("⚠️ Failed to re-enable CNMI after send: {}", e.getMessage());
         }
 
-        return ok;
+        return result;
+    }
+
+    /**
+     * Gửi SMS ở PDU mode (GSM 7-bit hoặc UCS2, tự tách nhiều phần), luôn bật status report.
+     * Trả về kết quả phần cuối, hoặc phần đầu tiên bị lỗi (các phần sau không gửi nữa),
+     * kèm ref của mọi phần đã gửi được để outbox khớp +CDS cho từng phần.
+     */
+    public SendResult sendPduSmsDetailed(String toNumber, String content, Duration totalTimeout)
+            throws IOException, InterruptedException {
+        ensureOpen();
+        Boolean previousMode = textMode;
+        List<PduCodec.SubmitPdu> parts = PduCodec.encodeSubmit(toNumber, content, true,
+                CONCAT_REF.getAndIncrement() & 0xFF);
+        SendResult result = null;
+        List<Integer> refs = new ArrayList<>();
+        try {
+            setTextMode(false);
+            for (PduCodec.SubmitPdu part : parts) {
+                result = sendPduPart(part, totalTimeout);
+                if (!result.ok()) break;
+                refs.add(result.messageRef()); // null nếu modem chỉ trả OK, vẫn tính là phần đã gửi
+            }
+            log.debug("📤 CMGS(PDU) -> {} parts={} refs={} err={}", toNumber, parts.size(),
+                    refs, result.errorCode());
+            if (parts.size() > 1) {
+                result = new SendResult(result.ok(), result.messageRef(), result.errorCode(), result.raw(),
+                        Collections.unmodifiableList(refs), parts.size());
+            }
+        } finally {
+            try {
+                if (Boolean.TRUE.equals(previousMode)) setTextMode(true);
+                setNewMessageIndicationDefault();
+            } catch (Exception e) {
+                log.warn("⚠️ Failed to restore CMGF/CNMI after PDU send: {}", e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    private SendResult sendPduPart(PduCodec.SubmitPdu part, Duration totalTimeout)
+            throws IOException, InterruptedException {
+        String cmgsResp = sendCommand("AT+CMGS=" + part.tpduLength(),
+                (int) Math.max(1500, totalTimeout.toMillis()), 0);
+        if (!cmgsResp.contains(">")) {
+            String extra = readUntilMarkers(1200, ">");
+            if (extra == null || !extra.contains(">")) {
+                return SendResult.parse(cmgsResp + (extra == null ? "" : extra), false);
+            }
+        }
+        writeRaw(part.hex().getBytes(StandardCharsets.US_ASCII));
+        writeCtrlZ();
+        String finalResp = readUntilMarkers((int) Math.max(4000, totalTimeout.toMillis()), "OK", "ERROR");
+        return SendResult.parse(finalResp, true);
     }
 
     /** Xoá 1 SMS theo index trong bộ nhớ hiện tại (SM/ME). */
@@ -220,6 +296,16 @@ public class AtCommandHelper implements Closeable {
         return parseCmglText(out);
     }
 
+    public List<SmsRecord> listUnreadSmsPdu(int timeoutMs) throws IOException, InterruptedException {
+        setTextMode(false);
+        return parseCmglPdu(sendAndRead("AT+CMGL=0", timeoutMs));
+    }
+
+    public List<SmsRecord> listAllSmsPdu(int timeoutMs) throws IOException, InterruptedException {
+        setTextMode(false);
+        return parseCmglPdu(sendAndRead("AT+CMGL=4", timeoutMs));
+    }
+
     public boolean deleteAllSms() throws IOException, InterruptedException {
         return sendAtOk("AT+CMGD=1,4", 3000);
     }
@@ -251,6 +337,46 @@ public class AtCommandHelper implements Closeable {
         return list;
     }
 
+    private static final Pattern CMGL_PDU = Pattern.compile("\\+CMGL:\\s*(\\d+)\\s*,\\s*(\\d+)");
+
+    /** CMGL ở PDU mode: "+CMGL: idx,stat,,len" rồi 1 dòng hex; PDU không decode được thì bỏ qua */
+    public static List<SmsRecord> parseCmglPdu(String out) {
+        List<SmsRecord> list = new ArrayList<>();
+        if (out == null || out.isBlank()) return list;
+
+        Integer index = null;
+        int stat = 0;
+        for (String line : out.split("\\r?\\n")) {
+            line = line.trim();
+            Matcher m = CMGL_PDU.matcher(line);
+            if (m.find()) {
+                index = Integer.parseInt(m.group(1));
+                stat = Integer.parseInt(m.group(2));
+                continue;
+            }
+            if (index == null || line.isEmpty()) continue;
+            try {
+                PduCodec.Deliver d = PduCodec.decodeDeliver(line);
+                SmsRecord rec = new SmsRecord();
+                rec.index = index;
+                rec.status = stat == 0 ? "REC UNREAD" : "REC READ";
+                rec.sender = d.sender();
+                rec.timestamp = d.timestamp();
+                rec.body = d.text();
+                if (d.concat() != null) {
+                    rec.concatRef = d.concat().ref();
+                    rec.concatTotal = d.concat().total();
+                    rec.concatSeq = d.concat().seq();
+                }
+                list.add(rec);
+            } catch (RuntimeException e) {
+                log.warn("⚠️ Skip PDU idx={} không decode được: {}", index, e.getMessage());
+            }
+            index = null;
+        }
+        return list;
+    }
+
     // ---------- Lifecycle ----------
     @Override
     public void close() {
@@ -305,12 +431,86 @@ public class AtCommandHelper implements Closeable {
         return "UNKNOWN";
     }
     // ---------- DTO ----------
+    private static final Pattern CMGS_REF = Pattern.compile("\\+CMGS:\\s*(\\d+)");
+    private static final Pattern CMS_ERROR = Pattern.compile("\\+CMS ERROR:\\s*(\\d+)");
+
+    /**
+     * Kết quả AT+CMGS: ok + message reference, hoặc mã +CMS ERROR nếu modem trả về.
+     * Tin nhiều phần: partRefs là ref của các phần đã gửi được (theo thứ tự, null nếu modem không trả ref),
+     * partCount là tổng số phần.
+     */
+    public record SendResult(boolean ok, Integer messageRef, Integer errorCode, String raw,
+                             List<Integer> partRefs, int partCount) {
+
+        public SendResult(boolean ok, Integer messageRef, Integer errorCode, String raw) {
+            this(ok, messageRef, errorCode, raw, messageRef == null ? List.of() : List.of(messageRef), 1);
+        }
+
+        /** Tin nhiều phần lỗi giữa chừng: người nhận đã có 1 số phần, gửi lại cả tin sẽ bị trùng */
+        public boolean partiallySent() {
+            return !ok && partCount > 1 && !partRefs.isEmpty();
+        }
+
+        /** promptSeen=false: không tới được bước gửi nội dung, luôn là fail */
+        public static SendResult parse(String resp, boolean promptSeen) {
+            String raw = resp == null ? "" : resp;
+            Integer ref = null, err = null;
+            Matcher m = CMGS_REF.matcher(raw);
+            if (m.find()) ref = Integer.parseInt(m.group(1));
+            m = CMS_ERROR.matcher(raw);
+            if (m.find()) err = Integer.parseInt(m.group(1));
+            boolean ok = promptSeen && err == null && (ref != null || raw.contains("OK"));
+            return new SendResult(ok, ref, err, raw.trim());
+        }
+    }
+
+    // +CDS: <fo>,<mr>,["<ra>"],[<tora>],"<scts>","<dt>",<st>
+    private static final Pattern CDS_TEXT = Pattern.compile(
+            "\\+CDS:\\s*(\\d+)\\s*,\\s*(\\d+)\\s*,\\s*\"?([^\",]*)\"?\\s*,\\s*(\\d*)\\s*,"
+                    + "\\s*\"([^\"]*)\"\\s*,\\s*\"([^\"]*)\"\\s*,\\s*(\\d+)");
+
+    /** Status report (text mode) của 1 tin đã gửi */
+    public record StatusReport(int messageRef, String recipient, String serviceCentreTime,
+                               String dischargeTime, int status) {
+
+        /** TP-Status 0..31: SMSC đã giao tin */
+        public boolean delivered() {
+            return status < 32;
+        }
+
+        /** 32..63: lỗi tạm thời, SMSC vẫn đang thử lại */
+        public boolean pending() {
+            return status >= 32 && status < 64;
+        }
+    }
+
+    /** Parse 1 dòng URC +CDS ở text mode, null nếu không đúng format (vd: PDU mode) */
+    public static StatusReport parseCds(String line) {
+        if (line == null) return null;
+        Matcher m = CDS_TEXT.matcher(line);
+        if (!m.find()) return null;
+        return new StatusReport(Integer.parseInt(m.group(2)), m.group(3), m.group(5), m.group(6),
+                Integer.parseInt(m.group(7)));
+    }
+
     public static class SmsRecord {
         public Integer index;
         public String status;
         public String sender;
         public String timestamp;
         public String body;
+        /** Concatenated SMS (chỉ có ở PDU mode): reference, tổng số phần, thứ tự phần (từ 1) */
+        public Integer concatRef;
+        public Integer concatTotal;
+        public Integer concatSeq;
+        /** Vị trí trong SmsJournal của các phần đã ghép vào tin này */
+        public List<Long> journalPositions;
+        /** Thời điểm nhận gốc, chỉ có khi xử lý lại từ journal sau restart */
+        public Instant receivedAt;
+        /** Tin được xử lý lại từ SmsJournal sau restart (không phải vừa đọc từ modem) */
+        public boolean replayed;
+        /** Tin nhiều phần bị đẩy ra khi còn thiếu phần: nội dung không đủ, không dùng để match OTP */
+        public boolean incomplete;
         @Override public String toString() {
             return "SmsRecord{" +
                     "index=" + index +
@@ -0,0 +1,31 @@
+package app.simsmartgsm.uitils;
+
+/**
+ * Phân loại mã +CMS ERROR (3GPP TS 27.005 / 24.011) để quyết định giảm tốc, thử lại hay bỏ.
+ */
+public enum CmsError {
+    /** Nhà mạng nghẽn / đang chặn tần suất: giảm tốc rồi thử lại */
+    THROTTLED,
+    /** Lỗi tạm thời của mạng/modem: thử lại bình thường */
+    TRANSIENT,
+    /** SIM bị chặn gửi / không có dịch vụ: thử SIM khác */
+    SIM_BLOCKED,
+    /** Số nhận hoặc tham số sai: thử lại vô ích */
+    INVALID_DESTINATION,
+    UNKNOWN;
+
+    public static CmsError classify(Integer code) {
+        if (code == null) return UNKNOWN;
+        return switch (code) {
+            case 41, 42, 47 -> THROTTLED;                          // temporary failure, congestion, resources unavailable
+            case 38, 331, 332, 500 -> TRANSIENT;                   // network out of order, no service, timeout, unknown
+            case 8, 10, 21, 29, 50, 69, 310, 311, 312, 313, 316, 317, 318, 330 -> SIM_BLOCKED;
+            case 1, 22, 28, 96, 304, 305 -> INVALID_DESTINATION;
+            default -> code >= 512 ? TRANSIENT : UNKNOWN;           // 512+: mã riêng của vendor
+        };
+    }
+
+    public boolean retryable() {
+        return this != INVALID_DESTINATION;
+    }
+}
@@ -0,0 +1,120 @@
+package app.simsmartgsm.uitils;
+
+import java.util.*;
+
+/**
+ * Gom các phần của concatenated SMS (theo sender + reference + tổng số phần) thành 1 SmsRecord.
+ * Tin chờ quá timeout thì bị đẩy ra dưới dạng ghép dở (thiếu phần, incomplete=true) để vẫn được lưu lại;
+ * số tin chờ tối đa có giới hạn, vượt thì đẩy tin cũ nhất ra trước.
+ */
+public class ConcatReassembler {
+
+    private final long timeoutMs;
+    private final int maxPending;
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+    private final List<AtCommandHelper.SmsRecord> overflow = new ArrayList<>();
+
+    private static final class Pending {
+        final AtCommandHelper.SmsRecord[] parts;
+        final long firstSeenMs;
+        int received;
+
+        Pending(int total, long now) {
+            this.parts = new AtCommandHelper.SmsRecord[total];
+            this.firstSeenMs = now;
+        }
+    }
+
+    public ConcatReassembler(long timeoutMs, int maxPending) {
+        this.timeoutMs = timeoutMs;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Nhận 1 phần. Trả về tin đã ghép đủ, chính rec nếu không phải tin nhiều phần,
+     * hoặc null nếu còn thiếu phần.
+     */
+    public synchronized AtCommandHelper.SmsRecord offer(AtCommandHelper.SmsRecord rec) {
+        return offer(rec, System.currentTimeMillis());
+    }
+
+    synchronized AtCommandHelper.SmsRecord offer(AtCommandHelper.SmsRecord rec, long now) {
+        Integer ref = rec.concatRef, total = rec.concatTotal, seq = rec.concatSeq;
+        if (ref == null || total == null || seq == null || total <= 1 || seq < 1 || seq > total) return rec;
+
+        String key = rec.sender + "|" + ref + "|" + total;
+        Pending p = pending.get(key);
+        if (p == null) {
+            if (pending.size() >= maxPending) {
+                Iterator<Map.Entry<String, Pending>> it = pending.entrySet().iterator();
+                overflow.add(merge(it.next().getValue()));
+                it.remove();
+            }
+            p = new Pending(total, now);
+            pending.put(key, p);
+        }
+        if (p.parts[seq - 1] == null) p.received++;
+        p.parts[seq - 1] = rec;   // phần trùng (modem báo lại) thì ghi đè
+
+        if (p.received < total) return null;
+        pending.remove(key);
+        return merge(p);
+    }
+
+    /** Các tin chờ quá timeout (và tin bị đẩy ra do đầy), đã ghép phần có được */
+    public synchronized List<AtCommandHelper.SmsRecord> evictExpired() {
+        return evictExpired(System.currentTimeMillis());
+    }
+
+    synchronized List<AtCommandHelper.SmsRecord> evictExpired(long now) {
+        List<AtCommandHelper.SmsRecord> out = new ArrayList<>(overflow);
+        overflow.clear();
+        Iterator<Pending> it = pending.values().iterator();
+        while (it.hasNext()) {
+            Pending p = it.next();
+            if (now - p.firstSeenMs < timeoutMs) break; // LinkedHashMap theo thứ tự đến
+            out.add(merge(p));
+            it.remove();
+        }
+        return out;
+    }
+
+    /** Đẩy ra toàn bộ tin đang chờ (ghép dở), dùng khi xử lý lại journal xong */
+    public synchronized List<AtCommandHelper.SmsRecord> drainAll() {
+        List<AtCommandHelper.SmsRecord> out = new ArrayList<>(overflow);
+        overflow.clear();
+        pending.values().forEach(p -> out.add(merge(p)));
+        pending.clear();
+        return out;
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    private static AtCommandHelper.SmsRecord merge(Pending p) {
+        AtCommandHelper.SmsRecord first = null;
+        StringBuilder body = new StringBuilder();
+        List<Long> positions = new ArrayList<>();
+        for (AtCommandHelper.SmsRecord part : p.parts) {
+            if (part == null) continue;
+            if (first == null) first = part;
+            if (part.body != null) body.append(part.body);
+            if (part.journalPositions != null) positions.addAll(part.journalPositions);
+        }
+        AtCommandHelper.SmsRecord merged = new AtCommandHelper.SmsRecord();
+        merged.index = first.index;
+        merged.status = first.status;
+        merged.sender = first.sender;
+        merged.timestamp = first.timestamp;
+        merged.body = body.toString();
+        merged.concatRef = first.concatRef;
+        merged.concatTotal = first.concatTotal;
+        merged.incomplete = p.received < p.parts.length;
+        merged.concatSeq = merged.incomplete ? null : 1;
+        merged.journalPositions = positions.isEmpty() ? null : positions;
+        merged.receivedAt = first.receivedAt;
+        merged.replayed = first.replayed;
+        return merged;
+    }
+}
@@ -0,0 +1,16 @@
+package app.simsmartgsm.uitils;
+
+public enum OrderCallbackAction {
+    SUCCESS("success"),   // đã nhận OTP
+    REFUND("refund");     // hết hạn không có OTP
+
+    private final String path;
+
+    OrderCallbackAction(String path) {
+        this.path = path;
+    }
+
+    public String getPath() {
+        return path;
+    }
+}
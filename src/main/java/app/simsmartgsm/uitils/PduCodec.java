@@ -0,0 +1,427 @@
+package app.simsmartgsm.uitils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encode/decode SMS ở PDU mode (3GPP TS 23.040 / 23.038): bảng GSM 7-bit (kèm bảng mở rộng ESC),
+ * UCS2 cho tiếng Nhật/tiếng Việt, UDH (concatenated SMS 8-bit và 16-bit reference),
+ * SMS-SUBMIT để gửi, SMS-DELIVER và SMS-STATUS-REPORT để nhận. Mọi bảng tra cứu dựng sẵn lúc load class.
+ */
+public final class PduCodec {
+
+    private PduCodec() {}
+
+    public static final int DCS_GSM7 = 0x00;
+    public static final int DCS_UCS2 = 0x08;
+
+    static final int MAX_SEPTETS_SINGLE = 160;
+    static final int MAX_SEPTETS_CONCAT = 153;
+    static final int MAX_UCS2_SINGLE = 70;
+    static final int MAX_UCS2_CONCAT = 67;
+
+    private static final int ESC = 0x1B;
+
+    /** Bảng GSM 03.38 mặc định, vị trí = mã septet (0x1B là ESC) */
+    private static final String GSM7_BASIC =
+            "@£$¥èéùìòÇ\nØø\rÅåΔ_ΦΓΛΩΠΨΣΘΞ\u001BÆæßÉ !\"#¤%&'()*+,-./0123456789:;<=>?"
+                    + "¡ABCDEFGHIJKLMNOPQRSTUVWXYZÄÖÑÜ§¿abcdefghijklmnopqrstuvwxyzäöñüà";
+
+    private static final char[] DECODE_BASIC = GSM7_BASIC.toCharArray();
+    private static final char[] DECODE_EXT = new char[128];
+    /** char -> septet, bit 0x100 = cần ESC trước, -1 = không có trong GSM 7-bit */
+    private static final short[] ENCODE = new short[0x20AD];
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final byte[] HEX_VALUE = new byte[128];
+
+    static {
+        if (DECODE_BASIC.length != 128) throw new IllegalStateException("GSM7 table size " + DECODE_BASIC.length);
+        Arrays.fill(ENCODE, (short) -1);
+        for (int i = 0; i < 128; i++) {
+            if (i != ESC) ENCODE[DECODE_BASIC[i]] = (short) i;
+        }
+        String ext = "\f^{}\\[~]|€";
+        int[] codes = {0x0A, 0x14, 0x28, 0x29, 0x2F, 0x3C, 0x3D, 0x3E, 0x40, 0x65};
+        for (int i = 0; i < codes.length; i++) {
+            DECODE_EXT[codes[i]] = ext.charAt(i);
+            ENCODE[ext.charAt(i)] = (short) (0x100 | codes[i]);
+        }
+
+        Arrays.fill(HEX_VALUE, (byte) -1);
+        for (int i = 0; i < 16; i++) {
+            HEX_VALUE[HEX[i]] = (byte) i;
+            HEX_VALUE[Character.toLowerCase(HEX[i])] = (byte) i;
+        }
+    }
+
+    // ===== GSM 7-bit =====
+
+    /** Số septet cần để encode text bằng GSM 7-bit, -1 nếu có ký tự ngoài bảng (phải dùng UCS2) */
+    public static int septetLength(CharSequence text) {
+        int n = 0;
+        for (int i = 0, len = text.length(); i < len; i++) {
+            char c = text.charAt(i);
+            short code = c < ENCODE.length ? ENCODE[c] : -1;
+            if (code < 0) return -1;
+            n += code > 0xFF ? 2 : 1;
+        }
+        return n;
+    }
+
+    /**
+     * Gửi thẳng ở text mode được không: 1 tin, toàn ký tự ASCII có mã GSM trùng mã ASCII
+     * (modem nhận byte nguyên văn nên ký tự như @ $ _ hay dấu tiếng Việt phải đi PDU).
+     */
+    public static boolean isTextModeSafe(CharSequence text) {
+        if (text.length() > MAX_SEPTETS_SINGLE) return false;
+        for (int i = 0, len = text.length(); i < len; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80 || ENCODE[c] != c) return false;
+        }
+        return true;
+    }
+
+    static byte[] toSeptets(CharSequence text, int septetCount) {
+        byte[] out = new byte[septetCount];
+        int n = 0;
+        for (int i = 0, len = text.length(); i < len; i++) {
+            short code = ENCODE[text.charAt(i)];
+            if (code > 0xFF) {
+                out[n++] = ESC;
+                out[n++] = (byte) (code & 0x7F);
+            } else {
+                out[n++] = (byte) code;
+            }
+        }
+        return out;
+    }
+
+    /** Ghép septet vào buffer bắt đầu từ bit fillBits của out[offset], trả về số byte đã dùng */
+    static int packSeptets(byte[] septets, int from, int count, byte[] out, int offset, int fillBits) {
+        for (int i = 0; i < count; i++) {
+            int bit = fillBits + i * 7;
+            int idx = offset + (bit >>> 3);
+            int shift = bit & 7;
+            int s = septets[from + i] & 0x7F;
+            out[idx] |= (byte) (s << shift);
+            if (shift > 1) out[idx + 1] |= (byte) (s >>> (8 - shift));
+        }
+        return (fillBits + count * 7 + 7) >>> 3;
+    }
+
+    /** Giải count septet bắt đầu từ septet thứ firstSeptet (tính từ data[offset]) */
+    static String unpackSeptets(byte[] data, int offset, int firstSeptet, int count) {
+        StringBuilder sb = new StringBuilder(count);
+        boolean escape = false;
+        for (int i = 0; i < count; i++) {
+            int bit = (firstSeptet + i) * 7;
+            int idx = offset + (bit >>> 3);
+            if (idx >= data.length) break;
+            int shift = bit & 7;
+            int v = (data[idx] & 0xFF) >>> shift;
+            if (shift > 1 && idx + 1 < data.length) v |= (data[idx + 1] & 0xFF) << (8 - shift);
+            v &= 0x7F;
+            if (escape) {
+                char e = DECODE_EXT[v];
+                sb.append(e != 0 ? e : DECODE_BASIC[v]);
+                escape = false;
+            } else if (v == ESC) {
+                escape = true;
+            } else {
+                sb.append(DECODE_BASIC[v]);
+            }
+        }
+        return sb.toString();
+    }
+
+    // ===== SMS-SUBMIT =====
+
+    /** 1 PDU gửi bằng AT+CMGS=&lt;tpduLength&gt; */
+    public record SubmitPdu(String hex, int tpduLength) {}
+
+    /**
+     * Encode SMS-SUBMIT, tự chọn GSM 7-bit hoặc UCS2 và tách thành nhiều phần (UDH 8-bit reference)
+     * nếu dài. SCA để trống (dùng SMSC của SIM), validity 24h.
+     */
+    public static List<SubmitPdu> encodeSubmit(String to, String text, boolean statusReport, int concatRef) {
+        int septets = septetLength(text);
+        List<SubmitPdu> out = new ArrayList<>();
+        if (septets >= 0) {
+            byte[] all = toSeptets(text, septets);
+            if (septets <= MAX_SEPTETS_SINGLE) {
+                out.add(buildSubmit(to, statusReport, DCS_GSM7, null, all, 0, septets, null, 0, 0));
+                return out;
+            }
+            List<int[]> chunks = new ArrayList<>();
+            for (int pos = 0; pos < septets; ) {
+                int n = Math.min(MAX_SEPTETS_CONCAT, septets - pos);
+                // không tách ESC khỏi ký tự mở rộng phía sau
+                if (pos + n < septets && all[pos + n - 1] == ESC) n--;
+                chunks.add(new int[]{pos, n});
+                pos += n;
+            }
+            checkParts(chunks.size());
+            for (int i = 0; i < chunks.size(); i++) {
+                byte[] udh = concatUdh(concatRef, chunks.size(), i + 1);
+                out.add(buildSubmit(to, statusReport, DCS_GSM7, udh, all, chunks.get(i)[0], chunks.get(i)[1], null, 0, 0));
+            }
+            return out;
+        }
+
+        byte[] ucs2 = text.getBytes(StandardCharsets.UTF_16BE);
+        int chars = text.length();
+        if (chars <= MAX_UCS2_SINGLE) {
+            out.add(buildSubmit(to, statusReport, DCS_UCS2, null, null, 0, 0, ucs2, 0, ucs2.length));
+            return out;
+        }
+        List<int[]> chunks = new ArrayList<>();
+        for (int pos = 0; pos < chars; ) {
+            int n = Math.min(MAX_UCS2_CONCAT, chars - pos);
+            // không tách cặp surrogate (emoji, chữ Hán hiếm)
+            if (pos + n < chars && Character.isHighSurrogate(text.charAt(pos + n - 1))) n--;
+            chunks.add(new int[]{pos, n});
+            pos += n;
+        }
+        checkParts(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            byte[] udh = concatUdh(concatRef, chunks.size(), i + 1);
+            out.add(buildSubmit(to, statusReport, DCS_UCS2, udh, null, 0, 0, ucs2, chunks.get(i)[0] * 2, chunks.get(i)[1] * 2));
+        }
+        return out;
+    }
+
+    private static void checkParts(int parts) {
+        if (parts > 255) throw new IllegalArgumentException("SMS quá dài: " + parts + " phần");
+    }
+
+    private static byte[] concatUdh(int ref, int total, int seq) {
+        return new byte[]{0x00, 0x03, (byte) ref, (byte) total, (byte) seq};
+    }
+
+    private static SubmitPdu buildSubmit(String to, boolean statusReport, int dcs, byte[] udh,
+                                         byte[] septets, int septetFrom, int septetCount,
+                                         byte[] octets, int octetFrom, int octetCount) {
+        String digits = digitsOf(to);
+        byte[] buf = new byte[16 + digits.length() / 2 + 140];
+        int p = 0;
+        buf[p++] = 0x00;                                         // SCA: dùng SMSC mặc định
+        int fo = 0x11;                                           // SMS-SUBMIT + VP relative
+        if (statusReport) fo |= 0x20;
+        if (udh != null) fo |= 0x40;
+        buf[p++] = (byte) fo;
+        buf[p++] = 0x00;                                         // TP-MR do modem gán
+        buf[p++] = (byte) digits.length();
+        buf[p++] = (byte) (to != null && to.trim().startsWith("+") ? 0x91 : 0x81);
+        p = writeSemiOctets(digits, buf, p);
+        buf[p++] = 0x00;                                         // PID
+        buf[p++] = (byte) dcs;
+        buf[p++] = (byte) 0xA7;                                  // VP 24h
+
+        int udhOctets = udh == null ? 0 : udh.length + 1;
+        if (dcs == DCS_GSM7) {
+            int headerSeptets = (udhOctets * 8 + 6) / 7;
+            buf[p++] = (byte) (headerSeptets + septetCount);
+            int udStart = p;
+            if (udh != null) {
+                buf[p++] = (byte) udh.length;
+                System.arraycopy(udh, 0, buf, p, udh.length);
+            }
+            int fill = headerSeptets * 7 - udhOctets * 8;
+            int used = packSeptets(septets, septetFrom, septetCount, buf, udStart + udhOctets, fill);
+            p = udStart + udhOctets + used;
+        } else {
+            buf[p++] = (byte) (udhOctets + octetCount);
+            if (udh != null) {
+                buf[p++] = (byte) udh.length;
+                System.arraycopy(udh, 0, buf, p, udh.length);
+                p += udh.length;
+            }
+            System.arraycopy(octets, octetFrom, buf, p, octetCount);
+            p += octetCount;
+        }
+        return new SubmitPdu(toHex(buf, 0, p), p - 1);
+    }
+
+    private static String digitsOf(String number) {
+        if (number == null) throw new IllegalArgumentException("Số nhận trống");
+        StringBuilder sb = new StringBuilder(number.length());
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') sb.append(c);
+        }
+        if (sb.isEmpty()) throw new IllegalArgumentException("Số nhận không hợp lệ: " + number);
+        return sb.toString();
+    }
+
+    private static int writeSemiOctets(String digits, byte[] buf, int p) {
+        for (int i = 0; i < digits.length(); i += 2) {
+            int lo = digits.charAt(i) - '0';
+            int hi = i + 1 < digits.length() ? digits.charAt(i + 1) - '0' : 0x0F;
+            buf[p++] = (byte) ((hi << 4) | lo);
+        }
+        return p;
+    }
+
+    // ===== SMS-DELIVER / SMS-STATUS-REPORT =====
+
+    /** Thông tin concatenated SMS lấy từ UDH */
+    public record Concat(int ref, int total, int seq) {}
+
+    /** SMS nhận được, timestamp cùng format với text mode: yy/MM/dd,hh:mm:ss±zz */
+    public record Deliver(String smsc, String sender, String timestamp, int dcs, String text, Concat concat) {}
+
+    public static Deliver decodeDeliver(String hex) {
+        byte[] b = fromHex(hex);
+        int p = 0;
+        int scaLen = b[p++] & 0xFF;
+        String smsc = scaLen > 0 ? decodeAddress(b, p + 1, (scaLen - 1) * 2, b[p] & 0xFF) : null;
+        p += scaLen;
+
+        int fo = b[p++] & 0xFF;
+        if ((fo & 0x03) != 0x00) throw new IllegalArgumentException("Không phải SMS-DELIVER, MTI=" + (fo & 0x03));
+        boolean udhi = (fo & 0x40) != 0;
+
+        int oaDigits = b[p++] & 0xFF;
+        int oaToa = b[p++] & 0xFF;
+        String sender = decodeAddress(b, p, oaDigits, oaToa);
+        p += (oaDigits + 1) / 2;
+
+        p++;                                                     // PID
+        int dcs = b[p++] & 0xFF;
+        String scts = decodeTimestamp(b, p);
+        p += 7;
+        int udl = b[p++] & 0xFF;
+
+        Concat[] concat = new Concat[1];
+        String text = decodeUserData(b, p, udl, dcs, udhi, concat);
+        return new Deliver(smsc, sender, scts, dcs, text, concat[0]);
+    }
+
+    /** +CDS ở PDU mode (dòng hex sau "+CDS: &lt;length&gt;") */
+    public static AtCommandHelper.StatusReport decodeStatusReport(String hex) {
+        byte[] b = fromHex(hex);
+        int p = 0;
+        p += (b[p] & 0xFF) + 1;                                  // SCA
+        int fo = b[p++] & 0xFF;
+        if ((fo & 0x03) != 0x02) throw new IllegalArgumentException("Không phải SMS-STATUS-REPORT, MTI=" + (fo & 0x03));
+        int mr = b[p++] & 0xFF;
+        int raDigits = b[p++] & 0xFF;
+        int raToa = b[p++] & 0xFF;
+        String recipient = decodeAddress(b, p, raDigits, raToa);
+        p += (raDigits + 1) / 2;
+        String scts = decodeTimestamp(b, p);
+        p += 7;
+        String dt = decodeTimestamp(b, p);
+        p += 7;
+        int st = b[p] & 0xFF;
+        return new AtCommandHelper.StatusReport(mr, recipient, scts, dt, st);
+    }
+
+    /** 0 = GSM 7-bit, 1 = 8-bit, 2 = UCS2 */
+    static int alphabetOf(int dcs) {
+        if ((dcs & 0x80) == 0) return (dcs >>> 2) & 0x03;         // general coding group 00xx/01xx
+        if ((dcs & 0xF0) == 0xF0) return (dcs & 0x04) != 0 ? 1 : 0;
+        if ((dcs & 0xF0) == 0xE0) return 2;                       // MWI group UCS2
+        return 0;
+    }
+
+    private static String decodeUserData(byte[] b, int p, int udl, int dcs, boolean udhi, Concat[] concat) {
+        int alphabet = alphabetOf(dcs);
+        int headerOctets = 0;
+        if (udhi && p < b.length) {
+            int udhl = b[p] & 0xFF;
+            headerOctets = udhl + 1;
+            concat[0] = parseUdh(b, p + 1, Math.min(p + 1 + udhl, b.length));
+        }
+        if (alphabet == 0) {
+            int skip = (headerOctets * 8 + 6) / 7;
+            return unpackSeptets(b, p, skip, Math.max(0, udl - skip));
+        }
+        int from = p + headerOctets;
+        int len = Math.max(0, Math.min(udl - headerOctets, b.length - from));
+        return new String(b, from, len, alphabet == 2 ? StandardCharsets.UTF_16BE : StandardCharsets.ISO_8859_1);
+    }
+
+    /** Duyệt các IE trong UDH, lấy IE concatenated (0x00: ref 8-bit, 0x08: ref 16-bit) */
+    static Concat parseUdh(byte[] b, int from, int to) {
+        Concat concat = null;
+        int p = from;
+        while (p + 1 < to) {
+            int iei = b[p] & 0xFF;
+            int len = b[p + 1] & 0xFF;
+            int data = p + 2;
+            if (data + len > to) break;
+            if (iei == 0x00 && len == 3) {
+                concat = new Concat(b[data] & 0xFF, b[data + 1] & 0xFF, b[data + 2] & 0xFF);
+            } else if (iei == 0x08 && len == 4) {
+                concat = new Concat(((b[data] & 0xFF) << 8) | (b[data + 1] & 0xFF), b[data + 2] & 0xFF, b[data + 3] & 0xFF);
+            }
+            p = data + len;
+        }
+        return concat;
+    }
+
+    private static String decodeAddress(byte[] b, int p, int digits, int toa) {
+        if ((toa & 0x70) == 0x50) {                               // alphanumeric (vd: "Telegram")
+            return unpackSeptets(b, p, 0, digits * 4 / 7);
+        }
+        StringBuilder sb = new StringBuilder(digits + 1);
+        if ((toa & 0x70) == 0x10) sb.append('+');
+        for (int i = 0; i < digits; i++) {
+            int idx = p + (i >>> 1);
+            if (idx >= b.length) break;
+            int nibble = (i & 1) == 0 ? b[idx] & 0x0F : (b[idx] >>> 4) & 0x0F;
+            if (nibble > 9) break;
+            sb.append((char) ('0' + nibble));
+        }
+        return sb.toString();
+    }
+
+    private static String decodeTimestamp(byte[] b, int p) {
+        StringBuilder sb = new StringBuilder(20);
+        for (int i = 0; i < 6; i++) {
+            int v = b[p + i] & 0xFF;
+            sb.append((char) ('0' + (v & 0x0F))).append((char) ('0' + ((v >>> 4) & 0x0F)));
+            if (i < 2) sb.append('/');
+            else if (i == 2) sb.append(',');
+            else if (i < 5) sb.append(':');
+        }
+        int tz = b[p + 6] & 0xFF;
+        int quarters = (tz & 0x07) * 10 + ((tz >>> 4) & 0x0F);
+        sb.append((tz & 0x08) != 0 ? '-' : '+');
+        if (quarters < 10) sb.append('0');
+        return sb.append(quarters).toString();
+    }
+
+    // ===== hex =====
+
+    public static String toHex(byte[] b, int from, int to) {
+        char[] out = new char[(to - from) * 2];
+        for (int i = from, j = 0; i < to; i++) {
+            out[j++] = HEX[(b[i] >>> 4) & 0x0F];
+            out[j++] = HEX[b[i] & 0x0F];
+        }
+        return new String(out);
+    }
+
+    public static byte[] fromHex(String hex) {
+        String s = hex.trim();
+        if ((s.length() & 1) != 0) throw new IllegalArgumentException("Độ dài hex lẻ");
+        byte[] out = new byte[s.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            int hi = hexValue(s.charAt(2 * i));
+            int lo = hexValue(s.charAt(2 * i + 1));
+            out[i] = (byte) ((hi << 4) | lo);
+        }
+        return out;
+    }
+
+    private static int hexValue(char c) {
+        int v = c < 128 ? HEX_VALUE[c] : -1;
+        if (v < 0) throw new IllegalArgumentException("Ký tự hex không hợp lệ: " + c);
+        return v;
+    }
+}
@@ -2,12 +2,18 @@ package app.simsmartgsm.uitils;
 
 import app.simsmartgsm.entity.Sim;
 import app.simsmartgsm.service.GsmListenerService;
+import app.simsmartgsm.service.SmsJournal;
+import app.simsmartgsm.service.SmsOutboxService;
 import com.fazecast.jSerialComm.SerialPort;
 import lombok.extern.slf4j.Slf4j;
 
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 @Slf4j
 public class PortWorker implements Runnable {
@@ -17,17 +23,33 @@ public class PortWorker implements Runnable {
     private final BlockingQueue<Task> queue = new LinkedBlockingQueue<>();
     private volatile boolean running = true;
     private final GsmListenerService listenerService;
+    private final SmsJournal journal;
+    private final SmsOutboxService outbox;
+    /** PDU mode: nhận/gửi UCS2 và tin nhiều phần; false = text mode như cũ */
+    private final boolean pduMode;
+    private final ConcatReassembler reassembler;
 
     private SerialPort port;
     private AtCommandHelper helper;
 
+    /** Số lần lỗi liên tiếp (mở port / scan / send), reset khi scan thành công */
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private static final int DOWN_THRESHOLD = 3;
+
+    public enum Health { OK, DEGRADED, DOWN }
+
     // ✅ thêm scheduler cho retry scan
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
 
-    public PortWorker(Sim sim, long scanIntervalMs, GsmListenerService listenerService) {
+    public PortWorker(Sim sim, long scanIntervalMs, GsmListenerService listenerService, SmsJournal journal,
+                      SmsOutboxService outbox, boolean pduMode, ConcatReassembler reassembler) {
         this.sim = sim;
         this.scanIntervalMs = scanIntervalMs;
         this.listenerService = listenerService;
+        this.journal = journal;
+        this.outbox = outbox;
+        this.pduMode = pduMode;
+        this.reassembler = reassembler;
     }
 
     public void stop() {
@@ -36,11 +58,36 @@ public class PortWorker implements Runnable {
         scheduler.shutdownNow();
     }
 
+    public Sim getSim() {
+        return sim;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public Health getHealth() {
+        int failures = consecutiveFailures.get();
+        if (failures >= DOWN_THRESHOLD || port == null || !port.isOpen()) return Health.DOWN;
+        return failures > 0 ? Health.DEGRADED : Health.OK;
+    }
+
     /** Đẩy task gửi SMS vào queue */
     public void sendSms(String to, String content) {
         queue.offer(new Task(TaskType.SEND, to, content));
     }
 
+    /**
+     * Như trên, onStart chạy khi task ra khỏi queue, onDone nhận kết quả CMGS (đều trên thread worker).
+     * onStart trả false (caller đã huỷ trong lúc chờ) thì bỏ tin, không gửi và không gọi onDone.
+     */
+    public void sendSms(String to, String content, BooleanSupplier onStart, Consumer<AtCommandHelper.SendResult> onDone) {
+        Task task = new Task(TaskType.SEND, to, content);
+        task.onStart = onStart;
+        task.onDone = onDone;
+        queue.offer(task);
+    }
+
     /** Đẩy task quét SMS vào queue */
     public void forceScan() {
         queue.offer(new Task(TaskType.SCAN, null, null));
@@ -52,6 +99,7 @@ public class PortWorker implements Runnable {
         while (running) {
             try {
                 if (!ensurePort()) {
+                    consecutiveFailures.incrementAndGet();
                     safeSleep(2000);
                     continue;
                 }
@@ -59,7 +107,7 @@ public class PortWorker implements Runnable {
                 Task task = queue.poll();
                 if (task != null) {
                     if (task.type == TaskType.SEND) {
-                        doSendSms(task.to, task.content);
+                        doSendSms(task);
                     } else if (task.type == TaskType.SCAN) {
                         doScanSms();
                     }
@@ -70,6 +118,7 @@ public class PortWorker implements Runnable {
 
             } catch (Exception e) {
                 log.error("❌ Worker error on {}: {}", sim.getComName(), e.getMessage(), e);
+                consecutiveFailures.incrementAndGet();
                 closePort();
                 safeSleep(2000);
             }
@@ -95,9 +144,10 @@ public class PortWorker implements Runnable {
             }
 
             helper = new AtCommandHelper(port);
-            helper.setTextMode(true);
+            helper.setTextMode(!pduMode);
             helper.setCharset("GSM");
-            helper.setNewMessageIndicationDefault(); // CNMI
+            helper.enableStatusReports();            // CSMP, xin delivery report
+            helper.setNewMessageIndicationDefault(); // CNMI (+CMTI, +CDS)
             startUrcListener();
 
             log.info("✅ Opened port {}", sim.getComName());
@@ -116,22 +166,32 @@ public class PortWorker implements Runnable {
                 var in = port.getInputStream();
                 byte[] buf = new byte[256];
                 StringBuilder sb = new StringBuilder();
+                boolean cdsPduNext = false;
                 while (running && port.isOpen()) {
                     int n = in.read(buf);
                     if (n > 0) {
                         String chunk = new String(buf, 0, n, StandardCharsets.ISO_8859_1);
                         sb.append(chunk);
 
-                        String all = sb.toString();
-                        if (all.contains("\r\n")) {
-                            String[] lines = all.split("\r\n");
-                            for (String line : lines) {
-                                if (line.contains("+CMTI:")) {
-                                    log.info("📨 URC báo có SMS mới trên {}", sim.getComName());
-                                    forceScan();
+                        // chỉ xử lý dòng đã đủ, phần dở dang giữ lại cho lần đọc sau
+                        int end;
+                        while ((end = sb.indexOf("\r\n")) >= 0) {
+                            String line = sb.substring(0, end);
+                            sb.delete(0, end + 2);
+                            if (cdsPduNext) {
+                                // PDU mode: dòng sau "+CDS: <length>" là PDU hex của status report
+                                cdsPduNext = false;
+                                if (!line.isBlank()) onStatusReportPdu(line.trim());
+                            } else if (line.contains("+CMTI:")) {
+                                log.info("📨 URC báo có SMS mới trên {}", sim.getComName());
+                                forceScan();
+                            } else if (line.contains("+CDS:")) {
+                                if (AtCommandHelper.parseCds(line) == null && line.trim().matches("\\+CDS:\\s*\\d+")) {
+                                    cdsPduNext = true;
+                                } else {
+                                    onStatusReport(line);
                                 }
                             }
-                            sb.setLength(0);
                         }
                     }
                 }
@@ -143,6 +203,34 @@ public class PortWorker implements Runnable {
         }, "URC-" + sim.getComName()).start();
     }
 
+    private void onStatusReport(String line) {
+        AtCommandHelper.StatusReport report = AtCommandHelper.parseCds(line);
+        if (report == null) {
+            log.warn("⚠️ Không parse được +CDS trên {}: {}", sim.getComName(), line);
+            return;
+        }
+        try {
+            outbox.onStatusReport(sim.getComName(), report);
+        } catch (Exception e) {
+            log.warn("⚠️ Xử lý +CDS lỗi on {}: {}", sim.getComName(), e.getMessage());
+        }
+    }
+
+    private void onStatusReportPdu(String hex) {
+        AtCommandHelper.StatusReport report;
+        try {
+            report = PduCodec.decodeStatusReport(hex);
+        } catch (RuntimeException e) {
+            log.warn("⚠️ Không decode được +CDS PDU trên {}: {}", sim.getComName(), hex);
+            return;
+        }
+        try {
+            outbox.onStatusReport(sim.getComName(), report);
+        } catch (Exception e) {
+            log.warn("⚠️ Xử lý +CDS lỗi on {}: {}", sim.getComName(), e.getMessage());
+        }
+    }
+
     /** Đóng port */
     private void closePort() {
         try { if (helper != null) helper.close(); } catch (Exception ignored) {}
@@ -152,9 +240,18 @@ public class PortWorker implements Runnable {
     }
 
     /** Gửi SMS */
-    private void doSendSms(String to, String content) {
+    private void doSendSms(Task task) {
+        String to = task.to;
+        if (task.onStart != null && !task.onStart.getAsBoolean()) {
+            log.info("⏭️ Bỏ tin tới {} trên {}: đã huỷ trước khi gửi", to, sim.getComName());
+            return;
+        }
+        AtCommandHelper.SendResult result = null;
         try {
-            boolean ok = helper.sendTextSms(to, content, Duration.ofSeconds(30));
+            result = pduMode
+                    ? helper.sendPduSmsDetailed(to, task.content, Duration.ofSeconds(30))
+                    : helper.sendTextSmsDetailed(to, task.content, Duration.ofSeconds(30));
+            boolean ok = result.ok();
             log.info("📤 SEND result on {} -> {} : {}", sim.getComName(), to, ok ? "✅ OK" : "❌ FAIL");
 
             if (ok) {
@@ -166,14 +263,36 @@ public class PortWorker implements Runnable {
             }
         } catch (Exception e) {
             log.error("❌ SEND error on {}: {}", sim.getComName(), e.getMessage());
+            consecutiveFailures.incrementAndGet();
             closePort();
+            result = new AtCommandHelper.SendResult(false, null, null, String.valueOf(e.getMessage()));
+        } finally {
+            try {
+                outbox.recordSubmit(sim.getComName(), sim.getPhoneNumber(), to, task.content, result);
+            } catch (Exception e) {
+                log.warn("⚠️ Không ghi được outbox on {}: {}", sim.getComName(), e.getMessage());
+            }
+            if (task.onDone != null) {
+                try {
+                    task.onDone.accept(result);
+                } catch (Exception e) {
+                    log.warn("⚠️ Send callback lỗi on {}: {}", sim.getComName(), e.getMessage());
+                }
+            }
         }
     }
 
     /** Quét SMS mới */
     private void doScanSms() {
+        // tin nhiều phần chờ quá lâu: lưu phần đã có (không match OTP) để journal không kẹt
+        for (var partial : reassembler.evictExpired()) {
+            log.warn("🧩 {} SMS nhiều phần từ {} thiếu phần (ref={}), chỉ lưu phần đã nhận",
+                    sim.getComName(), partial.sender, partial.concatRef);
+            processSafely(partial);
+        }
         try {
-            var smsList = helper.listUnreadSmsText(5000);
+            var smsList = pduMode ? helper.listUnreadSmsPdu(5000) : helper.listUnreadSmsText(5000);
+            consecutiveFailures.set(0);
             if (smsList.isEmpty()) {
                 log.debug("📭 {} no unread SMS", sim.getComName());
                 return;
@@ -182,13 +301,25 @@ public class PortWorker implements Runnable {
             for (var rec : smsList) {
                 log.info("📩 {} got SMS from {}: {}", sim.getComName(), rec.sender, rec.body);
 
+                // ghi journal local trước, chỉ xoá khỏi SIM khi đã ghi được
+                boolean journaled = false;
                 try {
-                    listenerService.processSms(sim, rec);
+                    rec.journalPositions = List.of(journal.append(sim, rec));
+                    journaled = true;
                 } catch (Exception e) {
-                    log.error("❌ Error processing SMS {} on {}: {}", rec, sim.getComName(), e.getMessage(), e);
+                    log.error("❌ Không ghi được journal SMS {} on {}: {}", rec, sim.getComName(), e.getMessage(), e);
+                }
+
+                // phần của tin dài: journal + xoá từng phần, chỉ xử lý khi đã ghép đủ
+                var complete = reassembler.offer(rec);
+                if (complete != null) {
+                    processSafely(complete);
+                } else {
+                    log.debug("🧩 {} nhận phần {}/{} ref={} từ {}", sim.getComName(),
+                            rec.concatSeq, rec.concatTotal, rec.concatRef, rec.sender);
                 }
 
-                if (rec.index != null) {
+                if (rec.index != null && journaled) {
                     try {
                         boolean deleted = helper.deleteSms(rec.index);
                         if (deleted) {
@@ -203,10 +334,21 @@ public class PortWorker implements Runnable {
             }
         } catch (Exception e) {
             log.error("❌ SCAN error {}: {}", sim.getComName(), e.getMessage());
+            consecutiveFailures.incrementAndGet();
             closePort();
         }
     }
 
+    /** Chỉ đánh dấu journal khi processSms chạy xong, lỗi thì để lần restart sau xử lý lại */
+    private void processSafely(AtCommandHelper.SmsRecord rec) {
+        try {
+            listenerService.processSms(sim, rec);
+            if (rec.journalPositions != null) rec.journalPositions.forEach(journal::markProcessed);
+        } catch (Exception e) {
+            log.error("❌ Error processing SMS {} on {}: {}", rec, sim.getComName(), e.getMessage(), e);
+        }
+    }
+
     private void safeSleep(long ms) {
         try { Thread.sleep(ms); } catch (InterruptedException ignored) {}
     }
@@ -218,6 +360,8 @@ public class PortWorker implements Runnable {
         TaskType type;
         String to;
         String content;
+        BooleanSupplier onStart;
+        Consumer<AtCommandHelper.SendResult> onDone;
         Task(TaskType type, String to, String content) {
             this.type = type;
             this.to = to;
@@ -0,0 +1,8 @@
+package app.simsmartgsm.uitils;
+public enum RentalStatus {
+    ACTIVE,
+    COMPLETED,
+    /** Hết hạn không có OTP, callback refund đã lưu nhưng order API chưa xác nhận */
+    REFUND_PENDING,
+    REFUNDED
+}
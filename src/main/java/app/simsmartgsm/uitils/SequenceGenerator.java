@@ -1,6 +1,7 @@
 package app.simsmartgsm.uitils;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.data.mongodb.core.query.Criteria;
@@ -8,24 +9,108 @@ import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Component;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cấp id tăng dần theo kiểu hi/lo: mỗi lần findAndModify giữ trước 1 block (blockSize id)
+ * trên Mongo, sau đó cấp id trong block bằng AtomicLong ở local. Các node khác nhau
+ * luôn nhận block khác nhau nên id vẫn unique; block kế tiếp được lấy trước ở nền
+ * khi block hiện tại còn lại dưới 20%.
+ */
 @Component
 public class SequenceGenerator {
 
     private final MongoOperations mongoOperations;
+    private final long blockSize;
+    private final Map<String, Allocator> allocators = new ConcurrentHashMap<>();
+    private final ExecutorService refiller = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "sequence-refill");
+        t.setDaemon(true);
+        return t;
+    });
 
     @Autowired
-    public SequenceGenerator(MongoOperations mongoOperations) {
+    public SequenceGenerator(MongoOperations mongoOperations,
+                             @Value("${gsm.sequence.block-size:1000}") long blockSize) {
         this.mongoOperations = mongoOperations;
+        this.blockSize = Math.max(1, blockSize);
     }
 
     public long generateSequence(String seqName) {
+        return allocators.computeIfAbsent(seqName, Allocator::new).next();
+    }
+
+    /** Giữ trước block [hi - blockSize + 1, hi] bằng 1 lần $inc */
+    private Block reserveBlock(String seqName) {
         var counter = mongoOperations.findAndModify(
                 Query.query(Criteria.where("_id").is(seqName)),
-                new Update().inc("seq", 1),
+                new Update().inc("seq", blockSize),
                 FindAndModifyOptions.options().returnNew(true).upsert(true),
                 Sequence.class
         );
-        return counter != null ? counter.getSeq() : 1;
+        long hi = counter != null ? counter.getSeq() : blockSize;
+        return new Block(hi - blockSize + 1, hi);
+    }
+
+    private static final class Block {
+        final AtomicLong next;
+        final long hi;
+
+        Block(long lo, long hi) {
+            this.next = new AtomicLong(lo);
+            this.hi = hi;
+        }
+    }
+
+    private final class Allocator {
+        private final String seqName;
+        private final long refillAt;
+        private volatile Block current;
+        private CompletableFuture<Block> prefetch;
+
+        Allocator(String seqName) {
+            this.seqName = seqName;
+            this.refillAt = blockSize / 5;
+        }
+
+        long next() {
+            while (true) {
+                Block block = current;
+                if (block != null) {
+                    long id = block.next.getAndIncrement();
+                    if (id <= block.hi) {
+                        if (block.hi - id == refillAt) startPrefetch();
+                        return id;
+                    }
+                }
+                switchBlock(block);
+            }
+        }
+
+        private synchronized void startPrefetch() {
+            if (prefetch == null) {
+                prefetch = CompletableFuture.supplyAsync(() -> reserveBlock(seqName), refiller);
+            }
+        }
+
+        private synchronized void switchBlock(Block exhausted) {
+            if (current != exhausted) return; // thread khác đã đổi block
+            Block nextBlock = null;
+            if (prefetch != null) {
+                try {
+                    nextBlock = prefetch.join();
+                } catch (Exception ignored) {
+                    // prefetch lỗi: lấy đồng bộ bên dưới
+                }
+                prefetch = null;
+            }
+            current = nextBlock != null ? nextBlock : reserveBlock(seqName);
+        }
     }
 }
 
@@ -0,0 +1,84 @@
+package app.simsmartgsm.bench;
+
+import app.simsmartgsm.config.BrokerCodec;
+import app.simsmartgsm.dto.response.OtpEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * So sánh encode OTP trên broker link: HashMap + ObjectMapper (cách cũ), OtpEvent + ObjectWriter
+ * dựng sẵn (từng frame) và frame batch. Chạy tay: main() của class này (classpath test).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OtpEncodingBenchmark {
+
+    @Param({"1", "20"})
+    public int burst;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final BrokerCodec codec = new BrokerCodec();
+    private List<OtpEvent> events;
+    private List<Map<String, Object>> maps;
+
+    @Setup
+    public void setup() {
+        events = new ArrayList<>();
+        maps = new ArrayList<>();
+        for (int i = 0; i < burst; i++) {
+            OtpEvent e = OtpEvent.builder()
+                    .deviceName("GSM-NODE-01").phoneNumber("84901234567").comNumber("COM" + (10 + i))
+                    .customerId(1000L + i).serviceCode("telegram").countryName("VN")
+                    .smsContent("Telegram code: 482913. Do not give this code to anyone")
+                    .fromNumber("Telegram").otp("482913").receivedAt(System.currentTimeMillis())
+                    .build();
+            events.add(e);
+            Map<String, Object> m = new HashMap<>();
+            m.put("deviceName", e.deviceName());
+            m.put("phoneNumber", e.phoneNumber());
+            m.put("comNumber", e.comNumber());
+            m.put("customerId", e.customerId());
+            m.put("serviceCode", e.serviceCode());
+            m.put("countryName", e.countryName());
+            m.put("smsContent", e.smsContent());
+            m.put("fromNumber", e.fromNumber());
+            m.put("otp", e.otp());
+            maps.add(m);
+        }
+    }
+
+    @Benchmark
+    public int legacyMapPerFrame() throws Exception {
+        int bytes = 0;
+        for (Map<String, Object> m : maps) bytes += mapper.writeValueAsBytes(m).length;
+        return bytes;
+    }
+
+    @Benchmark
+    public int typedPerFrame() {
+        int bytes = 0;
+        for (OtpEvent e : events) bytes += codec.encodeOtp(e).length;
+        return bytes;
+    }
+
+    @Benchmark
+    public int typedBatchFrame() {
+        return codec.encodeOtpBatch(events).length;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(OtpEncodingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
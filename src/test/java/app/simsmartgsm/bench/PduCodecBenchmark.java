@@ -0,0 +1,81 @@
+package app.simsmartgsm.bench;
+
+import app.simsmartgsm.uitils.AtCommandHelper;
+import app.simsmartgsm.uitils.ConcatReassembler;
+import app.simsmartgsm.uitils.PduCodec;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Đo codec PDU: encode SMS-SUBMIT (GSM 7-bit, UCS2, tin 3 phần), decode SMS-DELIVER
+ * và ghép 3 phần qua ConcatReassembler. Chạy tay: main() của class này (classpath test).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PduCodecBenchmark {
+
+    private static final String TO = "+84901234567";
+    private static final String GSM7 = "Telegram code: 482913. Do not give this code to anyone, even if they say they are from Telegram!";
+    private static final String UCS2 = "Mã xác thực Zalo của bạn là 482913. Không chia sẻ mã này.";
+    private static final String LONG = "Ma xac thuc cua ban la 482913, co hieu luc trong 5 phut. ".repeat(7);
+    private static final String DELIVER_HEX =
+            "07917283010010F5040BC87238880900F10000993092516195800AE8329BFD4697D9EC37";
+
+    private AtCommandHelper.SmsRecord[] parts;
+
+    @Setup
+    public void setup() {
+        List<PduCodec.SubmitPdu> submit = PduCodec.encodeSubmit(TO, LONG, false, 1);
+        parts = new AtCommandHelper.SmsRecord[submit.size()];
+        for (int i = 0; i < parts.length; i++) {
+            AtCommandHelper.SmsRecord rec = new AtCommandHelper.SmsRecord();
+            rec.index = i;
+            rec.sender = TO;
+            rec.body = LONG.substring(i * 153, Math.min(LONG.length(), (i + 1) * 153));
+            rec.concatRef = 1;
+            rec.concatTotal = parts.length;
+            rec.concatSeq = i + 1;
+            parts[i] = rec;
+        }
+    }
+
+    @Benchmark
+    public List<PduCodec.SubmitPdu> encodeGsm7() {
+        return PduCodec.encodeSubmit(TO, GSM7, true, 0);
+    }
+
+    @Benchmark
+    public List<PduCodec.SubmitPdu> encodeUcs2() {
+        return PduCodec.encodeSubmit(TO, UCS2, true, 0);
+    }
+
+    @Benchmark
+    public List<PduCodec.SubmitPdu> encodeMultipart() {
+        return PduCodec.encodeSubmit(TO, LONG, true, 1);
+    }
+
+    @Benchmark
+    public PduCodec.Deliver decodeDeliver() {
+        return PduCodec.decodeDeliver(DELIVER_HEX);
+    }
+
+    @Benchmark
+    public AtCommandHelper.SmsRecord reassemble() {
+        ConcatReassembler reassembler = new ConcatReassembler(60_000, 16);
+        AtCommandHelper.SmsRecord merged = null;
+        for (int i = parts.length - 1; i >= 0; i--) merged = reassembler.offer(parts[i]);
+        return merged;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(PduCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,56 @@
+package app.simsmartgsm.config;
+
+import app.simsmartgsm.entity.InboundSms;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class MongoIndexInitializerTests {
+
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+	private final IndexOperations ops = mock(IndexOperations.class);
+
+	private MongoIndexInitializer initializer(long ttlDays) {
+		when(mongoTemplate.indexOps(InboundSms.class)).thenReturn(ops);
+		MongoIndexInitializer initializer = new MongoIndexInitializer(mongoTemplate);
+		ReflectionTestUtils.setField(initializer, "inboundTtlDays", ttlDays);
+		return initializer;
+	}
+
+	@Test
+	void createsTtlIndexOnInboundReceivedAt() {
+		initializer(30).ensureInboundTtl();
+
+		ArgumentCaptor<IndexDefinition> def = ArgumentCaptor.forClass(IndexDefinition.class);
+		verify(ops).createIndex(def.capture());
+		assertEquals(1, def.getValue().getIndexKeys().get("receivedAt"));
+		assertEquals(30L * 86_400, def.getValue().getIndexOptions().get("expireAfterSeconds"));
+	}
+
+	@Test
+	void recreatesIndexWhenTtlChanged() {
+		MongoIndexInitializer initializer = initializer(7);
+		when(ops.createIndex(any(IndexDefinition.class)))
+				.thenThrow(new RuntimeException("IndexOptionsConflict"))
+				.thenReturn("inbound_received_ttl");
+
+		initializer.ensureInboundTtl();
+
+		verify(ops).dropIndex("inbound_received_ttl");
+		verify(ops, times(2)).createIndex(any(IndexDefinition.class));
+	}
+
+	@Test
+	void zeroDaysKeepsInboundForever() {
+		initializer(0).ensureInboundTtl();
+
+		verifyNoInteractions(ops);
+	}
+}
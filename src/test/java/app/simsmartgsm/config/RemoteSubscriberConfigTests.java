@@ -0,0 +1,76 @@
+package app.simsmartgsm.config;
+
+import app.simsmartgsm.service.GsmListenerService;
+import app.simsmartgsm.service.OrderCallbackDispatcher;
+import app.simsmartgsm.service.OrderDedupIndex;
+import app.simsmartgsm.service.RentRequestDispatcher;
+import app.simsmartgsm.service.SimInventorySnapshot;
+import app.simsmartgsm.uitils.HostUtils;
+import app.simsmartgsm.uitils.OrderCallbackAction;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class RemoteSubscriberConfigTests {
+
+	private final BrokerSessionManager broker = mock(BrokerSessionManager.class);
+	private final RentRequestDispatcher rentDispatcher = mock(RentRequestDispatcher.class);
+	private final OrderCallbackDispatcher callbackDispatcher = mock(OrderCallbackDispatcher.class);
+	private final OrderDedupIndex dedupIndex = new OrderDedupIndex(new SimpleMeterRegistry(), 100, 60);
+	private StompFrameHandler handler;
+
+	@BeforeEach
+	void setUp() {
+		RemoteSubscriberConfig config = new RemoteSubscriberConfig(broker, new BrokerCodec(),
+				mock(GsmListenerService.class), mock(SimInventorySnapshot.class), rentDispatcher, callbackDispatcher, dedupIndex);
+		config.subscribeToRemoteBroker();
+		ArgumentCaptor<StompFrameHandler> captor = ArgumentCaptor.forClass(StompFrameHandler.class);
+		verify(broker).subscribe(eq("/topic/send-otp/" + HostUtils.getDeviceName()), captor.capture());
+		handler = captor.getValue();
+	}
+
+	private void receive(String orderId) {
+		String json = "{\"deviceName\":\"" + HostUtils.getDeviceName() + "\",\"phoneNumber\":\"84901\","
+				+ "\"orderId\":\"" + orderId + "\",\"waitingTime\":10}";
+		handler.handleFrame(new StompHeaders(), json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void acceptedRequestIsNotRefunded() {
+		when(rentDispatcher.submit(eq("84901"), any())).thenReturn(true);
+
+		receive("O1");
+
+		verifyNoInteractions(callbackDispatcher);
+	}
+
+	@Test
+	void rejectedRequestIsRefundedImmediately() {
+		when(rentDispatcher.submit(eq("84901"), any())).thenReturn(false);
+
+		receive("O2");
+
+		verify(callbackDispatcher).dispatch("O2", OrderCallbackAction.REFUND);
+		// bản O2 nào còn trong stripe sẽ bị rentSim bỏ qua vì đã refund
+		assertFalse(dedupIndex.tryAcquire("O2"));
+	}
+
+	@Test
+	void redeliveredOrderAlreadyRentedIsNotRefundedWhenStripeIsFull() {
+		dedupIndex.tryAcquire("O3");   // rentSim đã nhận O3, session đang chạy
+		when(rentDispatcher.submit(eq("84901"), any())).thenReturn(false);
+
+		receive("O3");
+
+		verifyNoInteractions(callbackDispatcher);
+	}
+}
@@ -0,0 +1,78 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.entity.Sim;
+import app.simsmartgsm.uitils.AtCommandHelper;
+import app.simsmartgsm.uitils.CmsError;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class AdaptiveSendRateLimiterTests {
+
+	private static final AtCommandHelper.SendResult OK = new AtCommandHelper.SendResult(true, 1, null, "+CMGS: 1");
+	private static final AtCommandHelper.SendResult CONGESTION = new AtCommandHelper.SendResult(false, null, 42, "+CMS ERROR: 42");
+
+	private AdaptiveSendRateLimiter limiter() {
+		SimInventorySnapshot snapshot = mock(SimInventorySnapshot.class);
+		when(snapshot.findSimByCom("COM1")).thenReturn(Optional.of(Sim.builder().comName("COM1").simProvider("Viettel").build()));
+		when(snapshot.findSimByCom("COM2")).thenReturn(Optional.of(Sim.builder().comName("COM2").simProvider("viettel").build()));
+		return new AdaptiveSendRateLimiter(snapshot, new SimpleMeterRegistry());
+	}
+
+	@Test
+	void backsOffOnThrottlingAndRampsUpAfterCooldown() {
+		AdaptiveSendRateLimiter limiter = limiter();
+		limiter.reserve("COM1");
+		assertEquals(6, limiter.currentRate(AdaptiveSendRateLimiter.Scope.SIM, "COM1"));
+
+		assertEquals(CmsError.THROTTLED, limiter.onResult("COM1", CONGESTION, 1000));
+		assertEquals(3, limiter.currentRate(AdaptiveSendRateLimiter.Scope.SIM, "COM1"));
+		// lỗi của các tin đang bay trong cooldown không giảm thêm, thành công cũng chưa tăng lại
+		limiter.onResult("COM1", CONGESTION, 1000);
+		limiter.onResult("COM1", OK, 1000);
+		assertEquals(3, limiter.currentRate(AdaptiveSendRateLimiter.Scope.SIM, "COM1"));
+		assertEquals(30, limiter.currentRate(AdaptiveSendRateLimiter.Scope.PROVIDER, "VIETTEL"));
+
+		ReflectionTestUtils.setField(limiter, "cooldownMs", 0L);
+		limiter.onResult("COM1", OK, 1000);
+		assertEquals(3.5, limiter.currentRate(AdaptiveSendRateLimiter.Scope.SIM, "COM1"));
+		// COM2 cùng nhà mạng nhưng bucket SIM riêng
+		limiter.peekDelay("COM2");
+		assertEquals(6, limiter.currentRate(AdaptiveSendRateLimiter.Scope.SIM, "COM2"));
+	}
+
+	@Test
+	void reservesAheadWhenBucketIsEmpty() {
+		AdaptiveSendRateLimiter limiter = limiter();
+		assertEquals(0, limiter.reserve("COM1"));
+		long wait = limiter.reserve("COM1");   // 6/phút -> ~10s cho token kế tiếp
+		assertTrue(wait > 9_000_000_000L && wait <= 10_000_000_000L, "wait=" + wait);
+		assertTrue(limiter.peekDelay("COM1") > wait);
+	}
+
+	@Test
+	void comsWithUnknownProviderOnlyUseTheirSimBucket() {
+		AdaptiveSendRateLimiter limiter = limiter();   // COM8, COM9 không có trong snapshot
+		limiter.reserve("COM8");
+		limiter.onResult("COM8", CONGESTION, 1000);
+
+		assertEquals(0, limiter.peekDelay("COM9"));
+		assertEquals(0, limiter.reserve("COM9"));
+		assertTrue(limiter.rates().stream().noneMatch(r -> r.scope() == AdaptiveSendRateLimiter.Scope.PROVIDER));
+		assertEquals(6, limiter.currentRate(AdaptiveSendRateLimiter.Scope.SIM, "COM9"));
+	}
+
+	@Test
+	void classifiesCmsErrors() {
+		assertEquals(CmsError.THROTTLED, CmsError.classify(42));
+		assertEquals(CmsError.INVALID_DESTINATION, CmsError.classify(1));
+		assertFalse(CmsError.classify(1).retryable());
+		assertEquals(CmsError.SIM_BLOCKED, CmsError.classify(8));
+		assertEquals(CmsError.UNKNOWN, CmsError.classify(null));
+	}
+}
@@ -0,0 +1,161 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.dto.response.CampaignProgress;
+import app.simsmartgsm.entity.Sim;
+import app.simsmartgsm.repository.SimRepository;
+import app.simsmartgsm.uitils.AtCommandHelper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class CampaignServiceTests {
+
+	private static Sim sim(String com, String status) {
+		return Sim.builder().comName(com).phoneNumber("090" + com).status(status).build();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void shardsAcrossActiveSimsAndRetriesOnAnotherSim() throws Exception {
+		SimInventorySnapshot snapshot = mock(SimInventorySnapshot.class);
+		when(snapshot.isLoaded()).thenReturn(true);
+		when(snapshot.getSims()).thenReturn(List.of(sim("COM1", "ACTIVE"), sim("COM2", "ACTIVE"), sim("COM3", "INACTIVE")));
+
+		SmsSendJobService sender = mock(SmsSendJobService.class);
+		doAnswer(inv -> {
+			String com = inv.getArgument(0);
+			((BooleanSupplier) inv.getArgument(3)).getAsBoolean();
+			boolean ok = !"COM1".equals(com);   // COM1 luôn lỗi
+			((Consumer<AtCommandHelper.SendResult>) inv.getArgument(4))
+					.accept(new AtCommandHelper.SendResult(ok, ok ? 1 : null, ok ? null : 38, ""));
+			return null;
+		}).when(sender).sendVia(anyString(), anyString(), anyString(), any(), any());
+
+		CampaignService service = new CampaignService(sender, mock(AdaptiveSendRateLimiter.class), snapshot, mock(SimRepository.class),
+				mock(SimpMessagingTemplate.class), new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(service, "maxAttempts", 3);
+		ReflectionTestUtils.setField(service, "laneMaxFailures", 100);
+		ReflectionTestUtils.setField(service, "sendTimeoutMs", 60_000L);
+
+		List<String> recipients = IntStream.range(0, 20).mapToObj(i -> "0800" + i).toList();
+		CampaignProgress started = service.start(recipients.iterator(), "hello");
+
+		CampaignProgress p = started;
+		for (int i = 0; i < 200 && p.getStatus() == CampaignProgress.Status.RUNNING; i++) {
+			Thread.sleep(20);
+			p = service.find(started.getCampaignId()).orElseThrow();
+		}
+		assertEquals(CampaignProgress.Status.COMPLETED, p.getStatus());
+		assertEquals(20, p.getRead());
+		assertEquals(20, p.getSent());
+		assertEquals(0, p.getFailed());
+		assertEquals(2, p.getSims().size());   // chỉ SIM ACTIVE
+		verify(sender, never()).sendVia(eq("COM3"), anyString(), anyString(), any(), any());
+		assertEquals(p.getRetried(), p.getSims().get(0).getFailed());
+	}
+
+	@Test
+	void failsFastWithoutActiveSims() {
+		SimInventorySnapshot snapshot = mock(SimInventorySnapshot.class);
+		when(snapshot.isLoaded()).thenReturn(true);
+		when(snapshot.getSims()).thenReturn(List.of(sim("COM1", "INACTIVE")));
+		CampaignService service = new CampaignService(mock(SmsSendJobService.class), mock(AdaptiveSendRateLimiter.class), snapshot,
+				mock(SimRepository.class), mock(SimpMessagingTemplate.class), new SimpleMeterRegistry());
+
+		CampaignProgress p = service.start(List.of("0800").iterator(), "hello");
+		assertEquals(CampaignProgress.Status.FAILED, p.getStatus());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void stuckSendIsRetriedOnAnotherSimAndLateResultIgnored() throws Exception {
+		SimInventorySnapshot snapshot = mock(SimInventorySnapshot.class);
+		when(snapshot.isLoaded()).thenReturn(true);
+		when(snapshot.getSims()).thenReturn(List.of(sim("COM1", "ACTIVE"), sim("COM2", "ACTIVE")));
+		AdaptiveSendRateLimiter limiter = mock(AdaptiveSendRateLimiter.class);
+		when(limiter.peekDelay("COM2")).thenReturn(1L);   // COM1 được chọn trước
+
+		AtomicReference<Consumer<AtCommandHelper.SendResult>> stuck = new AtomicReference<>();
+		SmsSendJobService sender = mock(SmsSendJobService.class);
+		doAnswer(inv -> {
+			((BooleanSupplier) inv.getArgument(3)).getAsBoolean();
+			Consumer<AtCommandHelper.SendResult> done = inv.getArgument(4);
+			if ("COM1".equals(inv.getArgument(0))) stuck.set(done);   // COM1 treo, không trả kết quả
+			else done.accept(new AtCommandHelper.SendResult(true, 1, null, ""));
+			return null;
+		}).when(sender).sendVia(anyString(), anyString(), anyString(), any(), any());
+
+		CampaignService service = newService(sender, limiter, snapshot, 200L);
+		CampaignProgress p = await(service, service.start(List.of("08001").iterator(), "hello"));
+
+		assertEquals(CampaignProgress.Status.COMPLETED, p.getStatus());
+		assertEquals(1, p.getSent());
+		assertEquals(0, p.getFailed());
+		assertEquals(1, p.getRetried());
+		verify(sender).sendVia(eq("COM2"), eq("08001"), anyString(), any(), any());
+
+		// kết quả về muộn của lần gửi đã timeout không được tính lại
+		stuck.get().accept(new AtCommandHelper.SendResult(true, 2, null, ""));
+		assertEquals(1, service.find(p.getCampaignId()).orElseThrow().getSent());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void limiterWaitDoesNotCountTowardsSendTimeout() throws Exception {
+		SimInventorySnapshot snapshot = mock(SimInventorySnapshot.class);
+		when(snapshot.isLoaded()).thenReturn(true);
+		when(snapshot.getSims()).thenReturn(List.of(sim("COM1", "ACTIVE")));
+		AdaptiveSendRateLimiter limiter = mock(AdaptiveSendRateLimiter.class);
+		when(limiter.peekDelay("COM1")).thenReturn(TimeUnit.SECONDS.toNanos(10));
+
+		SmsSendJobService sender = mock(SmsSendJobService.class);
+		doAnswer(inv -> {
+			BooleanSupplier onStart = inv.getArgument(3);
+			Consumer<AtCommandHelper.SendResult> done = inv.getArgument(4);
+			// limiter hẹn giờ dispatch sau 1.5s, lâu hơn send-timeout
+			CompletableFuture.delayedExecutor(1500, TimeUnit.MILLISECONDS).execute(() -> {
+				if (onStart.getAsBoolean()) done.accept(new AtCommandHelper.SendResult(true, 1, null, ""));
+			});
+			return null;
+		}).when(sender).sendVia(anyString(), anyString(), anyString(), any(), any());
+
+		CampaignService service = newService(sender, limiter, snapshot, 200L);
+		CampaignProgress p = await(service, service.start(List.of("08001").iterator(), "hello"));
+
+		assertEquals(1, p.getSent());
+		assertEquals(0, p.getFailed());
+		assertEquals(0, p.getRetried());
+	}
+
+	private static CampaignService newService(SmsSendJobService sender, AdaptiveSendRateLimiter limiter,
+											  SimInventorySnapshot snapshot, long sendTimeoutMs) {
+		CampaignService service = new CampaignService(sender, limiter, snapshot, mock(SimRepository.class),
+				mock(SimpMessagingTemplate.class), new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(service, "maxAttempts", 3);
+		ReflectionTestUtils.setField(service, "laneMaxFailures", 100);
+		ReflectionTestUtils.setField(service, "sendTimeoutMs", sendTimeoutMs);
+		return service;
+	}
+
+	private static CampaignProgress await(CampaignService service, CampaignProgress started) throws InterruptedException {
+		CampaignProgress p = started;
+		for (int i = 0; i < 300 && p.getStatus() == CampaignProgress.Status.RUNNING; i++) {
+			Thread.sleep(20);
+			p = service.find(started.getCampaignId()).orElseThrow();
+		}
+		return p;
+	}
+}
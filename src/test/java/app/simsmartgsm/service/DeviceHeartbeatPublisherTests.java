@@ -0,0 +1,67 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.config.BrokerSessionManager;
+import app.simsmartgsm.dto.response.DeviceHeartbeat;
+import app.simsmartgsm.entity.Sim;
+import app.simsmartgsm.uitils.PortWorker;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class DeviceHeartbeatPublisherTests {
+
+	@Test
+	void sendsFullThenOnlyChangedPorts() {
+		BrokerSessionManager broker = mock(BrokerSessionManager.class);
+		when(broker.isConnected()).thenReturn(true);
+		when(broker.send(eq("/app/device/heartbeat"), any())).thenReturn(true);
+
+		PortWorker worker = mock(PortWorker.class);
+		when(worker.getHealth()).thenReturn(PortWorker.Health.OK);
+		when(worker.getQueueDepth()).thenReturn(0);
+
+		GsmListenerService listener = mock(GsmListenerService.class);
+		when(listener.getWorkers()).thenReturn(Map.of("COM1", worker));
+		when(listener.getActiveRentalCount()).thenReturn(1);
+
+		SimInventorySnapshot inventory = mock(SimInventorySnapshot.class);
+		when(inventory.getSims()).thenReturn(List.of(
+				Sim.builder().comName("COM1").phoneNumber("0901").status("ACTIVE").build(),
+				Sim.builder().comName("COM2").phoneNumber("0902").status("ACTIVE").build()));
+
+		OtpForwardOutbox outbox = mock(OtpForwardOutbox.class);
+		when(outbox.getRecentDelayMs()).thenReturn(-1L);
+
+		DeviceHeartbeatPublisher publisher = new DeviceHeartbeatPublisher(broker, listener, inventory, outbox);
+		ReflectionTestUtils.setField(publisher, "destination", "/app/device/heartbeat");
+		ReflectionTestUtils.setField(publisher, "fullEvery", 100);
+		ReflectionTestUtils.setField(publisher, "latencyBucketMs", 100L);
+
+		publisher.publish();   // full
+		publisher.publish();   // không đổi gì => không gửi
+		when(worker.getQueueDepth()).thenReturn(3);
+		publisher.publish();   // delta COM1
+
+		ArgumentCaptor<Object> sent = ArgumentCaptor.forClass(Object.class);
+		verify(broker, times(2)).send(eq("/app/device/heartbeat"), sent.capture());
+
+		DeviceHeartbeat full = (DeviceHeartbeat) sent.getAllValues().get(0);
+		assertTrue(full.full());
+		assertEquals(2, full.ports().size());
+
+		DeviceHeartbeat delta = (DeviceHeartbeat) sent.getAllValues().get(1);
+		assertFalse(delta.full());
+		assertEquals(2, delta.seq());
+		assertEquals(1, delta.ports().size());
+		assertEquals(3, delta.ports().get(0).queueDepth());
+		assertNull(delta.activeRentals());
+	}
+}
@@ -0,0 +1,204 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.entity.RentalSession;
+import app.simsmartgsm.entity.SmsMessage;
+import app.simsmartgsm.repository.RentalSessionRepository;
+import app.simsmartgsm.repository.ServiceRepository;
+import app.simsmartgsm.repository.SmsMessageRepository;
+import app.simsmartgsm.uitils.HostUtils;
+import app.simsmartgsm.uitils.OrderCallbackAction;
+import app.simsmartgsm.uitils.PortWorker;
+import app.simsmartgsm.uitils.RentalStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class GsmListenerServiceRecoveryTests {
+
+	private final SmsMessageRepository smsMessageRepository = mock(SmsMessageRepository.class);
+	private final RentalSessionRepository rentalSessionRepository = mock(RentalSessionRepository.class);
+	private final RentSessionStore rentSessionStore = mock(RentSessionStore.class);
+	private final OrderCallbackDispatcher dispatcher = mock(OrderCallbackDispatcher.class);
+	private final SmsMessageWriter smsMessageWriter = mock(SmsMessageWriter.class);
+	private final SmsJournal smsJournal = mock(SmsJournal.class);
+	private final OrderDedupIndex dedupIndex = new OrderDedupIndex(new SimpleMeterRegistry(), 100, 60);
+	private GsmListenerService service;
+
+	@BeforeEach
+	void setUp() {
+		service = new GsmListenerService(smsMessageRepository, mock(ServiceRepository.class), rentalSessionRepository,
+				rentSessionStore, dedupIndex, dispatcher, smsMessageWriter, smsJournal,
+				mock(SmsOutboxService.class), mock(OtpForwardOutbox.class), mock(SimUpdatePublisher.class));
+	}
+
+	@AfterEach
+	void tearDown() {
+		service.getWorkers().values().forEach(PortWorker::stop);
+	}
+
+	@Test
+	void overdueSessionWithoutOtpIsRefunded() {
+		stored(session("O1", 30, false));
+
+		service.doRecoverSessions();
+
+		// REFUND_PENDING được lưu trước khi gửi callback để ack REFUNDED không bị ghi đè
+		InOrder order = inOrder(rentSessionStore, dispatcher);
+		order.verify(rentSessionStore).save(argThat(s -> RentalStatus.REFUND_PENDING.name().equals(s.getStatus())));
+		order.verify(dispatcher).dispatch("O1", OrderCallbackAction.REFUND);
+		assertEquals(RentalStatus.REFUND_PENDING.name(), lastSaved().getStatus());
+		assertFalse(dedupIndex.tryAcquire("O1"));
+		assertEquals(0, service.getActiveRentalCount());
+	}
+
+	@Test
+	void overdueSessionWithOtpIsCompletedWithoutRefund() {
+		stored(session("O2", 30, true));
+
+		service.doRecoverSessions();
+
+		verify(dispatcher, never()).dispatch(anyString(), any());
+		assertEquals(RentalStatus.COMPLETED.name(), lastSaved().getStatus());
+	}
+
+	@Test
+	void activeSessionIsResumed() {
+		stored(session("O3", 1, false));
+
+		service.doRecoverSessions();
+
+		assertEquals(1, service.getActiveRentalCount());
+		assertTrue(service.getWorkers().containsKey("COM_TEST_O3"));
+		assertFalse(dedupIndex.tryAcquire("O3"));
+		verify(dispatcher, never()).dispatch(anyString(), any());
+		verify(rentSessionStore, never()).save(any());
+	}
+
+	@Test
+	void journalOtpReceivedBeforeCrashIsReprocessedBeforeRefundCheck() {
+		RentalSession stored = session("O4", 30, false);
+		stored(stored);
+		// SMS về lúc session còn hạn, đã xoá khỏi SIM nhưng crash trước khi processSms xong
+		when(smsJournal.unprocessed()).thenReturn(List.of(new SmsJournal.Pending(42L, new SmsJournal.Entry(
+				stored.getComName(), stored.getSimId(), stored.getPhoneNumber(), "TELEGRAM", "Telegram code 48291",
+				null, stored.getStartTime().plusSeconds(60), null, null, null))));
+
+		service.doRecoverSessions();
+		service.doRecoverSessions();
+
+		verify(dispatcher, times(2)).dispatch("O4", OrderCallbackAction.SUCCESS);
+		verify(dispatcher, never()).dispatch("O4", OrderCallbackAction.REFUND);
+		verify(smsJournal, times(2)).markProcessed(42L);
+		assertEquals(RentalStatus.COMPLETED.name(), lastSaved().getStatus());
+
+		// chạy lại nhiều lần vẫn cùng 1 id: upsert đè, không sinh SMS trùng
+		ArgumentCaptor<SmsMessage> written = ArgumentCaptor.forClass(SmsMessage.class);
+		verify(smsMessageWriter, times(2)).write(written.capture());
+		assertEquals(written.getAllValues().get(0).getId(), written.getAllValues().get(1).getId());
+		assertEquals(GsmListenerService.journalSmsId(HostUtils.getDeviceName(), 42L, "O4"),
+				written.getValue().getId());
+		assertEquals(stored.getStartTime().plusSeconds(60), written.getValue().getTimestamp());
+	}
+
+	@Test
+	void replayedSmsForOrderWithOtpIsRewrittenEvenWithoutReceivedAt() {
+		RentalSession stored = session("O5", 1, true);
+		stored(stored);
+		// entry không có receivedAt: vẫn là tin replay, không phải OTP mới từ modem
+		when(smsJournal.unprocessed()).thenReturn(List.of(new SmsJournal.Pending(7L, new SmsJournal.Entry(
+				stored.getComName(), stored.getSimId(), stored.getPhoneNumber(), "TELEGRAM", "Telegram code 48291",
+				null, null, null, null, null))));
+
+		service.doRecoverSessions();
+
+		verify(smsMessageWriter).write(any(SmsMessage.class));
+		verify(smsJournal).markProcessed(7L);
+		verify(dispatcher, never()).dispatch(anyString(), any());
+	}
+
+	@Test
+	void incompleteMultipartIsStoredWithoutOtpMatching() {
+		RentalSession stored = session("O6", 1, false);
+		stored(stored);
+		// chỉ có phần 1/2: "48291" có thể là OTP bị cắt, không được forward
+		when(smsJournal.unprocessed()).thenReturn(List.of(new SmsJournal.Pending(9L, new SmsJournal.Entry(
+				stored.getComName(), stored.getSimId(), stored.getPhoneNumber(), "TELEGRAM", "Telegram code 48291",
+				null, Instant.now(), 5, 2, 1))));
+
+		service.doRecoverSessions();
+
+		verify(dispatcher, never()).dispatch(anyString(), any());
+		verify(smsJournal).markProcessed(9L);
+		ArgumentCaptor<SmsMessage> written = ArgumentCaptor.forClass(SmsMessage.class);
+		verify(smsMessageWriter).write(written.capture());
+		assertEquals("INBOX_PARTIAL", written.getValue().getType());
+		assertNull(written.getValue().getOrderId());   // không chặn refund khi tin đủ không về
+		assertEquals("Telegram code 48291", written.getValue().getContent());
+	}
+
+	@Test
+	void refundAckMarksSessionRefunded() {
+		@SuppressWarnings("unchecked")
+		ArgumentCaptor<BiConsumer<String, OrderCallbackAction>> listener = ArgumentCaptor.forClass(BiConsumer.class);
+		service.registerCallbackAck();
+		verify(dispatcher).addAckListener(listener.capture());
+
+		listener.getValue().accept("O9", OrderCallbackAction.SUCCESS);
+		verify(rentSessionStore, never()).markStatus(anyString(), anyString());
+		listener.getValue().accept("O9", OrderCallbackAction.REFUND);
+		verify(rentSessionStore).markStatus("O9", RentalStatus.REFUNDED.name());
+	}
+
+	@Test
+	void mongoFailureLeavesNothingRecovered() {
+		when(rentalSessionRepository.findByDeviceNameAndStatus(anyString(), anyString()))
+				.thenThrow(new RuntimeException("no mongo"));
+
+		service.doRecoverSessions();
+
+		assertEquals(0, service.getActiveRentalCount());
+		verifyNoInteractions(dispatcher, rentSessionStore);
+	}
+
+	private void stored(RentalSession... sessions) {
+		when(rentalSessionRepository.findByDeviceNameAndStatus(HostUtils.getDeviceName(), RentalStatus.ACTIVE.name()))
+				.thenReturn(List.of(sessions));
+	}
+
+	private RentalSession lastSaved() {
+		ArgumentCaptor<RentalSession> saved = ArgumentCaptor.forClass(RentalSession.class);
+		verify(rentSessionStore, atLeastOnce()).save(saved.capture());
+		return saved.getValue();
+	}
+
+	/** Session thuê 10 phút, bắt đầu từ minutesAgo phút trước */
+	private static RentalSession session(String orderId, int minutesAgo, boolean otpReceived) {
+		return RentalSession.builder()
+				.orderId(orderId)
+				.simId("sim-" + orderId)
+				.deviceName(HostUtils.getDeviceName())
+				.comName("COM_TEST_" + orderId)
+				.phoneNumber("8490000000" + orderId.charAt(1))
+				.accountId(1L)
+				.services(List.of("telegram"))
+				.countryCode("VN")
+				.serviceType("rent.otp.service")
+				.startTime(Instant.now().minus(minutesAgo, ChronoUnit.MINUTES))
+				.durationMinutes(10)
+				.otpReceived(otpReceived)
+				.status(RentalStatus.ACTIVE.name())
+				.build();
+	}
+}
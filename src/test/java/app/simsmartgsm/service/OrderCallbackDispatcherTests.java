@@ -0,0 +1,169 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.entity.OrderCallback;
+import app.simsmartgsm.repository.OrderCallbackRepository;
+import app.simsmartgsm.uitils.OrderCallbackAction;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class OrderCallbackDispatcherTests {
+
+	private HttpServer stub;
+	private final List<String> idempotencyKeys = new CopyOnWriteArrayList<>();
+	private final List<String> batchBodies = new CopyOnWriteArrayList<>();
+	private final AtomicInteger failuresLeft = new AtomicInteger();
+	private final OrderCallbackRepository repository = mock(OrderCallbackRepository.class);
+	private OrderCallbackDispatcher dispatcher;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		stub.createContext("/api/otp/order/batch", exchange -> {
+			batchBodies.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+			byte[] body = ("{\"results\":[{\"idempotencyKey\":\"B1:SUCCESS\",\"success\":true},"
+					+ "{\"idempotencyKey\":\"B2:REFUND\",\"success\":false,\"error\":\"locked\"}]}")
+					.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		stub.createContext("/api/otp/order/", exchange -> {
+			idempotencyKeys.add(exchange.getRequestHeaders().getFirst("Idempotency-Key"));
+			int status = failuresLeft.getAndDecrement() > 0 ? 503 : 200;
+			exchange.sendResponseHeaders(status, -1);
+			exchange.close();
+		});
+		stub.start();
+
+		String baseUrl = "http://127.0.0.1:" + stub.getAddress().getPort() + "/";
+		dispatcher = new OrderCallbackDispatcher(new RestTemplate(), repository, new SimpleMeterRegistry(),
+				baseUrl, 2, 10, 5, 10, 100);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		dispatcher.shutdown();
+		stub.stop(0);
+	}
+
+	@Test
+	void callbackIsPersistedBeforeSendAndDeletedOnAck() throws Exception {
+		List<String> acked = new CopyOnWriteArrayList<>();
+		dispatcher.addAckListener((orderId, action) -> acked.add(orderId + ":" + action));
+
+		dispatcher.dispatch("O1", OrderCallbackAction.SUCCESS);
+
+		verify(repository, timeout(2000)).deleteById("O1:SUCCESS");
+		assertEquals(List.of("O1:SUCCESS"), idempotencyKeys);
+		waitFor(() -> !acked.isEmpty());   // listener chạy sau deleteById trên thread gửi
+		assertEquals(List.of("O1:SUCCESS"), acked);
+		ArgumentCaptor<OrderCallback> saved = ArgumentCaptor.forClass(OrderCallback.class);
+		var inOrder = inOrder(repository);
+		inOrder.verify(repository).save(saved.capture());
+		inOrder.verify(repository).deleteById("O1:SUCCESS");
+		assertEquals(0, saved.getValue().getAttempts());
+		assertEquals(OrderCallbackDispatcher.STATUS_PENDING, saved.getValue().getStatus());
+	}
+
+	@Test
+	void rejectedDispatchIsDeferredWithoutCountingAnAttempt() throws Exception {
+		dispatcher.shutdown();
+		stub.stop(0);
+		stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		CountDownLatch release = new CountDownLatch(1);
+		stub.createContext("/api/otp/order/", exchange -> {
+			try {
+				release.await();
+			} catch (InterruptedException ignored) {
+			}
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		});
+		stub.start();
+		String baseUrl = "http://127.0.0.1:" + stub.getAddress().getPort() + "/";
+		// 1 thread, queue 1: callback thứ 3 bị từ chối
+		dispatcher = new OrderCallbackDispatcher(new RestTemplate(), repository, new SimpleMeterRegistry(),
+				baseUrl, 1, 1, 5, 10, 100);
+		List<OrderCallback> deferred = new CopyOnWriteArrayList<>();
+		doAnswer(inv -> {
+			OrderCallback c = inv.getArgument(0);
+			if ("dispatch queue full".equals(c.getLastError())) deferred.add(c);
+			return c;
+		}).when(repository).save(any());
+
+		dispatcher.dispatch("R1", OrderCallbackAction.REFUND);
+		dispatcher.dispatch("R2", OrderCallbackAction.REFUND);
+		dispatcher.dispatch("R3", OrderCallbackAction.REFUND);
+
+		waitFor(() -> deferred.size() == 1);
+		assertEquals("R3:REFUND", deferred.get(0).getId());
+		assertEquals(0, deferred.get(0).getAttempts());
+		assertEquals(OrderCallbackDispatcher.STATUS_PENDING, deferred.get(0).getStatus());
+		release.countDown();
+	}
+
+	@Test
+	void failedCallbackIsStoredAndRetriedWithSameKey() throws Exception {
+		failuresLeft.set(1);
+		dispatcher.dispatch("O2", OrderCallbackAction.REFUND);
+
+		ArgumentCaptor<OrderCallback> saved = ArgumentCaptor.forClass(OrderCallback.class);
+		verify(repository, timeout(2000).times(2)).save(saved.capture());
+		OrderCallback pending = saved.getValue();
+		assertEquals(1, pending.getAttempts());
+		assertEquals(OrderCallbackDispatcher.STATUS_PENDING, pending.getStatus());
+
+		when(repository.findTop100ByDeviceNameAndStatusAndNextAttemptAtLessThanEqualOrderByNextAttemptAtAsc(
+				anyString(), eq(OrderCallbackDispatcher.STATUS_PENDING), any()))
+				.thenReturn(List.of(pending));
+		dispatcher.retryDue();
+
+		verify(repository, timeout(2000)).deleteById("O2:REFUND");
+		assertEquals(List.of("O2:REFUND", "O2:REFUND"), idempotencyKeys);
+	}
+
+	@Test
+	void batchModeSendsOneRequestAndRetriesFailedItems() throws Exception {
+		ReflectionTestUtils.setField(dispatcher, "batchEnabled", true);
+		ReflectionTestUtils.setField(dispatcher, "batchPath", "api/otp/order/batch");
+		ReflectionTestUtils.setField(dispatcher, "batchWindowMs", 50L);
+
+		dispatcher.dispatch("B1", OrderCallbackAction.SUCCESS);
+		dispatcher.dispatch("B2", OrderCallbackAction.REFUND);
+
+		ArgumentCaptor<OrderCallback> saved = ArgumentCaptor.forClass(OrderCallback.class);
+		verify(repository, timeout(2000).times(3)).save(saved.capture());
+		assertEquals("B2:REFUND", saved.getValue().getId());
+		assertEquals(1, saved.getValue().getAttempts());
+		verify(repository, timeout(2000)).deleteById("B1:SUCCESS");
+		assertEquals(1, batchBodies.size());
+		assertTrue(batchBodies.get(0).contains("B1:SUCCESS") && batchBodies.get(0).contains("B2:REFUND"));
+		assertTrue(idempotencyKeys.isEmpty());
+	}
+
+	private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 2000;
+		while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertTrue(condition.getAsBoolean());
+	}
+}
@@ -0,0 +1,34 @@
+package app.simsmartgsm.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderDedupIndexTests {
+
+	@Test
+	void dropsDuplicateOrderIdAndCountsIt() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		OrderDedupIndex index = new OrderDedupIndex(registry, 100, 60);
+
+		assertTrue(index.tryAcquire("A1"));
+		assertFalse(index.tryAcquire("A1"));
+		assertTrue(index.tryAcquire("A2"));
+
+		assertEquals(1.0, registry.counter("gsm.rent.dedup", "result", "dropped").count());
+		assertEquals(2.0, registry.counter("gsm.rent.dedup", "result", "accepted").count());
+	}
+
+	@Test
+	void evictsOldestWhenFull() {
+		OrderDedupIndex index = new OrderDedupIndex(new SimpleMeterRegistry(), 2, 60);
+
+		index.tryAcquire("A1");
+		index.tryAcquire("A2");
+		index.tryAcquire("A3");
+
+		assertEquals(2, index.size());
+		assertTrue(index.tryAcquire("A1"));
+	}
+}
@@ -0,0 +1,181 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.config.BrokerCodec;
+import app.simsmartgsm.config.BrokerSessionManager;
+import app.simsmartgsm.dto.response.OtpEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class OtpForwardOutboxTests {
+
+	@TempDir
+	Path dir;
+
+	private final BrokerCodec codec = new BrokerCodec();
+
+	private OtpForwardOutbox newOutbox(BrokerSessionManager broker) {
+		return newOutbox(broker, 10, 1000);
+	}
+
+	private OtpForwardOutbox newOutbox(BrokerSessionManager broker, int capacity, int compactThreshold) {
+		OtpForwardOutbox outbox = new OtpForwardOutbox(broker, codec, new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(outbox, "outboxFile", dir.resolve("outbox.jsonl").toString());
+		ReflectionTestUtils.setField(outbox, "capacity", capacity);
+		ReflectionTestUtils.setField(outbox, "drainBatchSize", 2);
+		ReflectionTestUtils.setField(outbox, "compactThreshold", compactThreshold);
+		outbox.start();
+		return outbox;
+	}
+
+	private static OtpEvent otp(String value) {
+		return OtpEvent.builder().otp(value).receivedAt(System.currentTimeMillis()).build();
+	}
+
+	@Test
+	void keepsEventsOnDiskWhileDisconnectedAndReplaysInOrder() throws Exception {
+		BrokerSessionManager broker = mock(BrokerSessionManager.class);
+		when(broker.send(anyString(), any())).thenReturn(false);
+
+		OtpForwardOutbox outbox = newOutbox(broker);
+		assertFalse(outbox.forward(otp("111")));
+		assertFalse(outbox.forward(otp("222")));
+		assertFalse(outbox.forward(otp("333")));
+		assertEquals(3, Files.readAllLines(dir.resolve("outbox.jsonl")).size());
+
+		// restart: outbox mới load lại từ file rồi drain khi broker đã lên
+		List<String> sent = new ArrayList<>();
+		BrokerSessionManager online = mock(BrokerSessionManager.class);
+		when(online.send(eq(OtpForwardOutbox.DESTINATION), any())).thenAnswer(inv -> {
+			sent.add(codec.decodeOtp(new String((byte[]) inv.getArgument(1))).otp());
+			return true;
+		});
+		OtpForwardOutbox reloaded = newOutbox(online);
+		assertEquals(3, reloaded.size());
+
+		reloaded.drain();
+
+		assertEquals(List.of("111", "222", "333"), sent);
+		assertEquals(0, reloaded.size());
+		assertFalse(Files.exists(dir.resolve("outbox.jsonl")));
+	}
+
+	@Test
+	void drainsBacklogAsBatchFramesWhenNegotiated() {
+		BrokerSessionManager offline = mock(BrokerSessionManager.class);
+		OtpForwardOutbox outbox = newOutbox(offline);
+		for (int i = 0; i < 5; i++) outbox.forward(otp("00" + i));
+
+		BrokerSessionManager online = mock(BrokerSessionManager.class);
+		when(online.isOtpBatchSupported()).thenReturn(true);
+		when(online.send(any(StompHeaders.class), any())).thenReturn(true);
+		when(online.send(eq(OtpForwardOutbox.DESTINATION), any())).thenReturn(true);
+		OtpForwardOutbox reloaded = newOutbox(online);
+
+		reloaded.drain();
+
+		// 5 event, chunk 2 => 2 frame batch + 1 frame đơn
+		verify(online, times(2)).send(argThat((StompHeaders h) ->
+				BrokerCodec.FORMAT_BATCH.equals(h.getFirst(BrokerCodec.FORMAT_HEADER))), any());
+		verify(online, times(1)).send(eq(OtpForwardOutbox.DESTINATION), any());
+		assertEquals(0, reloaded.size());
+	}
+
+	@Test
+	void forwardDoesNotHoldOutboxLockWhileSending() throws Exception {
+		BrokerSessionManager broker = mock(BrokerSessionManager.class);
+		OtpForwardOutbox[] ref = new OtpForwardOutbox[1];
+		when(broker.send(eq(OtpForwardOutbox.DESTINATION), any())).thenAnswer(inv -> {
+			// broker treo: PortWorker khác vẫn phải vào được outbox
+			return CompletableFuture.supplyAsync(() -> ref[0].size()).get(1, TimeUnit.SECONDS) == 0;
+		});
+		ref[0] = newOutbox(broker);
+
+		assertTrue(ref[0].forward(otp("111")));
+	}
+
+	@Test
+	void overflowDuringDrainDoesNotDropUndeliveredEvents() {
+		BrokerSessionManager offline = mock(BrokerSessionManager.class);
+		OtpForwardOutbox seeded = newOutbox(offline, 3, 1000);
+		for (String v : List.of("1", "2", "3")) seeded.forward(otp(v));
+
+		List<String> sent = new ArrayList<>();
+		BrokerSessionManager online = mock(BrokerSessionManager.class);
+		OtpForwardOutbox[] ref = new OtpForwardOutbox[1];
+		when(online.send(eq(OtpForwardOutbox.DESTINATION), any())).thenAnswer(inv -> {
+			String value = codec.decodeOtp(new String((byte[]) inv.getArgument(1))).otp();
+			// event mới tới lúc đang gửi chunk đầu: outbox đầy, bỏ "1" (đang gửi dở) khỏi đầu hàng
+			if (value.equals("1")) assertFalse(ref[0].forward(otp("4")));
+			sent.add(value);
+			return true;
+		});
+		ref[0] = newOutbox(online, 3, 1000);
+
+		ref[0].drain();
+
+		assertEquals(List.of("1", "2", "3", "4"), sent);
+		assertEquals(0, ref[0].size());
+	}
+
+	@Test
+	void appendsAcksAndCompactsOnlyPastThreshold() throws Exception {
+		BrokerSessionManager offline = mock(BrokerSessionManager.class);
+		OtpForwardOutbox seeded = newOutbox(offline);
+		for (String v : List.of("1", "2", "3", "4")) seeded.forward(otp(v));
+		Path file = dir.resolve("outbox.jsonl");
+
+		// gửi được 1 chunk rồi rớt: chỉ ghi nối 1 dòng ack, không ghi lại cả file
+		BrokerSessionManager flaky = mock(BrokerSessionManager.class);
+		when(flaky.send(eq(OtpForwardOutbox.DESTINATION), any())).thenReturn(true, true, false);
+		OtpForwardOutbox first = newOutbox(flaky);
+		first.drain();
+		assertEquals(2, first.size());
+		List<String> lines = Files.readAllLines(file);
+		assertEquals(5, lines.size());
+		assertEquals("ack\t2", lines.get(4));
+
+		// restart: ack được áp lại, dòng chết vượt ngưỡng thì compact còn đúng phần pending
+		OtpForwardOutbox reloaded = newOutbox(offline, 10, 2);
+		assertEquals(2, reloaded.size());
+		assertEquals(2, Files.readAllLines(file).size());
+
+		List<String> sent = new ArrayList<>();
+		BrokerSessionManager online = mock(BrokerSessionManager.class);
+		when(online.send(eq(OtpForwardOutbox.DESTINATION), any())).thenAnswer(inv -> {
+			sent.add(codec.decodeOtp(new String((byte[]) inv.getArgument(1))).otp());
+			return true;
+		});
+		newOutbox(online).drain();
+		assertEquals(List.of("3", "4"), sent);
+		assertFalse(Files.exists(file));
+	}
+
+	@Test
+	void loadsLegacyJsonLinesFile() throws Exception {
+		Path file = dir.resolve("outbox.jsonl");
+		Files.write(file, List.of(new String(codec.encodeOtp(otp("111"))), new String(codec.encodeOtp(otp("222")))));
+
+		BrokerSessionManager offline = mock(BrokerSessionManager.class);
+		OtpForwardOutbox outbox = newOutbox(offline);
+		outbox.forward(otp("333"));
+
+		assertEquals(3, newOutbox(offline).size());
+	}
+}
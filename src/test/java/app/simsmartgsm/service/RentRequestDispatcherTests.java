@@ -0,0 +1,56 @@
+package app.simsmartgsm.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RentRequestDispatcherTests {
+
+	@Test
+	void keepsOrderForSameSim() throws Exception {
+		RentRequestDispatcher dispatcher = new RentRequestDispatcher(new SimpleMeterRegistry(), 4, 100);
+		List<Integer> seen = new CopyOnWriteArrayList<>();
+		CountDownLatch done = new CountDownLatch(50);
+
+		for (int i = 0; i < 50; i++) {
+			int n = i;
+			assertTrue(dispatcher.submit("0901000001", () -> {
+				seen.add(n);
+				done.countDown();
+			}));
+		}
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 50; i++) assertEquals(i, seen.get(i));
+		dispatcher.shutdown();
+	}
+
+	@Test
+	void rejectsWhenStripeQueueIsFull() throws Exception {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		RentRequestDispatcher dispatcher = new RentRequestDispatcher(registry, 1, 1);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(1);
+
+		assertTrue(dispatcher.submit("A", () -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException ignored) {
+			}
+		}));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		assertTrue(dispatcher.submit("A", () -> {}));   // nằm trong queue
+		assertFalse(dispatcher.submit("A", () -> {}));  // queue đầy
+
+		assertEquals(1.0, registry.counter("gsm.rent.dispatch.rejected").count());
+		release.countDown();
+		dispatcher.shutdown();
+	}
+}
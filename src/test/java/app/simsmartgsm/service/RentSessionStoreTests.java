@@ -0,0 +1,117 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.entity.RentalSession;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class RentSessionStoreTests {
+
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+	private final BulkOperations ops = mock(BulkOperations.class);
+	private RentSessionStore store;
+
+	@BeforeEach
+	void setUp() {
+		when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, RentalSession.class)).thenReturn(ops);
+		store = new RentSessionStore(mongoTemplate);
+		ReflectionTestUtils.setField(store, "batchSize", 100);
+	}
+
+	@Test
+	void flushUpsertsOnlyLatestVersionPerOrder() {
+		store.save(session("O1", "ACTIVE"));
+		store.save(session("O1", "COMPLETED"));
+		store.save(session("O2", "ACTIVE"));
+		verifyNoInteractions(mongoTemplate);
+
+		store.flush();
+
+		ArgumentCaptor<RentalSession> written = ArgumentCaptor.forClass(RentalSession.class);
+		verify(ops, times(2)).replaceOne(any(Query.class), written.capture(), any(FindAndReplaceOptions.class));
+		verify(ops).execute();
+		RentalSession o1 = written.getAllValues().stream().filter(s -> s.getOrderId().equals("O1")).findFirst().orElseThrow();
+		assertEquals("COMPLETED", o1.getStatus());
+		assertNotNull(o1.getUpdatedAt());
+
+		store.flush();
+		verify(ops).execute();   // không còn gì để ghi
+	}
+
+	@Test
+	void failedFlushKeepsSessionsForNextFlushWithoutOverwritingNewer() {
+		when(ops.execute()).thenThrow(new RuntimeException("timeout")).thenReturn(null);
+		store.save(session("O1", "ACTIVE"));
+		store.flush();
+
+		store.save(session("O1", "REFUNDED"));   // bản mới hơn đến trong lúc lỗi
+		store.flush();
+
+		ArgumentCaptor<RentalSession> written = ArgumentCaptor.forClass(RentalSession.class);
+		verify(ops, times(2)).replaceOne(any(Query.class), written.capture(), any(FindAndReplaceOptions.class));
+		assertEquals("REFUNDED", written.getAllValues().get(1).getStatus());
+	}
+
+	@Test
+	void fullBatchIsFlushedByFlusherNotCallerThread() {
+		ReflectionTestUtils.setField(store, "batchSize", 2);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicReference<Thread> writer = new AtomicReference<>();
+		when(ops.execute()).thenAnswer(inv -> {
+			writer.set(Thread.currentThread());
+			release.await(5, TimeUnit.SECONDS);
+			return null;
+		});
+
+		store.save(session("O1", "ACTIVE"));
+		verifyNoInteractions(mongoTemplate);
+		store.save(session("O2", "ACTIVE"));   // Mongo treo cũng không chặn thread gọi
+		store.save(session("O3", "ACTIVE"));
+
+		verify(ops, timeout(2000)).execute();
+		assertNotSame(Thread.currentThread(), writer.get());
+		release.countDown();
+		store.shutdown();
+		verify(ops, times(3)).replaceOne(any(Query.class), any(RentalSession.class), any(FindAndReplaceOptions.class));
+	}
+
+	@Test
+	void markStatusUpdatesPendingCopyOrMongo() {
+		store.save(session("O1", "REFUND_PENDING"));
+		store.markStatus("O1", "REFUNDED");
+		verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), eq(RentalSession.class));
+
+		store.flush();
+		ArgumentCaptor<RentalSession> written = ArgumentCaptor.forClass(RentalSession.class);
+		verify(ops).replaceOne(any(Query.class), written.capture(), any(FindAndReplaceOptions.class));
+		assertEquals("REFUNDED", written.getValue().getStatus());
+
+		store.markStatus("O2", "REFUNDED");
+		verify(mongoTemplate).updateFirst(any(Query.class), any(Update.class), eq(RentalSession.class));
+	}
+
+	private static RentalSession session(String orderId, String status) {
+		return RentalSession.builder()
+				.orderId(orderId)
+				.simId("sim-1")
+				.startTime(Instant.now())
+				.durationMinutes(10)
+				.status(status)
+				.build();
+	}
+}
@@ -0,0 +1,123 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.entity.Country;
+import app.simsmartgsm.entity.Sim;
+import app.simsmartgsm.repository.CountryRepository;
+import app.simsmartgsm.repository.SimRepository;
+import app.simsmartgsm.uitils.HostUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class SimInventorySnapshotTests {
+
+	@TempDir
+	Path dir;
+
+	private final SimRepository simRepository = mock(SimRepository.class);
+	private final CountryRepository countryRepository = mock(CountryRepository.class);
+	private final String device = HostUtils.getDeviceName();
+
+	private SimInventorySnapshot newSnapshot() {
+		SimInventorySnapshot snapshot = new SimInventorySnapshot(simRepository, countryRepository);
+		ReflectionTestUtils.setField(snapshot, "snapshotFile", file().toString());
+		return snapshot;
+	}
+
+	private Path file() {
+		return dir.resolve("data").resolve("inventory.json");
+	}
+
+	private static Sim sim(String id, String phone, String com, String status) {
+		return Sim.builder().id(id).phoneNumber(phone).comName(com).status(status).build();
+	}
+
+	private void mongoHas(List<Sim> sims) {
+		when(simRepository.findByDeviceName(device)).thenReturn(sims);
+		when(countryRepository.findAll()).thenReturn(List.of(Country.builder().countryCode("VN").build()));
+	}
+
+	@Test
+	void refreshWritesFileAtomicallyAndReloadsWithoutMongo() throws Exception {
+		mongoHas(List.of(sim("s1", "84901", "COM1", "ACTIVE"), sim("s2", "84902", "COM2", "ACTIVE")));
+		newSnapshot().refreshFromDb(device);
+
+		assertTrue(Files.exists(file()));
+		assertFalse(Files.exists(file().resolveSibling("inventory.json.tmp")));
+
+		// restart: phục vụ từ file, không đụng Mongo
+		// reset từng mock: gọi chung 1 lần thì T suy ra kiểu generic, javac báo unchecked varargs
+		reset(simRepository);
+		reset(countryRepository);
+		SimInventorySnapshot reloaded = newSnapshot();
+		reloaded.load();
+
+		assertTrue(reloaded.isLoaded());
+		assertEquals(2, reloaded.getSims().size());
+		assertEquals("s1", reloaded.findSimByPhone("84901").orElseThrow().getId());
+		assertEquals("s2", reloaded.findSimByCom("COM2").orElseThrow().getId());
+		assertEquals("VN", reloaded.findCountry("VN").orElseThrow().getCountryCode());
+		verifyNoInteractions(simRepository, countryRepository);
+	}
+
+	@Test
+	void prefersActiveSimWhenComIsShared() {
+		mongoHas(List.of(sim("old", "84900", "COM1", "REPLACED"), sim("new", "84901", "COM1", "ACTIVE")));
+		SimInventorySnapshot snapshot = newSnapshot();
+		snapshot.refreshFromDb(device);
+
+		assertEquals("new", snapshot.findSimByCom("COM1").orElseThrow().getId());
+	}
+
+	@Test
+	void fallsBackToMongoForMissingEntries() {
+		SimInventorySnapshot snapshot = newSnapshot();
+		snapshot.load();
+		Sim remote = sim("s9", "84909", "COM9", "ACTIVE");
+		when(simRepository.findByPhoneNumber("84909")).thenReturn(Optional.of(remote));
+		when(countryRepository.findByCountryCode("TH")).thenReturn(Optional.of(Country.builder().countryCode("TH").build()));
+
+		assertFalse(snapshot.isLoaded());
+		assertSame(remote, snapshot.findSimByPhone("84909").orElseThrow());
+		assertEquals("TH", snapshot.findCountry("TH").orElseThrow().getCountryCode());
+		// đường gửi không fallback Mongo
+		assertTrue(snapshot.findSimByCom("COM9").isEmpty());
+	}
+
+	@Test
+	void ignoresSnapshotOfAnotherDeviceOrCorruptFile() throws Exception {
+		mongoHas(List.of(sim("s1", "84901", "COM1", "ACTIVE")));
+		newSnapshot().refreshFromDb("OTHER-DEVICE");
+		SimInventorySnapshot other = newSnapshot();
+		other.load();
+		assertFalse(other.isLoaded());
+
+		Files.writeString(file(), "{\"deviceName\":");
+		SimInventorySnapshot corrupt = newSnapshot();
+		corrupt.load();
+		assertFalse(corrupt.isLoaded());
+	}
+
+	@Test
+	void reconcileFailureKeepsPreviousSnapshotAndFile() throws Exception {
+		mongoHas(List.of(sim("s1", "84901", "COM1", "ACTIVE")));
+		SimInventorySnapshot snapshot = newSnapshot();
+		snapshot.refreshFromDb(device);
+		String saved = Files.readString(file());
+
+		when(simRepository.findByDeviceName(anyString())).thenThrow(new RuntimeException("no mongo"));
+		snapshot.reconcile();
+
+		assertEquals("s1", snapshot.findSimByCom("COM1").orElseThrow().getId());
+		assertEquals(saved, Files.readString(file()));
+	}
+}
@@ -0,0 +1,63 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.dto.response.SimResponse;
+import app.simsmartgsm.entity.Sim;
+import app.simsmartgsm.uitils.PortWorker;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class SimScanServiceTests {
+
+	private static SimResponse online(String com, String phone) {
+		return new SimResponse(com, "ONLINE", "Viettel", phone, "8984" + phone, "OK");
+	}
+
+	@Test
+	void equalScansProduceTheSameEtag() {
+		SimScanService.Snapshot first = SimScanService.Snapshot.of(List.of(online("COM1", "84901"), online("COM2", "84902")));
+		SimScanService.Snapshot second = SimScanService.Snapshot.of(List.of(online("COM1", "84901"), online("COM2", "84902")));
+		SimScanService.Snapshot changed = SimScanService.Snapshot.of(List.of(online("COM1", "84901"), online("COM2", "84999")));
+
+		assertEquals(first.etag(), second.etag());
+		assertNotEquals(first.etag(), changed.etag());
+		// cập nhật 1 COM về đúng giá trị cũ thì etag cũng như cũ
+		assertEquals(first.etag(), changed.with(online("COM2", "84902")).etag());
+	}
+
+	@Test
+	void ifNoneMatchAcceptsWeakTagsListsAndWildcard() {
+		String etag = "\"1a2b\"";
+
+		assertTrue(SimScanService.etagMatches("\"1a2b\"", etag));
+		assertTrue(SimScanService.etagMatches("W/\"1a2b\"", etag));
+		assertTrue(SimScanService.etagMatches("\"ffff\", W/\"1a2b\"", etag));
+		assertTrue(SimScanService.etagMatches("*", etag));
+		assertFalse(SimScanService.etagMatches("\"ffff\"", etag));
+		assertFalse(SimScanService.etagMatches("1a2b", etag));
+		assertFalse(SimScanService.etagMatches(null, etag));
+	}
+
+	@Test
+	void portsHeldByWorkerAreNotReopened() {
+		Sim sim = Sim.builder().comName("COM_W").phoneNumber("84907").simProvider("Mobifone").build();
+		PortWorker worker = mock(PortWorker.class);
+		when(worker.getSim()).thenReturn(sim);
+		when(worker.getHealth()).thenReturn(PortWorker.Health.OK);
+		GsmListenerService listener = mock(GsmListenerService.class);
+		when(listener.getWorkers()).thenReturn(Map.of("COM_W", worker));
+		SimUpdatePublisher publisher = mock(SimUpdatePublisher.class);
+		SimScanService service = new SimScanService(publisher, listener);
+
+		List<SimResponse> scanned = service.scanPorts(List.of("COM_W"));
+
+		assertEquals(List.of(new SimResponse("COM_W", "ONLINE", "Mobifone", "84907", null, "OK")), scanned);
+		assertEquals(scanned.get(0), service.getSim("COM_W", true));
+		// không mở cổng nên cũng không có lần quét nào được publish
+		verifyNoInteractions(publisher);
+	}
+}
@@ -0,0 +1,133 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.entity.Sim;
+import app.simsmartgsm.repository.SimRepository;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class SimSyncServiceTests {
+
+	private static final String DEVICE = "DEVICE-1";
+
+	private final SimRepository simRepository = mock(SimRepository.class);
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+	private final BulkOperations ops = mock(BulkOperations.class);
+	private SimSyncService service;
+
+	@BeforeEach
+	void setUp() {
+		when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Sim.class)).thenReturn(ops);
+		service = new SimSyncService(simRepository, mock(PortManager.class), mongoTemplate, mock(SimInventorySnapshot.class));
+		ReflectionTestUtils.setField(service, "heartbeatIntervalMinutes", 30L);
+	}
+
+	private static Sim db(String id, String ccid, int missCount, String status, Instant lastUpdated) {
+		return Sim.builder().id(id).ccid(ccid).deviceName(DEVICE).comName("COM1").imsi("44010123")
+				.phoneNumber("0901").simProvider("NTT Docomo (JP)").missCount(missCount).status(status)
+				.lastUpdated(lastUpdated).build();
+	}
+
+	private static SimSyncService.ScannedSim scanned(String com, String ccid) {
+		return new SimSyncService.ScannedSim(com, ccid, "44010123", "0901", "NTT Docomo (JP)");
+	}
+
+	private static Document set(Update update) {
+		return (Document) update.getUpdateObject().get("$set");
+	}
+
+	private List<Update> updates() {
+		ArgumentCaptor<Update> captor = ArgumentCaptor.forClass(Update.class);
+		verify(ops, atLeastOnce()).updateOne(any(Query.class), captor.capture());
+		return captor.getAllValues();
+	}
+
+	@Test
+	void unchangedSimWithinHeartbeatIsNotWritten() {
+		when(simRepository.findByDeviceName(DEVICE)).thenReturn(List.of(
+				db("s1", "CCID1", 0, "ACTIVE", Instant.now().minus(5, ChronoUnit.MINUTES))));
+
+		service.syncScannedToDb(DEVICE, List.of(scanned("COM1", "CCID1")));
+
+		verify(ops, never()).updateOne(any(Query.class), any(Update.class));
+		verify(ops, never()).upsert(any(Query.class), any(Update.class));
+		verify(ops, never()).execute();
+	}
+
+	@Test
+	void unchangedSimPastHeartbeatOnlyTouchesLastUpdated() {
+		when(simRepository.findByDeviceName(DEVICE)).thenReturn(List.of(
+				db("s1", "CCID1", 0, "ACTIVE", Instant.now().minus(2, ChronoUnit.HOURS))));
+
+		service.syncScannedToDb(DEVICE, List.of(scanned("COM1", "CCID1")));
+
+		assertEquals(Set.of("lastUpdated"), set(updates().get(0)).keySet());
+		verify(ops).execute();
+	}
+
+	@Test
+	void changedSimSetsOnlyChangedFields() {
+		when(simRepository.findByDeviceName(DEVICE)).thenReturn(List.of(
+				db("s1", "CCID1", 2, "INACTIVE", Instant.now())));
+
+		service.syncScannedToDb(DEVICE, List.of(scanned("COM9", "CCID1")));
+
+		Document set = set(updates().get(0));
+		assertEquals(Set.of("missCount", "status", "comName", "lastUpdated"), set.keySet());
+		assertEquals("COM9", set.get("comName"));
+		assertEquals("ACTIVE", set.get("status"));
+		assertEquals(0, set.get("missCount"));
+	}
+
+	@Test
+	void missingSimsBecomeInactiveThenReplaced() {
+		when(simRepository.findByDeviceName(DEVICE)).thenReturn(List.of(
+				db("s1", "CCID1", 0, "ACTIVE", Instant.now()),
+				db("s2", "CCID2", 2, "ACTIVE", Instant.now()),
+				db("s3", "CCID3", 7, "INACTIVE", Instant.now())));
+
+		service.syncScannedToDb(DEVICE, List.of());
+
+		List<Update> updates = updates();
+		assertEquals(3, updates.size());
+		assertEquals(1, set(updates.get(0)).get("missCount"));
+		assertFalse(set(updates.get(0)).containsKey("status"));
+		assertEquals(3, set(updates.get(1)).get("missCount"));
+		assertEquals("INACTIVE", set(updates.get(1)).get("status"));
+		assertEquals(8, set(updates.get(2)).get("missCount"));
+		assertEquals("REPLACED", set(updates.get(2)).get("status"));
+		verify(ops).execute();
+	}
+
+	@Test
+	void newCcidIsUpsertedByCcidEvenIfOwnedByAnotherDevice() {
+		// CCID đang thuộc device khác nên không có trong findByDeviceName của device này
+		when(simRepository.findByDeviceName(DEVICE)).thenReturn(List.of());
+
+		service.syncScannedToDb(DEVICE, List.of(scanned("COM3", "CCID_MOVED")));
+
+		ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+		ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+		verify(ops).upsert(query.capture(), update.capture());
+		assertEquals(new Document("ccid", "CCID_MOVED"), query.getValue().getQueryObject());
+		assertEquals(DEVICE, set(update.getValue()).get("deviceName"));
+		assertEquals("COM3", set(update.getValue()).get("comName"));
+		assertTrue(((Document) update.getValue().getUpdateObject().get("$setOnInsert")).containsKey("_id"));
+		verify(ops).execute();
+	}
+}
@@ -0,0 +1,88 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.dto.response.SimResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class SimUpdatePublisherTests {
+
+	private static SimResponse sim(String com, String status) {
+		return new SimResponse(com, status, "VIETTEL", "0901", "8984", "OK");
+	}
+
+	@Test
+	void coalescesUpdatesAndSkipsUnchangedPorts() {
+		SimpMessagingTemplate template = mock(SimpMessagingTemplate.class);
+		SimUpdatePublisher publisher = new SimUpdatePublisher(template, new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(publisher, "topicMinIntervalMs", 0L);
+		ReflectionTestUtils.setField(publisher, "fullListIntervalMs", 0L);
+
+		publisher.publishSim(sim("COM1", "OFFLINE"));
+		publisher.publishSim(sim("COM1", "ONLINE"));   // cùng cửa sổ: chỉ giữ bản mới nhất
+		publisher.publishSim(sim("COM2", "ONLINE"));
+		publisher.flush();
+
+		verify(template).convertAndSend("/topic/sims/COM1", sim("COM1", "ONLINE"));
+		verify(template).convertAndSend("/topic/sims/COM2", sim("COM2", "ONLINE"));
+		verify(template).convertAndSend(eq(SimUpdatePublisher.SIM_CHANGES_TOPIC), any(Object.class));
+		verify(template).convertAndSend(eq(SimUpdatePublisher.SIMS_TOPIC), any(Object.class));
+
+		clearInvocations(template);
+		publisher.publishSim(sim("COM1", "ONLINE"));   // không đổi
+		publisher.flush();
+		verifyNoInteractions(template);
+
+		assertEquals(List.of(sim("COM1", "ONLINE"), sim("COM2", "ONLINE")), publisher.currentSims());
+	}
+
+	@Test
+	void holdsBackUpdatesInsideRateLimit() {
+		SimpMessagingTemplate template = mock(SimpMessagingTemplate.class);
+		SimUpdatePublisher publisher = new SimUpdatePublisher(template, new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(publisher, "topicMinIntervalMs", 60_000L);
+		ReflectionTestUtils.setField(publisher, "fullListIntervalMs", 60_000L);
+
+		publisher.publishSim(sim("COM1", "ONLINE"));
+		publisher.flush();
+		publisher.publishSim(sim("COM1", "OFFLINE"));
+		publisher.flush();
+
+		verify(template, times(1)).convertAndSend(eq("/topic/sims/COM1"), any(Object.class));
+		assertEquals("OFFLINE", publisher.currentSims().get(0).getStatus());
+	}
+
+	@Test
+	void portsMissingFromFullScanAreRemovedAndPushed() {
+		SimpMessagingTemplate template = mock(SimpMessagingTemplate.class);
+		SimUpdatePublisher publisher = new SimUpdatePublisher(template, new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(publisher, "topicMinIntervalMs", 0L);
+		ReflectionTestUtils.setField(publisher, "fullListIntervalMs", 0L);
+		publisher.publishSim(sim("COM1", "ONLINE"));
+		publisher.publishSim(sim("COM2", "ONLINE"));
+		publisher.flush();
+		publisher.publishSim(sim("COM3", "ONLINE"));   // chưa kịp push thì COM3 đã rút ra
+		clearInvocations(template);
+
+		publisher.retainPorts(List.of("COM1"));
+		publisher.flush();
+
+		verify(template).convertAndSend(SimUpdatePublisher.SIM_REMOVED_TOPIC, List.of("COM2"));
+		verify(template).convertAndSend(SimUpdatePublisher.SIMS_TOPIC, List.of(sim("COM1", "ONLINE")));
+		verify(template, never()).convertAndSend(eq("/topic/sims/COM3"), any(Object.class));
+		assertEquals(List.of(sim("COM1", "ONLINE")), publisher.currentSims());
+
+		// cắm lại: push như COM mới
+		publisher.publishSim(sim("COM2", "ONLINE"));
+		publisher.flush();
+		verify(template).convertAndSend("/topic/sims/COM2", sim("COM2", "ONLINE"));
+	}
+}
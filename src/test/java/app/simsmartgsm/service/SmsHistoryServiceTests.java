@@ -0,0 +1,90 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.dto.response.SmsHistoryPage;
+import app.simsmartgsm.entity.SmsMessage;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SmsHistoryServiceTests {
+
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+	private final SmsHistoryService service = new SmsHistoryService(mongoTemplate);
+
+	@Test
+	void cursorRoundTripsAndRejectsGarbage() {
+		Instant ts = Instant.ofEpochMilli(1_760_000_000_123L);
+		SmsHistoryService.Cursor cursor = new SmsHistoryService.Cursor(ts, "66f0c0ffee0000000000abcd");
+
+		String encoded = cursor.encode();
+
+		assertFalse(encoded.contains("=") || encoded.contains("+") || encoded.contains("/"));
+		assertEquals(cursor, SmsHistoryService.Cursor.decode(encoded));
+		assertThrows(IllegalArgumentException.class, () -> SmsHistoryService.Cursor.decode("not-a-cursor"));
+		assertThrows(IllegalArgumentException.class, () -> SmsHistoryService.Cursor.decode("!!!"));
+	}
+
+	@Test
+	void fullPageReturnsCursorOfLastItemAndFetchesOneExtra() {
+		when(mongoTemplate.find(any(Query.class), eq(SmsMessage.class))).thenReturn(messages(4));
+
+		SmsHistoryPage page = service.find("dev", null, null, null, null, null, null, 3);
+
+		assertEquals(3, page.getItems().size());
+		SmsMessage last = page.getItems().get(2);
+		assertEquals(new SmsHistoryService.Cursor(last.getTimestamp(), last.getId()),
+				SmsHistoryService.Cursor.decode(page.getNextCursor()));
+		assertEquals(4, capturedQuery().getLimit());
+	}
+
+	@Test
+	void lastPageHasNoCursor() {
+		when(mongoTemplate.find(any(Query.class), eq(SmsMessage.class))).thenReturn(messages(3));
+
+		SmsHistoryPage page = service.find("dev", null, null, null, null, null, null, 3);
+
+		assertEquals(3, page.getItems().size());
+		assertNull(page.getNextCursor());
+	}
+
+	@Test
+	void cursorSeeksPastBoundaryAndLimitIsClamped() {
+		when(mongoTemplate.find(any(Query.class), eq(SmsMessage.class))).thenReturn(List.of());
+		String cursor = new SmsHistoryService.Cursor(Instant.ofEpochMilli(5000), "id-5").encode();
+
+		service.find("dev", "COM7", null, null, null, null, cursor, 10_000);
+
+		Query query = capturedQuery();
+		assertEquals(SmsHistoryService.MAX_LIMIT + 1, query.getLimit());
+		String filter = query.getQueryObject().toString();
+		assertTrue(filter.contains("comPort=COM7"), filter);
+		assertTrue(filter.contains("$lt"), filter);
+		assertTrue(filter.contains("id-5"), filter);
+		assertEquals("{\"timestamp\": -1, \"id\": -1}", query.getSortObject().toJson());
+	}
+
+	private Query capturedQuery() {
+		ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+		verify(mongoTemplate).find(query.capture(), eq(SmsMessage.class));
+		return query.getValue();
+	}
+
+	/** n tin, timestamp giảm dần, 2 tin cuối cùng timestamp để kiểm tra tie-break theo id */
+	private static List<SmsMessage> messages(int n) {
+		List<SmsMessage> list = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			long ts = 10_000 - Math.min(i, n - 2) * 1000L;
+			list.add(SmsMessage.builder().id("id-" + (n - i)).timestamp(Instant.ofEpochMilli(ts)).build());
+		}
+		return list;
+	}
+}
@@ -0,0 +1,173 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.entity.InboundSms;
+import app.simsmartgsm.uitils.HostUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class SmsJournalTests {
+
+	@TempDir
+	Path dir;
+
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+	private final SmsMessageWriter writer = mock(SmsMessageWriter.class);
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final List<InboundSms> replayed = new ArrayList<>();
+	private final List<SmsJournal> opened = new ArrayList<>();
+
+	private SmsJournal open() throws Exception {
+		BulkOperations ops = mock(BulkOperations.class);
+		when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(InboundSms.class))).thenReturn(ops);
+		when(ops.replaceOne(any(), any(), any())).thenAnswer(inv -> {
+			replayed.add(inv.getArgument(1));
+			return ops;
+		});
+		when(writer.isIdle()).thenReturn(true);
+
+		SmsJournal journal = new SmsJournal(mongoTemplate, registry, writer);
+		ReflectionTestUtils.setField(journal, "journalDir", dir.toString());
+		ReflectionTestUtils.setField(journal, "segmentSizeMb", 1);
+		ReflectionTestUtils.setField(journal, "replayIntervalMs", 3_600_000L);
+		ReflectionTestUtils.setField(journal, "replayBatchSize", 500);
+		journal.open();
+		opened.add(journal);
+		return journal;
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		for (SmsJournal j : opened) j.close();
+	}
+
+	private static SmsJournal.Entry entry(String body) {
+		return new SmsJournal.Entry("COM7", "sim-7", "84900000007", "+84123", body, "25/10/19,12:00:00+28",
+				Instant.parse("2025-10-19T05:00:00Z"), null, null, null);
+	}
+
+	private static List<String> bodies(List<SmsJournal.Pending> pending) {
+		return pending.stream().map(p -> p.entry().body()).toList();
+	}
+
+	@Test
+	void replaysToInboundSmsAndPersistsBothCheckpoints() throws Exception {
+		SmsJournal journal = open();
+		long a = journal.append(entry("OTP 111111"));
+		long b = journal.append(entry("OTP 222222"));
+		journal.append(entry("OTP 333333"));
+
+		assertEquals(3, journal.replayBatch());
+		String device = HostUtils.getDeviceName();
+		assertEquals(device + ":1:0", replayed.get(0).getId());
+		assertEquals(device + ":1:" + SmsJournal.offsetOf(b), replayed.get(1).getId());
+		assertEquals("OTP 333333", replayed.get(2).getContent());
+
+		journal.markProcessed(a);
+		journal.markProcessed(b);
+		assertEquals(0, journal.replayBatch());
+		journal.close();
+
+		// restart: không replay lại, chỉ entry chưa markProcessed được trả về để xử lý lại
+		replayed.clear();
+		SmsJournal reopened = open();
+		assertEquals(List.of("OTP 333333"), bodies(reopened.unprocessed()));
+		assertEquals(0, reopened.replayBatch());
+		assertTrue(replayed.isEmpty());
+	}
+
+	@Test
+	void processedCheckpointWaitsForWriterToDrain() throws Exception {
+		SmsJournal journal = open();
+		journal.markProcessed(journal.append(entry("OTP 111111")));
+		when(writer.isIdle()).thenReturn(false);
+		journal.replayBatch();
+		journal.close();
+
+		// SMS có thể còn nằm trong queue của writer lúc crash: vẫn phải xử lý lại
+		assertEquals(List.of("OTP 111111"), bodies(open().unprocessed()));
+	}
+
+	@Test
+	void tornTailRecordIsDroppedAndOverwritten() throws Exception {
+		SmsJournal journal = open();
+		journal.append(entry("OTP 111111"));
+		journal.append(entry("OTP 222222"));
+		int tail = tailOffset(journal);
+		journal.close();
+
+		// crash giữa lúc ghi entry cuối: header đã có, payload chưa ghi xong
+		write(tail, 40, 0xDEADBEEF, "{\"comPort\":\"CO");
+
+		SmsJournal reopened = open();
+		assertEquals(List.of("OTP 111111", "OTP 222222"), bodies(reopened.unprocessed()));
+		long next = reopened.append(entry("OTP 333333"));
+		assertEquals(tail, SmsJournal.offsetOf(next));
+
+		assertEquals(3, reopened.replayBatch());
+		assertEquals("OTP 333333", replayed.get(2).getContent());
+		assertEquals(0, registry.counter("gsm.journal.corrupt").count());
+	}
+
+	@Test
+	void corruptMiddleRecordIsSkippedNotTruncated() throws Exception {
+		SmsJournal journal = open();
+		journal.append(entry("OTP 111111"));
+		long b = journal.append(entry("OTP 222222"));
+		journal.append(entry("OTP 333333"));
+		journal.close();
+
+		// lật 1 byte payload của entry giữa: CRC sai nhưng length vẫn đúng
+		int payloadAt = SmsJournal.offsetOf(b) + 8;
+		try (FileChannel ch = FileChannel.open(segment(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer one = ByteBuffer.allocate(1);
+			ch.read(one, payloadAt);
+			one.put(0, (byte) (one.get(0) ^ 0x5A)).rewind();
+			ch.write(one, payloadAt);
+		}
+
+		SmsJournal reopened = open();
+		assertEquals(List.of("OTP 111111", "OTP 333333"), bodies(reopened.unprocessed()));
+		assertEquals(2, reopened.replayBatch());
+		assertEquals(List.of("OTP 111111", "OTP 333333"), replayed.stream().map(InboundSms::getContent).toList());
+		assertEquals(1, registry.counter("gsm.journal.corrupt").count());
+
+		// entry mới ghi sau entry cuối hợp lệ, không đè lên phần sau entry hỏng
+		long next = reopened.append(entry("OTP 444444"));
+		assertTrue(SmsJournal.offsetOf(next) > SmsJournal.offsetOf(b));
+	}
+
+	private Path segment() {
+		return dir.resolve(String.format("%010d.log", 1));
+	}
+
+	private static int tailOffset(SmsJournal journal) {
+		return (int) ReflectionTestUtils.getField(journal, "writePosition");
+	}
+
+	private void write(int offset, int len, int crc, String partialPayload) throws Exception {
+		try (FileChannel ch = FileChannel.open(segment(), StandardOpenOption.WRITE)) {
+			byte[] payload = partialPayload.getBytes();
+			ByteBuffer buf = ByteBuffer.allocate(8 + payload.length);
+			buf.putInt(len).putInt(crc).put(payload).flip();
+			ch.write(buf, offset);
+		}
+	}
+}
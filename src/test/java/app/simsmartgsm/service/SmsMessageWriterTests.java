@@ -0,0 +1,107 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.entity.SmsMessage;
+import app.simsmartgsm.repository.SmsMessageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SmsMessageWriterTests {
+
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+	private final BulkOperations ops = mock(BulkOperations.class);
+	private final SmsMessageRepository repository = mock(SmsMessageRepository.class);
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private SmsMessageWriter writer;
+
+	@BeforeEach
+	void setUp() {
+		when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, SmsMessage.class)).thenReturn(ops);
+		writer = new SmsMessageWriter(mongoTemplate, repository, registry);
+		ReflectionTestUtils.setField(writer, "capacity", 100);
+		ReflectionTestUtils.setField(writer, "batchSize", 50);
+		ReflectionTestUtils.setField(writer, "flushIntervalMs", 20L);
+		ReflectionTestUtils.setField(writer, "offerTimeoutMs", 20L);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		writer.shutdown();
+	}
+
+	@Test
+	void retryAfterPartialFailureUpsertsSameIds() throws Exception {
+		when(ops.execute()).thenThrow(new RuntimeException("timeout after partial write")).thenReturn(null);
+		writer.start();
+
+		writer.write(sms("O1"));
+		writer.write(sms("O2"));
+
+		verify(ops, timeout(3000).times(2)).execute();
+		ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+		ArgumentCaptor<SmsMessage> docs = ArgumentCaptor.forClass(SmsMessage.class);
+		verify(ops, times(4)).replaceOne(queries.capture(), docs.capture(), any(FindAndReplaceOptions.class));
+		List<SmsMessage> written = docs.getAllValues();
+		assertNotNull(written.get(0).getId());
+		assertEquals(written.get(0).getId(), written.get(2).getId());
+		assertEquals(written.get(1).getId(), written.get(3).getId());
+		assertNotEquals(written.get(0).getId(), written.get(1).getId());
+		verify(ops, never()).insert(anyList());
+	}
+
+	@Test
+	void fullQueueFallsBackToSynchronousSave() throws Exception {
+		ReflectionTestUtils.setField(writer, "capacity", 1);
+		ReflectionTestUtils.setField(writer, "batchSize", 1);
+		CountDownLatch flushing = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		when(ops.execute()).thenAnswer(inv -> {
+			flushing.countDown();
+			release.await();
+			return null;
+		});
+		writer.start();
+
+		writer.write(sms("O1"));        // flusher lấy và kẹt ở bulk write
+		flushing.await();
+		writer.write(sms("O2"));        // nằm trong queue
+		SmsMessage overflow = sms("O3");
+		writer.write(overflow);         // queue đầy -> ghi đồng bộ
+
+		verify(repository).save(overflow);
+		assertEquals(1.0, registry.counter("gsm.sms.writer.overflow").count());
+		assertTrue(writer.hasPending("O1"));
+		assertTrue(writer.hasPending("O2"));
+		release.countDown();
+	}
+
+	@Test
+	void shutdownDrainsQueuedMessages() throws Exception {
+		ReflectionTestUtils.setField(writer, "flushIntervalMs", 5_000L);
+		writer.start();
+		for (int i = 0; i < 5; i++) writer.write(sms("S" + i));
+
+		writer.shutdown();
+
+		verify(ops, times(5)).replaceOne(any(Query.class), any(SmsMessage.class), any(FindAndReplaceOptions.class));
+		for (int i = 0; i < 5; i++) assertFalse(writer.hasPending("S" + i));
+	}
+
+	private static SmsMessage sms(String orderId) {
+		return SmsMessage.builder().orderId(orderId).deviceName("dev").content("code 1234").build();
+	}
+}
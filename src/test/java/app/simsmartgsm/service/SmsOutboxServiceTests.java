@@ -0,0 +1,99 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.entity.OutboundSms;
+import app.simsmartgsm.repository.OutboundSmsRepository;
+import app.simsmartgsm.uitils.AtCommandHelper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SmsOutboxServiceTests {
+
+	@Test
+	void parsesTextModeStatusReport() {
+		AtCommandHelper.StatusReport r = AtCommandHelper.parseCds(
+				"+CDS: 6,42,\"+84901234567\",145,\"24/01/01,10:00:00+28\",\"24/01/01,10:00:05+28\",0");
+		assertNotNull(r);
+		assertEquals(42, r.messageRef());
+		assertEquals("+84901234567", r.recipient());
+		assertEquals("24/01/01,10:00:05+28", r.dischargeTime());
+		assertTrue(r.delivered());
+
+		assertTrue(AtCommandHelper.parseCds("+CDS: 6,7,\"0901\",129,\"a\",\"b\",48").pending());
+		assertNull(AtCommandHelper.parseCds("+CDS: 25"));   // PDU mode
+	}
+
+	@Test
+	void correlatesReportWithSubmittedMessage() {
+		OutboundSmsRepository repo = mock(OutboundSmsRepository.class);
+		MongoTemplate mongo = mock(MongoTemplate.class);
+		SmsOutboxService outbox = new SmsOutboxService(repo, mongo, new SimpleMeterRegistry());
+		try {
+			String id = outbox.recordSubmit("COM3", "0901", "0800", "hi",
+					new AtCommandHelper.SendResult(true, 42, null, "+CMGS: 42"));
+			outbox.recordSubmit("COM3", "0901", "0800", "hi",
+					new AtCommandHelper.SendResult(false, null, 38, "+CMS ERROR: 38"));
+			assertEquals(1, outbox.pendingCount());
+
+			// report cùng ref nhưng khác COM không được khớp
+			outbox.onStatusReport("COM4", new AtCommandHelper.StatusReport(42, "0800", "", "", 0));
+			assertEquals(1, outbox.pendingCount());
+
+			outbox.onStatusReport("COM3", new AtCommandHelper.StatusReport(42, "0800", "", "t", 0));
+			assertEquals(0, outbox.pendingCount());
+		} finally {
+			outbox.shutdown();
+		}
+		verify(repo, times(2)).save(any(OutboundSms.class));
+		verify(mongo).updateFirst(any(Query.class), argThat((Update u) ->
+				OutboundSms.STATUS_DELIVERED.equals(u.getUpdateObject().get("$set", Document.class).get("status"))),
+				eq(OutboundSms.class));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void recordsEveryPartOfMultipartMessage() {
+		OutboundSmsRepository repo = mock(OutboundSmsRepository.class);
+		MongoTemplate mongo = mock(MongoTemplate.class);
+		SmsOutboxService outbox = new SmsOutboxService(repo, mongo, new SimpleMeterRegistry());
+		ArgumentCaptor<List<OutboundSms>> saved = ArgumentCaptor.forClass(List.class);
+		String id;
+		try {
+			// 3 phần: phần 1, 2 gửi được (ref 5, 6), phần 3 lỗi
+			id = outbox.recordSubmit("COM3", "0901", "0800", "long",
+					new AtCommandHelper.SendResult(false, null, 38, "+CMS ERROR: 38", List.of(5, 6), 3));
+			assertEquals(2, outbox.pendingCount());
+
+			// report của phần 1 không làm mất khớp phần 2
+			outbox.onStatusReport("COM3", new AtCommandHelper.StatusReport(5, "0800", "", "t", 0));
+			assertEquals(1, outbox.pendingCount());
+			outbox.onStatusReport("COM3", new AtCommandHelper.StatusReport(6, "0800", "", "t", 0));
+			assertEquals(0, outbox.pendingCount());
+		} finally {
+			outbox.shutdown();
+		}
+		verify(repo).saveAll(saved.capture());
+		List<OutboundSms> parts = saved.getValue();
+		assertEquals(3, parts.size());
+		assertEquals(id, parts.get(0).getId());
+		assertEquals(List.of(5, 6), parts.subList(0, 2).stream().map(OutboundSms::getMessageRef).toList());
+		assertEquals(OutboundSms.STATUS_FAILED, parts.get(2).getStatus());
+		assertEquals(38, parts.get(2).getErrorCode());
+		for (int i = 0; i < parts.size(); i++) {
+			assertEquals(id, parts.get(i).getGroupId());
+			assertEquals(i + 1, parts.get(i).getPartSeq());
+			assertEquals(3, parts.get(i).getPartCount());
+		}
+		verify(mongo, times(2)).updateFirst(any(Query.class), any(Update.class), eq(OutboundSms.class));
+	}
+}
@@ -0,0 +1,122 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.entity.SmsMessage;
+import app.simsmartgsm.entity.SmsMessageArchive;
+import com.mongodb.client.result.DeleteResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SmsRetentionServiceTests {
+
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+	private final BulkOperations ops = mock(BulkOperations.class);
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	/** sms_messages và sms_messages_archive giả lập trong bộ nhớ, theo _id */
+	private final Map<String, SmsMessage> hot = new LinkedHashMap<>();
+	private final Map<String, SmsMessageArchive> archive = new LinkedHashMap<>();
+	private final List<SmsMessageArchive> pending = new ArrayList<>();
+	private SmsRetentionService service;
+
+	@BeforeEach
+	void setUp() {
+		when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, SmsMessageArchive.class)).thenReturn(ops);
+		when(mongoTemplate.find(any(Query.class), eq(SmsMessage.class))).thenAnswer(inv -> {
+			int limit = inv.<Query>getArgument(0).getLimit();
+			return hot.values().stream().limit(limit).toList();
+		});
+		when(ops.replaceOne(any(Query.class), any(SmsMessageArchive.class), any(FindAndReplaceOptions.class)))
+				.thenAnswer(inv -> {
+					pending.add(inv.getArgument(1));
+					return ops;
+				});
+		when(ops.execute()).thenAnswer(inv -> {
+			pending.forEach(a -> archive.put(a.getId(), a));
+			pending.clear();
+			return null;
+		});
+		when(mongoTemplate.remove(any(Query.class), eq(SmsMessage.class))).thenAnswer(inv -> removeFromHot(inv.getArgument(0)));
+
+		service = new SmsRetentionService(mongoTemplate, registry);
+		ReflectionTestUtils.setField(service, "batchSize", 2);
+		ReflectionTestUtils.setField(service, "maxBatchesPerRun", 20);
+	}
+
+	private DeleteResult removeFromHot(Query query) {
+		Document in = (Document) query.getQueryObject().get("_id");
+		((List<?>) in.get("$in")).forEach(hot::remove);
+		return null;
+	}
+
+	private void hotHas(int n) {
+		for (int i = 0; i < n; i++) {
+			hot.put("m" + i, SmsMessage.builder().id("m" + i).orderId("O" + i).deviceName("dev")
+					.content("code " + i).timestamp(Instant.parse("2025-01-01T00:00:00Z").plusSeconds(i)).build());
+		}
+	}
+
+	@Test
+	void upsertsEachBatchIntoArchiveBeforeDeletingIt() {
+		hotHas(5);
+
+		assertEquals(5, service.archiveOlderThan("dev", Instant.now()));
+
+		assertTrue(hot.isEmpty());
+		assertEquals(List.of("m0", "m1", "m2", "m3", "m4"), List.copyOf(archive.keySet()));
+		assertEquals("code 3", archive.get("m3").getContent());
+		InOrder order = inOrder(ops, mongoTemplate);
+		for (int i = 0; i < 3; i++) {
+			order.verify(ops).execute();
+			order.verify(mongoTemplate).remove(any(Query.class), eq(SmsMessage.class));
+		}
+		assertEquals(5.0, registry.counter("gsm.sms.archived").count());
+	}
+
+	@Test
+	void stopsAfterMaxBatchesPerRun() {
+		ReflectionTestUtils.setField(service, "maxBatchesPerRun", 3);
+		hotHas(10);
+
+		assertEquals(6, service.archiveOlderThan("dev", Instant.now()));
+		assertEquals(4, hot.size());
+
+		// lần chạy sau tiếp tục phần còn lại
+		assertEquals(4, service.archiveOlderThan("dev", Instant.now()));
+		assertTrue(hot.isEmpty());
+		assertEquals(10, archive.size());
+	}
+
+	@Test
+	void rerunAfterCrashBetweenUpsertAndDeleteIsIdempotent() {
+		hotHas(3);
+		when(mongoTemplate.remove(any(Query.class), eq(SmsMessage.class)))
+				.thenThrow(new RuntimeException("crash"))
+				.thenAnswer(inv -> removeFromHot(inv.getArgument(0)));
+
+		assertThrows(RuntimeException.class, () -> service.archiveOlderThan("dev", Instant.now()));
+		assertEquals(2, archive.size());
+		assertEquals(3, hot.size());
+
+		assertEquals(3, service.archiveOlderThan("dev", Instant.now()));
+		// m0, m1 được upsert lại cùng _id, không sinh bản trùng
+		assertEquals(List.of("m0", "m1", "m2"), List.copyOf(archive.keySet()));
+		assertTrue(hot.isEmpty());
+	}
+}
@@ -0,0 +1,259 @@
+package app.simsmartgsm.service;
+
+import app.simsmartgsm.dto.response.SmsSendJob;
+import app.simsmartgsm.uitils.AtCommandHelper;
+import app.simsmartgsm.uitils.PortWorker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SmsSendJobServiceTests {
+
+	@Test
+	void parsesMessageReferenceAndCmsError() {
+		AtCommandHelper.SendResult ok = AtCommandHelper.SendResult.parse("\r\n+CMGS: 42\r\n\r\nOK\r\n", true);
+		assertTrue(ok.ok());
+		assertEquals(42, ok.messageRef());
+
+		AtCommandHelper.SendResult err = AtCommandHelper.SendResult.parse("\r\n+CMS ERROR: 38\r\n", true);
+		assertFalse(err.ok());
+		assertEquals(38, err.errorCode());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void retriesFailedSendAndReportsReference() throws Exception {
+		GsmListenerService listener = mock(GsmListenerService.class);
+		when(listener.getWorkers()).thenReturn(Map.of());
+		PortManager portManager = mock(PortManager.class);
+		when(portManager.withPort(eq("COM5"), any(), anyLong()))
+				.thenReturn(new AtCommandHelper.SendResult(false, null, 38, "+CMS ERROR: 38"))
+				.thenReturn(new AtCommandHelper.SendResult(true, 7, null, "+CMGS: 7"));
+		SimpMessagingTemplate template = mock(SimpMessagingTemplate.class);
+
+		SmsSendJobService service = new SmsSendJobService(listener, portManager, template, new SimpleMeterRegistry(),
+				mock(SmsOutboxService.class), mock(AdaptiveSendRateLimiter.class), 1);
+		ReflectionTestUtils.setField(service, "maxAttempts", 3);
+		ReflectionTestUtils.setField(service, "backoffMs", 0L);
+		try {
+			SmsSendJob submitted = service.submit("COM5", "0901234567", "hello");
+			assertEquals(SmsSendJob.Status.QUEUED, submitted.getStatus());
+
+			SmsSendJob job = submitted;
+			for (int i = 0; i < 100 && job.getStatus() != SmsSendJob.Status.SENT; i++) {
+				Thread.sleep(20);
+				job = service.find(submitted.getJobId()).orElseThrow();
+			}
+			assertEquals(SmsSendJob.Status.SENT, job.getStatus());
+			assertEquals(2, job.getAttempts());
+			assertEquals(7, job.getMessageRef());
+			assertNull(job.getErrorCode());
+			assertNotNull(job.getSendMs());
+			verify(template).convertAndSend(eq(SmsSendJobService.JOB_TOPIC + "/" + submitted.getJobId()), any(Object.class));
+		} finally {
+			service.shutdown();
+		}
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void directSendLatencyStartsAtCmgsNotAtPortLock() throws Exception {
+		GsmListenerService listener = mock(GsmListenerService.class);
+		when(listener.getWorkers()).thenReturn(Map.of());
+		AtCommandHelper helper = mock(AtCommandHelper.class);
+		when(helper.sendTextSmsDetailed(anyString(), anyString(), any()))
+				.thenReturn(new AtCommandHelper.SendResult(true, 3, null, "+CMGS: 3"));
+		PortManager portManager = mock(PortManager.class);
+		when(portManager.withPort(eq("COM5"), any(), anyLong())).thenAnswer(inv -> {
+			Thread.sleep(400);   // chờ lock / mở lại port
+			return ((Function<AtCommandHelper, Object>) inv.getArgument(1)).apply(helper);
+		});
+		AdaptiveSendRateLimiter limiter = mock(AdaptiveSendRateLimiter.class);
+
+		SmsSendJobService service = new SmsSendJobService(listener, portManager, mock(SimpMessagingTemplate.class),
+				new SimpleMeterRegistry(), mock(SmsOutboxService.class), limiter, 1);
+		try {
+			CountDownLatch done = new CountDownLatch(1);
+			service.sendVia("COM5", "0901234567", "hello", () -> true, r -> done.countDown());
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+
+			ArgumentCaptor<Long> latency = ArgumentCaptor.forClass(Long.class);
+			verify(limiter).onResult(eq("COM5"), any(), latency.capture());
+			assertTrue(latency.getValue() < 400, "latency=" + latency.getValue());
+		} finally {
+			service.shutdown();
+		}
+	}
+
+	@Test
+	void jobTimedOutWhileQueuedOnWorkerIsNeverSent() throws Exception {
+		PortWorker worker = mock(PortWorker.class);
+		GsmListenerService listener = mock(GsmListenerService.class);
+		when(listener.getWorkers()).thenReturn(Map.of("COM5", worker));
+		SimpMessagingTemplate template = mock(SimpMessagingTemplate.class);
+		SmsSendJobService service = new SmsSendJobService(listener, mock(PortManager.class), template,
+				new SimpleMeterRegistry(), mock(SmsOutboxService.class), mock(AdaptiveSendRateLimiter.class), 1);
+		ReflectionTestUtils.setField(service, "timeoutMs", 0L);
+		ReflectionTestUtils.setField(service, "retentionMinutes", 60L);
+		try {
+			SmsSendJob submitted = service.submit("COM5", "0901234567", "hello");
+			ArgumentCaptor<BooleanSupplier> onStart = ArgumentCaptor.forClass(BooleanSupplier.class);
+			verify(worker).sendSms(eq("0901234567"), eq("hello"), onStart.capture(), any());
+			Thread.sleep(10);
+			service.sweep();
+
+			// worker lấy task ra sau khi job đã FAILED: không gửi, status giữ nguyên
+			assertFalse(onStart.getValue().getAsBoolean());
+			SmsSendJob job = service.find(submitted.getJobId()).orElseThrow();
+			assertEquals(SmsSendJob.Status.FAILED, job.getStatus());
+			assertEquals("timeout", job.getError());
+			assertEquals(0, job.getAttempts());
+			verify(template, times(1)).convertAndSend(eq(SmsSendJobService.JOB_TOPIC), any(Object.class));
+		} finally {
+			service.shutdown();
+		}
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void limiterDelayedDispatchOfTimedOutJobNeverReachesCmgs() throws Exception {
+		GsmListenerService listener = mock(GsmListenerService.class);
+		when(listener.getWorkers()).thenReturn(Map.of());
+		AtCommandHelper helper = mock(AtCommandHelper.class);
+		PortManager portManager = mock(PortManager.class);
+		CountDownLatch portOpened = new CountDownLatch(1);
+		when(portManager.withPort(eq("COM5"), any(), anyLong())).thenAnswer(inv -> {
+			Object result = ((Function<AtCommandHelper, Object>) inv.getArgument(1)).apply(helper);
+			portOpened.countDown();
+			return result;
+		});
+		AdaptiveSendRateLimiter limiter = mock(AdaptiveSendRateLimiter.class);
+		when(limiter.reserve("COM5")).thenReturn(TimeUnit.MILLISECONDS.toNanos(300));
+		SmsOutboxService outbox = mock(SmsOutboxService.class);
+		SimpMessagingTemplate template = mock(SimpMessagingTemplate.class);
+		SmsSendJobService service = new SmsSendJobService(listener, portManager, template,
+				new SimpleMeterRegistry(), outbox, limiter, 1);
+		ReflectionTestUtils.setField(service, "timeoutMs", 0L);
+		ReflectionTestUtils.setField(service, "retentionMinutes", 60L);
+		try {
+			SmsSendJob submitted = service.submit("COM5", "0901234567", "hello");
+			Thread.sleep(10);
+			service.sweep();   // FAILED trong lúc chờ token
+
+			assertTrue(portOpened.await(5, TimeUnit.SECONDS));
+			Thread.sleep(50);
+			verify(helper, never()).sendTextSmsDetailed(anyString(), anyString(), any());
+			verify(outbox, never()).recordSubmit(anyString(), any(), anyString(), anyString(), any());
+			verify(limiter, never()).onResult(anyString(), any(), anyLong());
+			assertEquals(SmsSendJob.Status.FAILED, service.find(submitted.getJobId()).orElseThrow().getStatus());
+			verify(template, times(1)).convertAndSend(eq(SmsSendJobService.JOB_TOPIC), any(Object.class));
+		} finally {
+			service.shutdown();
+		}
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void limiterWaitDoesNotCountTowardsJobTimeout() throws Exception {
+		PortWorker worker = mock(PortWorker.class);
+		GsmListenerService listener = mock(GsmListenerService.class);
+		when(listener.getWorkers()).thenReturn(Map.of("COM5", worker));
+		AdaptiveSendRateLimiter limiter = mock(AdaptiveSendRateLimiter.class);
+		// SIM đang bị giới hạn: còn 400 ms mới tới lượt, lâu hơn timeout
+		when(limiter.peekDelay("COM5")).thenReturn(TimeUnit.MILLISECONDS.toNanos(400));
+		when(limiter.reserve("COM5")).thenReturn(TimeUnit.MILLISECONDS.toNanos(400));
+		SmsSendJobService service = new SmsSendJobService(listener, mock(PortManager.class),
+				mock(SimpMessagingTemplate.class), new SimpleMeterRegistry(), mock(SmsOutboxService.class), limiter, 1);
+		ReflectionTestUtils.setField(service, "timeoutMs", 150L);
+		ReflectionTestUtils.setField(service, "retentionMinutes", 60L);
+		try {
+			SmsSendJob submitted = service.submit("COM5", "0901234567", "hello");
+			Thread.sleep(250);
+			service.sweep();
+			assertEquals(SmsSendJob.Status.QUEUED, service.find(submitted.getJobId()).orElseThrow().getStatus());
+
+			ArgumentCaptor<BooleanSupplier> onStart = ArgumentCaptor.forClass(BooleanSupplier.class);
+			ArgumentCaptor<Consumer<AtCommandHelper.SendResult>> onDone = ArgumentCaptor.forClass(Consumer.class);
+			verify(worker, timeout(2000)).sendSms(anyString(), anyString(), onStart.capture(), onDone.capture());
+			assertTrue(onStart.getValue().getAsBoolean());
+			onDone.getValue().accept(new AtCommandHelper.SendResult(true, 9, null, "+CMGS: 9"));
+
+			assertEquals(SmsSendJob.Status.SENT, service.find(submitted.getJobId()).orElseThrow().getStatus());
+		} finally {
+			service.shutdown();
+		}
+	}
+
+	@Test
+	void sendingJobStuckPastTimeoutIsFailed() throws Exception {
+		PortWorker worker = mock(PortWorker.class);
+		GsmListenerService listener = mock(GsmListenerService.class);
+		when(listener.getWorkers()).thenReturn(Map.of("COM5", worker));
+		SmsSendJobService service = new SmsSendJobService(listener, mock(PortManager.class),
+				mock(SimpMessagingTemplate.class), new SimpleMeterRegistry(), mock(SmsOutboxService.class),
+				mock(AdaptiveSendRateLimiter.class), 1);
+		ReflectionTestUtils.setField(service, "timeoutMs", 100L);
+		ReflectionTestUtils.setField(service, "retentionMinutes", 60L);
+		try {
+			SmsSendJob submitted = service.submit("COM5", "0901234567", "hello");
+			ArgumentCaptor<BooleanSupplier> onStart = ArgumentCaptor.forClass(BooleanSupplier.class);
+			verify(worker).sendSms(anyString(), anyString(), onStart.capture(), any());
+			assertTrue(onStart.getValue().getAsBoolean());   // modem nhận lệnh rồi treo
+
+			service.sweep();
+			assertEquals(SmsSendJob.Status.SENDING, service.find(submitted.getJobId()).orElseThrow().getStatus());
+			Thread.sleep(150);
+			service.sweep();
+			assertEquals(SmsSendJob.Status.FAILED, service.find(submitted.getJobId()).orElseThrow().getStatus());
+		} finally {
+			service.shutdown();
+		}
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void partiallySentMultipartIsNotRetried() throws Exception {
+		PortWorker worker = mock(PortWorker.class);
+		GsmListenerService listener = mock(GsmListenerService.class);
+		when(listener.getWorkers()).thenReturn(Map.of("COM5", worker));
+		SmsSendJobService service = new SmsSendJobService(listener, mock(PortManager.class),
+				mock(SimpMessagingTemplate.class), new SimpleMeterRegistry(), mock(SmsOutboxService.class),
+				mock(AdaptiveSendRateLimiter.class), 1);
+		ReflectionTestUtils.setField(service, "maxAttempts", 3);
+		ReflectionTestUtils.setField(service, "backoffMs", 0L);
+		try {
+			SmsSendJob submitted = service.submit("COM5", "0901234567", "hello");
+			ArgumentCaptor<BooleanSupplier> onStart = ArgumentCaptor.forClass(BooleanSupplier.class);
+			ArgumentCaptor<Consumer<AtCommandHelper.SendResult>> onDone = ArgumentCaptor.forClass(Consumer.class);
+			verify(worker).sendSms(anyString(), anyString(), onStart.capture(), onDone.capture());
+			assertTrue(onStart.getValue().getAsBoolean());
+
+			// phần 1/3 đã tới SMSC, phần 2 lỗi tạm thời
+			onDone.getValue().accept(new AtCommandHelper.SendResult(false, null, 38, "+CMS ERROR: 38",
+					List.of(11), 3));
+
+			Thread.sleep(50);
+			SmsSendJob job = service.find(submitted.getJobId()).orElseThrow();
+			assertEquals(SmsSendJob.Status.FAILED, job.getStatus());
+			assertEquals(1, job.getAttempts());
+			assertTrue(job.getError().startsWith("multipart partially sent 1/3"));
+			verify(worker, times(1)).sendSms(anyString(), anyString(), any(), any());
+		} finally {
+			service.shutdown();
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package app.simsmartgsm.uitils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PduCodecTests {
+
+	@Test
+	void encodesSingleGsm7SubmitLikeReferencePdu() {
+		List<PduCodec.SubmitPdu> parts = PduCodec.encodeSubmit("+84123456789", "hellohello", false, 0);
+
+		assertEquals(1, parts.size());
+		assertEquals("0011000B914821436587F90000A70AE8329BFD4697D9EC37", parts.get(0).hex());
+		assertEquals(parts.get(0).hex().length() / 2 - 1, parts.get(0).tpduLength());
+	}
+
+	@Test
+	void decodesReferenceDeliverPdu() {
+		PduCodec.Deliver d = PduCodec.decodeDeliver("07917283010010F5040BC87238880900F10000993092516195800AE8329BFD4697D9EC37");
+
+		assertEquals("27381000015", d.smsc().replace("+", ""));
+		assertEquals("27838890001", d.sender());
+		assertEquals("hellohello", d.text());
+		assertTrue(d.timestamp().startsWith("99/03/29,15:16:59"));
+		assertNull(d.concat());
+	}
+
+	@Test
+	void roundTripsGsm7WithExtensionCharacters() {
+		String text = "OTP {123} = 5€ @ [vn] ~ok";
+		PduCodec.Deliver d = roundTrip(text).get(0);
+
+		assertEquals(text, d.text());
+		assertEquals(PduCodec.DCS_GSM7, d.dcs());
+		assertFalse(PduCodec.isTextModeSafe(text));
+		assertTrue(PduCodec.isTextModeSafe("Your code is 482913"));
+	}
+
+	@Test
+	void usesUcs2ForVietnameseAndJapanese() {
+		for (String text : List.of("Mã xác thực của bạn là 482913", "認証コードは482913です")) {
+			List<PduCodec.Deliver> parts = roundTrip(text);
+			assertEquals(1, parts.size());
+			assertEquals(PduCodec.DCS_UCS2, parts.get(0).dcs());
+			assertEquals(text, parts.get(0).text());
+		}
+	}
+
+	@Test
+	void splitsLongMessagesWithConcatUdhAndReassembles() {
+		String gsm = "0123456789".repeat(40);          // 400 septet -> 3 phần x 153
+		String ucs2 = "Tiếng Việt có dấu ".repeat(10); // 180 ký tự -> 3 phần x 67
+
+		for (String text : List.of(gsm, ucs2)) {
+			List<PduCodec.Deliver> parts = roundTrip(text);
+			assertEquals(3, parts.size());
+
+			ConcatReassembler reassembler = new ConcatReassembler(60_000, 16);
+			// nhận lệch thứ tự
+			assertNull(reassembler.offer(toRecord(parts.get(2), 3)));
+			assertNull(reassembler.offer(toRecord(parts.get(0), 1)));
+			AtCommandHelper.SmsRecord merged = reassembler.offer(toRecord(parts.get(1), 2));
+
+			assertNotNull(merged);
+			assertEquals(text, merged.body);
+			assertEquals(1, merged.index);
+			assertEquals(0, reassembler.size());
+			for (int i = 0; i < 3; i++) {
+				assertEquals(new PduCodec.Concat(7, 3, i + 1), parts.get(i).concat());
+			}
+		}
+	}
+
+	@Test
+	void evictsIncompleteMessageAfterTimeout() {
+		ConcatReassembler reassembler = new ConcatReassembler(1_000, 16);
+		AtCommandHelper.SmsRecord part = new AtCommandHelper.SmsRecord();
+		part.sender = "+84900000001";
+		part.body = "Your code is ";
+		part.concatRef = 9;
+		part.concatTotal = 2;
+		part.concatSeq = 1;
+
+		assertNull(reassembler.offer(part, 0));
+		assertTrue(reassembler.evictExpired(500).isEmpty());
+		List<AtCommandHelper.SmsRecord> evicted = reassembler.evictExpired(1_000);
+
+		assertEquals(1, evicted.size());
+		assertEquals("Your code is ", evicted.get(0).body);
+		assertNull(evicted.get(0).concatSeq);
+		assertTrue(evicted.get(0).incomplete);
+		assertEquals(0, reassembler.size());
+	}
+
+	@Test
+	void passesThroughSinglePartRecords() {
+		ConcatReassembler reassembler = new ConcatReassembler(1_000, 16);
+		AtCommandHelper.SmsRecord rec = new AtCommandHelper.SmsRecord();
+		rec.body = "hi";
+
+		assertSame(rec, reassembler.offer(rec));
+	}
+
+	@Test
+	void decodesStatusReportPdu() {
+		AtCommandHelper.StatusReport r = PduCodec.decodeStatusReport(
+				"00062A0B914821436587F9520191214365005201912143650000");
+
+		assertEquals(42, r.messageRef());
+		assertEquals("+84123456789", r.recipient());
+		assertEquals("25/10/19,12:34:56+00", r.dischargeTime());
+		assertTrue(r.delivered());
+	}
+
+	@Test
+	void parsesCmglPduListing() {
+		String out = "\r\n+CMGL: 3,0,,28\r\n07917283010010F5040BC87238880900F10000993092516195800AE8329BFD4697D9EC37\r\n"
+				+ "+CMGL: 4,1,,5\r\nZZ\r\n\r\nOK\r\n";
+
+		List<AtCommandHelper.SmsRecord> list = AtCommandHelper.parseCmglPdu(out);
+
+		assertEquals(1, list.size());
+		assertEquals(3, list.get(0).index);
+		assertEquals("REC UNREAD", list.get(0).status);
+		assertEquals("hellohello", list.get(0).body);
+	}
+
+	/** Encode SMS-SUBMIT rồi dựng lại thành SMS-DELIVER cùng UD để decode */
+	private static List<PduCodec.Deliver> roundTrip(String text) {
+		List<PduCodec.Deliver> out = new ArrayList<>();
+		for (PduCodec.SubmitPdu part : PduCodec.encodeSubmit("+84900000001", text, true, 7)) {
+			byte[] s = PduCodec.fromHex(part.hex());
+			int addrOctets = ((s[3] & 0xFF) + 1) / 2;
+			int afterAddr = 5 + addrOctets;                  // SCA, FO, MR, len, TOA, địa chỉ
+			byte[] d = new byte[s.length - 2 + 7];
+			int p = 0;
+			d[p++] = 0x00;
+			d[p++] = (byte) (s[1] & 0x40);                   // SMS-DELIVER, giữ UDHI
+			System.arraycopy(s, 3, d, p, 2 + addrOctets);
+			p += 2 + addrOctets;
+			d[p++] = s[afterAddr];                           // PID
+			d[p++] = s[afterAddr + 1];                       // DCS
+			p += 7;                                          // SCTS
+			System.arraycopy(s, afterAddr + 3, d, p, s.length - afterAddr - 3);
+			out.add(PduCodec.decodeDeliver(PduCodec.toHex(d, 0, d.length)));
+		}
+		return out;
+	}
+
+	private static AtCommandHelper.SmsRecord toRecord(PduCodec.Deliver d, int index) {
+		AtCommandHelper.SmsRecord rec = new AtCommandHelper.SmsRecord();
+		rec.index = index;
+		rec.sender = d.sender();
+		rec.body = d.text();
+		rec.concatRef = d.concat().ref();
+		rec.concatTotal = d.concat().total();
+		rec.concatSeq = d.concat().seq();
+		return rec;
+	}
+}
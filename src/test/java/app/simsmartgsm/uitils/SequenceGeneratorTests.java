@@ -0,0 +1,105 @@
+package app.simsmartgsm.uitils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class SequenceGeneratorTests {
+
+	private final MongoOperations mongo = mock(MongoOperations.class);
+	/** Counter trên Mongo: mỗi findAndModify $inc blockSize */
+	private final AtomicLong counter = new AtomicLong();
+	private final Set<String> reserveThreads = ConcurrentHashMap.newKeySet();
+
+	private SequenceGenerator generator(long blockSize) {
+		when(mongo.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+				eq(Sequence.class))).thenAnswer(inv -> reserve(Math.max(1, blockSize)));
+		return new SequenceGenerator(mongo, blockSize);
+	}
+
+	private Sequence reserve(long blockSize) {
+		reserveThreads.add(Thread.currentThread().getName());
+		Sequence seq = new Sequence();
+		ReflectionTestUtils.setField(seq, "seq", counter.addAndGet(blockSize));
+		return seq;
+	}
+
+	private static List<Long> take(SequenceGenerator generator, int n) {
+		List<Long> ids = new ArrayList<>();
+		for (int i = 0; i < n; i++) ids.add(generator.generateSequence("orders"));
+		return ids;
+	}
+
+	@Test
+	void concurrentCallersGetUniqueIdsAcrossBlockSwitches() throws Exception {
+		SequenceGenerator generator = generator(50);
+		int threads = 8, perThread = 500;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<List<Long>>> futures = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			futures.add(pool.submit(() -> {
+				start.await();
+				return take(generator, perThread);
+			}));
+		}
+		start.countDown();
+
+		Set<Long> ids = ConcurrentHashMap.newKeySet();
+		for (Future<List<Long>> f : futures) ids.addAll(f.get(10, TimeUnit.SECONDS));
+		pool.shutdown();
+
+		assertEquals(threads * perThread, ids.size());
+		// block lấy trước không bị bỏ: id liền mạch từ 1
+		assertTrue(ids.containsAll(LongStream.rangeClosed(1, threads * perThread).boxed().toList()));
+		assertTrue(reserveThreads.contains("sequence-refill"));
+	}
+
+	@Test
+	void failedPrefetchFallsBackToSynchronousReserve() {
+		AtomicInteger calls = new AtomicInteger();
+		when(mongo.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+				eq(Sequence.class))).thenAnswer(inv -> {
+			// lần 2 là prefetch ở nền
+			if (calls.incrementAndGet() == 2) throw new IllegalStateException("mongo down");
+			return reserve(10);
+		});
+		SequenceGenerator generator = new SequenceGenerator(mongo, 10);
+
+		assertEquals(LongStream.rangeClosed(1, 15).boxed().toList(), take(generator, 15));
+		verify(mongo, times(3)).findAndModify(any(Query.class), any(UpdateDefinition.class),
+				any(FindAndModifyOptions.class), eq(Sequence.class));
+	}
+
+	@ParameterizedTest
+	@ValueSource(longs = {0, 1, 3, 4})
+	void smallBlockSizesStillAllocateInOrder(long blockSize) {
+		// refillAt = 0: prefetch khi cấp id cuối của block
+		SequenceGenerator generator = generator(blockSize);
+
+		assertEquals(LongStream.rangeClosed(1, 12).boxed().toList(), take(generator, 12));
+	}
+}